@@ -1,18 +1,30 @@
 package juno.builder.impl;
 
 import juno.builder.JunoBuilder;
+import juno.detector.Esp32PortInfo;
 import juno.detector.JunoDetector;
 import juno.detector.JunoPaths;
+import juno.flasher.FleetFlasher;
 import juno.flasher.JunoFlasher;
+import juno.probuilder.BuildProfile;
 import juno.probuilder.JunoBatchBuilder;
 import juno.probuilder.JunoProjectCreator;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 
 public class LocalBuilder implements JunoBuilder {
 
     private File projectDir;
+    private BuildProfile buildProfile = BuildProfile.DEFAULT;
+    // "native" flashes in-process after an idf.py build; "idf" leaves flashing to idf.py.
+    private boolean nativeFlasher = false;
+    // Fleet mode: "all" detected boards or a comma-separated port list, flashed concurrently in-process.
+    private String fleetPorts;
+    private int fleetConcurrency = FleetFlasher.DEFAULT_CONCURRENCY;
+    private int fleetAttempts = FleetFlasher.DEFAULT_MAX_ATTEMPTS;
 
     @Override
     public void buildJuno() {
@@ -20,13 +32,13 @@ public class LocalBuilder implements JunoBuilder {
             JunoPaths.init();
         }
         try {
-            this.projectDir = JunoProjectCreator.createProject();
+            this.projectDir = JunoProjectCreator.createProject(buildProfile);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
         JunoBatchBuilder junoBatchBuilder = new JunoBatchBuilder();
         try {
-            junoBatchBuilder.writeBuildScripts(projectDir, JunoDetector.detectEsp32Port());
+            junoBatchBuilder.writeBuildScripts(projectDir, buildProfile);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -36,7 +48,21 @@ public class LocalBuilder implements JunoBuilder {
     public void flashFirmware() {
         JunoFlasher junoFlasher = new JunoFlasher();
         try {
-            junoFlasher.flashProject(projectDir);
+            if (fleetPorts != null) {
+                flashFleet(junoFlasher);
+                return;
+            }
+            // Resolved once, before anything is built, so a missing board fails fast.
+            String portName = JunoPaths.getSerialPort();
+            if (portName == null) {
+                throw new IOException("No ESP32 board detected; connect one or set the ports option");
+            }
+            if (nativeFlasher) {
+                junoFlasher.buildProject(projectDir);
+                junoFlasher.flashBuiltProject(projectDir, portName);
+                return;
+            }
+            junoFlasher.flashProject(projectDir, portName);
         } catch (IOException e) {
             throw new RuntimeException(e);
         } catch (InterruptedException e) {
@@ -45,6 +71,22 @@ public class LocalBuilder implements JunoBuilder {
 
     }
 
+    private void flashFleet(JunoFlasher junoFlasher) throws IOException, InterruptedException {
+        List<String> ports = "all".equals(fleetPorts)
+                ? JunoDetector.detectEsp32Devices().stream().map(Esp32PortInfo::getPortName).toList()
+                : Arrays.stream(fleetPorts.split(",")).map(String::trim).filter(p -> !p.isEmpty()).toList();
+        if (ports.isEmpty()) {
+            throw new RuntimeException("No ESP32 boards to flash" + ("all".equals(fleetPorts) ? " were detected" : ""));
+        }
+        // Built once; every board gets the same image.
+        junoFlasher.buildProject(projectDir);
+        FleetFlasher.Report report = junoFlasher.flashBuiltProjectToFleet(projectDir, ports, fleetConcurrency, fleetAttempts);
+        if (!report.isAllSucceeded()) {
+            throw new RuntimeException("Flashing failed on " + report.getFailures().stream()
+                    .map(FleetFlasher.DeviceResult::getPortName).toList());
+        }
+    }
+
     @Override
     public void clean() {
 
@@ -52,6 +94,28 @@ public class LocalBuilder implements JunoBuilder {
 
     @Override
     public void setOption(String key, String value) {
+        if ("profile".equals(key)) {
+            buildProfile = BuildProfile.fromId(value);
+        } else if ("flasher".equals(key)) {
+            if (!"native".equals(value) && !"idf".equals(value)) {
+                throw new IllegalArgumentException("Unknown flasher: " + value + " (expected native or idf)");
+            }
+            nativeFlasher = "native".equals(value);
+        } else if ("ports".equals(key)) {
+            fleetPorts = value == null || value.isBlank() ? null : value.trim();
+        } else if ("concurrency".equals(key)) {
+            fleetConcurrency = parsePositive(key, value);
+        } else if ("attempts".equals(key)) {
+            fleetAttempts = parsePositive(key, value);
+        }
+    }
 
+    private static int parsePositive(String key, String value) {
+        try {
+            int parsed = Integer.parseInt(String.valueOf(value).trim());
+            if (parsed > 0) return parsed;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("Option " + key + " needs a positive number, got: " + value);
     }
 }
@@ -1,9 +1,9 @@
 package juno.builder.impl;
 
 import juno.builder.JunoBuilder;
-import juno.detector.JunoDetector;
 import juno.detector.JunoPaths;
 import juno.logger.JunoLogger;
+import juno.probuilder.BuildProfile;
 import juno.probuilder.JunoBatchBuilder;
 import juno.probuilder.JunoProjectCreator;
 import juno.remote.GitHubArtifactDownloader;
@@ -21,6 +21,7 @@ public class RemoteBuilder implements JunoBuilder {
     private final String githubRepoUrl;
     private final String githubAccessToken;
     private File projectDir;
+    private BuildProfile buildProfile = BuildProfile.DEFAULT;
 
     public RemoteBuilder(String githubRepoUrl, String githubAccessToken) {
         this.githubRepoUrl = githubRepoUrl;
@@ -33,13 +34,13 @@ public class RemoteBuilder implements JunoBuilder {
             JunoPaths.init();
         }
         try {
-            this.projectDir = JunoProjectCreator.createProject();
+            this.projectDir = JunoProjectCreator.createProject(buildProfile);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
         JunoBatchBuilder junoBatchBuilder = new JunoBatchBuilder();
         try {
-            junoBatchBuilder.writeBuildScripts(projectDir, JunoDetector.detectEsp32Port());
+            junoBatchBuilder.writeBuildScripts(projectDir, buildProfile);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -80,6 +81,8 @@ public class RemoteBuilder implements JunoBuilder {
 
     @Override
     public void setOption(String key, String value) {
-
+        if ("profile".equals(key)) {
+            buildProfile = BuildProfile.fromId(value);
+        }
     }
 }
@@ -52,8 +52,9 @@ public class JunoConfigManager {
     }
 
     public String getComPort() {
-        if (JunoDetector.detectEsp32Port() != null) {
-            return JunoDetector.detectEsp32Port();
+        String detected = JunoDetector.detectEsp32Port();
+        if (detected != null) {
+            return detected;
         }
         return properties.getProperty("comPort");  // default Windows COM port
     }
@@ -62,5 +63,17 @@ public class JunoConfigManager {
         properties.setProperty("comPort", comPort);
     }
 
+    /**
+     * Highest baud rate the host will try to negotiate with the device. Must not exceed
+     * CONFIG_JUNO_MAX_BAUD in the project's sdkconfig to be useful.
+     */
+    public int getMaxBaudRate() {
+        return Integer.parseInt(properties.getProperty("maxBaudRate", "921600"));
+    }
+
+    public void setMaxBaudRate(int maxBaudRate) {
+        properties.setProperty("maxBaudRate", Integer.toString(maxBaudRate));
+    }
+
     // Add more config getters/setters as needed
 }
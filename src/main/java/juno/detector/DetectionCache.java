@@ -0,0 +1,146 @@
+package juno.detector;
+
+import juno.logger.JunoLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Persists the toolchain paths found by {@link JunoDetector} to .juno/detection.cache
+ * so later runs can skip scanning the IDF tree.
+ * <p>
+ * The cache is keyed on the IDF root path, its version marker and the mtimes of the
+ * directories the cached tools live in. A cached entry is only reused while every
+ * recorded path still exists.
+ */
+final class DetectionCache {
+
+    private static final String CACHE_FILE_NAME = "detection.cache";
+    private static final String FORMAT_VERSION = "1";
+
+    private static final String KEY_FORMAT = "cache.format";
+    private static final String KEY_IDF_ROOT = "cache.idfRoot";
+    private static final String KEY_IDF_VERSION = "cache.idfVersion";
+    private static final String MTIME_PREFIX = "mtime.";
+    private static final String PATH_PREFIX = "juno.";
+    // Paths a detector reported that did not exist at save time (e.g. the fixed git path).
+    private static final String MISSING_PREFIX = "missing.";
+
+    // Files ESP-IDF ships that identify the installed release.
+    private static final String[] VERSION_MARKERS = {"version.txt", "tools/cmake/version.cmake"};
+
+    private DetectionCache() {}
+
+    /**
+     * Loads cached paths for the given IDF root.
+     *
+     * @return path name → value (values may be null), or null if the cache is missing or stale
+     */
+    static Map<String, String> load(File dotJunoDir, String idfRoot) {
+        Path cacheFile = dotJunoDir.toPath().resolve(CACHE_FILE_NAME);
+        if (idfRoot == null || !Files.exists(cacheFile)) return null;
+
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(cacheFile)) {
+            props.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            // IllegalArgumentException: a damaged file with a malformed unicode escape.
+            JunoLogger.warn("Ignoring unreadable detection cache: " + e.getMessage());
+            return null;
+        }
+
+        if (!FORMAT_VERSION.equals(props.getProperty(KEY_FORMAT))) return null;
+        if (!idfRoot.equals(props.getProperty(KEY_IDF_ROOT))) return null;
+        if (!readVersionMarker(idfRoot).equals(props.getProperty(KEY_IDF_VERSION))) return null;
+
+        for (String key : props.stringPropertyNames()) {
+            if (!key.startsWith(MTIME_PREFIX)) continue;
+            String dir = key.substring(MTIME_PREFIX.length());
+            if (!String.valueOf(new File(dir).lastModified()).equals(props.getProperty(key))) return null;
+        }
+
+        Map<String, String> paths = new LinkedHashMap<>();
+        for (String key : props.stringPropertyNames()) {
+            if (key.startsWith(MISSING_PREFIX)) {
+                paths.put(key.substring(MISSING_PREFIX.length()), props.getProperty(key));
+                continue;
+            }
+            if (!key.startsWith(PATH_PREFIX)) continue;
+            String value = props.getProperty(key);
+            if (value.isEmpty()) {
+                paths.put(key.substring(PATH_PREFIX.length()), null);
+            } else if (new File(value).exists()) {
+                paths.put(key.substring(PATH_PREFIX.length()), value);
+            } else {
+                return null;
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Writes the detected paths for the given IDF root. Failures are logged, never thrown.
+     */
+    static void save(File dotJunoDir, String idfRoot, Map<String, String> paths) {
+        if (idfRoot == null) return;
+
+        Properties props = new Properties();
+        props.setProperty(KEY_FORMAT, FORMAT_VERSION);
+        props.setProperty(KEY_IDF_ROOT, idfRoot);
+        props.setProperty(KEY_IDF_VERSION, readVersionMarker(idfRoot));
+
+        recordMtime(props, new File(idfRoot));
+        recordMtime(props, new File(idfRoot, "tools"));
+        for (Map.Entry<String, String> entry : paths.entrySet()) {
+            String value = entry.getValue();
+            if (value == null) {
+                props.setProperty(PATH_PREFIX + entry.getKey(), "");
+                continue;
+            }
+            File f = new File(value);
+            if (!f.exists()) {
+                props.setProperty(MISSING_PREFIX + entry.getKey(), value);
+                continue;
+            }
+            props.setProperty(PATH_PREFIX + entry.getKey(), value);
+            recordMtime(props, f.isDirectory() ? f : f.getParentFile());
+        }
+
+        Path cacheFile = dotJunoDir.toPath().resolve(CACHE_FILE_NAME);
+        Path tmpFile = dotJunoDir.toPath().resolve(CACHE_FILE_NAME + ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmpFile)) {
+                props.store(out, "JUNO detection cache - safe to delete");
+            }
+            Files.move(tmpFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            JunoLogger.warn("Failed to write detection cache: " + e.getMessage());
+        }
+    }
+
+    private static void recordMtime(Properties props, File dir) {
+        if (dir != null && dir.isDirectory()) {
+            props.setProperty(MTIME_PREFIX + dir.getAbsolutePath(), String.valueOf(dir.lastModified()));
+        }
+    }
+
+    private static String readVersionMarker(String idfRoot) {
+        for (String marker : VERSION_MARKERS) {
+            Path markerPath = Path.of(idfRoot, marker);
+            if (!Files.isRegularFile(markerPath)) continue;
+            try {
+                return marker + ":" + Files.readString(markerPath).trim().hashCode();
+            } catch (IOException ignored) {
+            }
+        }
+        return "none";
+    }
+}
@@ -0,0 +1,72 @@
+package juno.detector;
+
+/**
+ * A connected serial port that looks like an ESP32, with its USB identity.
+ */
+public class Esp32PortInfo {
+
+    private final String portName;        // System port name (e.g., COM3, ttyUSB0)
+    private final String portPath;        // Full system path (e.g., /dev/ttyUSB0)
+    private final String description;     // Descriptive name reported by the OS
+    private final int vendorId;           // USB VID, or -1 if not a USB device
+    private final int productId;          // USB PID, or -1 if not a USB device
+    private final String serialNumber;    // USB serial number, may be empty
+    private final String location;        // Physical bus/hub location (e.g., 1-1.2)
+    private final String matchedBy;       // Table label or "description" for heuristic matches
+
+    public Esp32PortInfo(String portName, String portPath, String description, int vendorId, int productId,
+                         String serialNumber, String location, String matchedBy) {
+        this.portName = portName;
+        this.portPath = portPath;
+        this.description = description;
+        this.vendorId = vendorId;
+        this.productId = productId;
+        this.serialNumber = serialNumber;
+        this.location = location;
+        this.matchedBy = matchedBy;
+    }
+
+    // Getters
+    public String getPortName() {
+        return portName;
+    }
+
+    public String getPortPath() {
+        return portPath;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public int getVendorId() {
+        return vendorId;
+    }
+
+    public int getProductId() {
+        return productId;
+    }
+
+    public String getSerialNumber() {
+        return serialNumber;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public String getMatchedBy() {
+        return matchedBy;
+    }
+
+    @Override
+    public String toString() {
+        return "Esp32PortInfo{" +
+                "portName='" + portName + '\'' +
+                ", usbId=" + UsbIdTable.format(vendorId, productId) +
+                ", serialNumber='" + serialNumber + '\'' +
+                ", location='" + location + '\'' +
+                ", matchedBy='" + matchedBy + '\'' +
+                '}';
+    }
+}
@@ -7,12 +7,24 @@ import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 
 public class JunoDetector {
 
     private static final Path JUNO_IDF_ROOT = getDefaultIdfPath();
 
+    // Lower-cased file name → every file with that name under JUNO_IDF_ROOT.
+    private static volatile Map<String, List<File>> fileIndex;
+
     private static Path getDefaultIdfPath() {
         String os = System.getProperty("os.name").toLowerCase();
         if (os.contains("win")) {
@@ -27,7 +39,7 @@ public class JunoDetector {
     }
 
     public static String detectTool(String executableName) {
-        File toolPath = searchFileRecursively(JUNO_IDF_ROOT.toFile(), executableName);
+        File toolPath = findIndexed(executableName);
         return (toolPath != null) ? toolPath.getParent() : null;
     }
 
@@ -36,7 +48,7 @@ public class JunoDetector {
     }
 
     public static String detectPythonExecutable() {
-        File file = searchFileRecursively(JUNO_IDF_ROOT.toFile(), isWindows() ? "python.exe" : "python");
+        File file = findIndexed(isWindows() ? "python.exe" : "python");
         return (file != null) ? file.getAbsolutePath() : null;
     }
 
@@ -86,7 +98,7 @@ public class JunoDetector {
     }
 
     public static String detectOpenOcdScriptsPath() {
-        File file = searchFileRecursively(JUNO_IDF_ROOT.toFile(), "memory.tcl");
+        File file = findIndexed("memory.tcl");
         return (file != null) ? file.getParent() : null;
     }
 
@@ -95,14 +107,38 @@ public class JunoDetector {
     }
 
     public static String detectEsp32Port() {
-        for (SerialPort port : SerialPort.getCommPorts()) {
-            String desc = port.getDescriptivePortName().toLowerCase();
-            String name = port.getSystemPortName().toLowerCase();
-            if (desc.contains("ch340") || desc.contains("usb serial") || desc.contains("cp210x") || desc.contains("ftdi") || name.contains("usbserial") || name.contains("ttyusb") || name.contains("cu.usbserial")) {
-                return port.getSystemPortName();
-            }
+        List<SerialPort> ports = SerialPortMonitor.getInstance().getEsp32Ports();
+        return ports.isEmpty() ? null : ports.get(0).getSystemPortName();
+    }
+
+    /**
+     * Lists every connected port that looks like an ESP32, in enumeration order.
+     * Ports are matched by USB VID/PID against {@link UsbIdTable#getActive()}, falling back
+     * to the port description for bridges that do not report USB IDs.
+     */
+    public static List<Esp32PortInfo> detectEsp32Devices() {
+        List<Esp32PortInfo> devices = new ArrayList<>();
+        for (SerialPort port : SerialPortMonitor.getInstance().getEsp32Ports()) {
+            String matchedBy = UsbIdTable.getActive().match(port.getVendorID(), port.getProductID());
+            devices.add(new Esp32PortInfo(
+                    port.getSystemPortName(),
+                    port.getSystemPortPath(),
+                    port.getDescriptivePortName(),
+                    port.getVendorID(),
+                    port.getProductID(),
+                    port.getSerialNumber(),
+                    port.getPortLocation(),
+                    matchedBy != null ? matchedBy : "description"));
         }
-        return null;
+        return devices;
+    }
+
+    static boolean isEsp32Candidate(SerialPort port) {
+        if (UsbIdTable.getActive().match(port.getVendorID(), port.getProductID()) != null) return true;
+
+        String desc = port.getDescriptivePortName().toLowerCase();
+        String name = port.getSystemPortName().toLowerCase();
+        return desc.contains("ch340") || desc.contains("usb serial") || desc.contains("cp210x") || desc.contains("ftdi") || name.contains("usbserial") || name.contains("ttyusb") || name.contains("cu.usbserial");
     }
 
     public static void printDetectedPaths() {
@@ -122,6 +158,9 @@ public class JunoDetector {
         JunoLogger.info("OpenOCD Bin → " + detectOpenOcdBin());
         JunoLogger.info("OpenOCD Scripts → " + detectOpenOcdScriptsPath());
         JunoLogger.info("ESP32 Serial Port → " + detectEsp32Port());
+        for (Esp32PortInfo device : detectEsp32Devices()) {
+            JunoLogger.info("  ESP32 Device → " + device);
+        }
         JunoLogger.info("------------------------------");
     }
 
@@ -129,19 +168,92 @@ public class JunoDetector {
         return System.getProperty("os.name").toLowerCase().contains("win");
     }
 
-    private static File searchFileRecursively(File dir, String targetFileName) {
-        if (dir == null || !dir.exists()) return null;
-        File[] files = dir.listFiles();
-        if (files == null) return null;
+    /**
+     * Drops the file index so the next lookup walks the IDF tree again.
+     * Call this after installing or updating tools under the IDF root.
+     */
+    public static void invalidateIndex() {
+        fileIndex = null;
+    }
 
-        for (File f : files) {
-            if (f.isDirectory()) {
-                File result = searchFileRecursively(f, targetFileName);
-                if (result != null) return result;
-            } else if (f.getName().equalsIgnoreCase(targetFileName) && f.canExecute()) {
-                return f;
-            }
+    private static File findIndexed(String targetFileName) {
+        return findExecutable(getFileIndex(), targetFileName);
+    }
+
+    // The shallowest executable file with the given name.
+    static File findExecutable(Map<String, List<File>> index, String targetFileName) {
+        List<File> candidates = index.get(targetFileName.toLowerCase(Locale.ROOT));
+        if (candidates == null) return null;
+
+        for (File f : candidates) {
+            if (f.canExecute()) return f;
         }
         return null;
     }
+
+    private static Map<String, List<File>> getFileIndex() {
+        Map<String, List<File>> index = fileIndex;
+        if (index == null) {
+            synchronized (JunoDetector.class) {
+                index = fileIndex;
+                if (index == null) {
+                    index = buildFileIndex(JUNO_IDF_ROOT.toFile());
+                    fileIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Walks the tree once, in parallel, and groups every regular file by name.
+     * Candidates are ordered shallowest first so lookups stay deterministic.
+     */
+    static Map<String, List<File>> buildFileIndex(File root) {
+        Map<String, ConcurrentLinkedQueue<File>> found = new ConcurrentHashMap<>();
+        if (root.isDirectory()) {
+            ForkJoinPool.commonPool().invoke(new IndexTask(root, found));
+        }
+
+        Comparator<File> order = Comparator
+                .comparingInt((File f) -> f.toPath().getNameCount())
+                .thenComparing(File::getPath);
+
+        Map<String, List<File>> index = new ConcurrentHashMap<>(found.size());
+        found.forEach((name, files) -> {
+            List<File> sorted = new ArrayList<>(files);
+            sorted.sort(order);
+            index.put(name, List.copyOf(sorted));
+        });
+        return index;
+    }
+
+    private static final class IndexTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final File dir;
+        // Tasks are never serialized; the shared index only lives for one scan.
+        private final transient Map<String, ConcurrentLinkedQueue<File>> found;
+
+        IndexTask(File dir, Map<String, ConcurrentLinkedQueue<File>> found) {
+            this.dir = dir;
+            this.found = found;
+        }
+
+        @Override
+        protected void compute() {
+            File[] files = dir.listFiles();
+            if (files == null) return;
+
+            List<IndexTask> subTasks = new ArrayList<>();
+            for (File f : files) {
+                if (f.isDirectory()) {
+                    subTasks.add(new IndexTask(f, found));
+                } else {
+                    found.computeIfAbsent(f.getName().toLowerCase(Locale.ROOT), k -> new ConcurrentLinkedQueue<>()).add(f);
+                }
+            }
+            invokeAll(subTasks);
+        }
+    }
 }
@@ -6,62 +6,195 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 
+/**
+ * Resolved toolchain paths for the current JUNO workspace.
+ * <p>
+ * Every path resolves lazily on first access and is memoized. Values come from, in order:
+ * a non-blank entry in .juno/juno.properties, the detection cache, or {@link JunoDetector}.
+ * {@link #init()} only resolves the paths a build needs, concurrently on virtual threads;
+ * debug tools and the serial port are detected when something first asks for them.
+ */
 public final class JunoPaths {
 
-    private static boolean initialized = false;
-
-    // Public static paths
-    public static String idfPath;
-    public static String pythonPath;
-    public static String pythonExecutablePath;
-    public static String toolchainPath;
-    public static String serialPort;
-    public static String gitPath;
-    public static String xtensaGdbPath;
-    public static String xtensaToolchainPath;
-    public static String espClangPath;
-    public static String cMakePath;
-    public static String openOcdBin;
-    public static String ninjaPath;
-    public static String idfPyPath;
-    public static String cCacheBinPath;
-    public static String dfuUtilBinPath;
-    public static String openOcdScriptsPath;
+    private static volatile boolean initialized = false;
+
+    private static final LazyPath IDF_PATH = new LazyPath("idfPath", JunoDetector::detectIdfPath, false);
+    private static final LazyPath IDF_PY_PATH = new LazyPath("idfPyPath", JunoDetector::detectIdfPyPath, true);
+    private static final LazyPath PYTHON_PATH = new LazyPath("pythonPath", JunoDetector::detectPythonPath, true);
+    private static final LazyPath PYTHON_EXECUTABLE_PATH = new LazyPath("pythonExecutablePath", JunoDetector::detectPythonExecutable, true);
+    private static final LazyPath TOOLCHAIN_PATH = new LazyPath("toolchainPath", JunoDetector::detectToolchainBin, true);
+    private static final LazyPath CMAKE_PATH = new LazyPath("cMakePath", JunoDetector::detectCmakePath, true);
+    private static final LazyPath NINJA_PATH = new LazyPath("ninjaPath", JunoDetector::detectNinjaPath, true);
+    private static final LazyPath SERIAL_PORT = new LazyPath("serialPort", JunoDetector::detectEsp32Port, false);
+
+    private static final LazyPath GIT_PATH = new LazyPath("gitPath", JunoDetector::detectEspressifGitPath, true);
+    private static final LazyPath XTENSA_GDB_PATH = new LazyPath("xtensaGdbPath", JunoDetector::detectXtensaGdbPath, true);
+    private static final LazyPath XTENSA_TOOLCHAIN_PATH = new LazyPath("xtensaToolchainPath", JunoDetector::detectXtensaToolchainPath, true);
+    private static final LazyPath ESP_CLANG_PATH = new LazyPath("espClangPath", JunoDetector::detectEspClangPath, true);
+    private static final LazyPath OPEN_OCD_BIN = new LazyPath("openOcdBin", JunoDetector::detectOpenOcdBin, true);
+    private static final LazyPath CCACHE_BIN_PATH = new LazyPath("cCacheBinPath", JunoDetector::detectCcacheBin, true);
+    private static final LazyPath DFU_UTIL_BIN_PATH = new LazyPath("dfuUtilBinPath", JunoDetector::detectDfuUtilBin, true);
+    private static final LazyPath OPEN_OCD_SCRIPTS_PATH = new LazyPath("openOcdScriptsPath", JunoDetector::detectOpenOcdScriptsPath, true);
+
+    // Paths every build needs; resolved eagerly by init() and validated.
+    private static final List<LazyPath> REQUIRED = List.of(
+            IDF_PATH, IDF_PY_PATH, PYTHON_PATH, PYTHON_EXECUTABLE_PATH, TOOLCHAIN_PATH, CMAKE_PATH, NINJA_PATH);
+
+    private static final List<LazyPath> ALL = List.of(
+            IDF_PATH, IDF_PY_PATH, PYTHON_PATH, PYTHON_EXECUTABLE_PATH, TOOLCHAIN_PATH, CMAKE_PATH, NINJA_PATH,
+            SERIAL_PORT, GIT_PATH, XTENSA_GDB_PATH, XTENSA_TOOLCHAIN_PATH, ESP_CLANG_PATH, OPEN_OCD_BIN,
+            CCACHE_BIN_PATH, DFU_UTIL_BIN_PATH, OPEN_OCD_SCRIPTS_PATH);
+
+    private static volatile Properties overrides = new Properties();
+    private static volatile boolean cacheLoaded = false;
 
     private static File dotJunoDir;
 
-    public static void init() {
+    public static synchronized void init() {
         if (initialized) return;
 
         dotJunoDir = new File(System.getProperty("user.dir"), ".juno");
         if (!dotJunoDir.exists()) dotJunoDir.mkdirs();
 
         ensureJunoPropertiesTemplate();
+        loadPropertiesOverrides();
+        UsbIdTable.setActive(UsbIdTable.load(dotJunoDir.toPath()));
 
-        idfPath = JunoDetector.detectIdfPath();
-        pythonPath = JunoDetector.detectPythonPath();
-        pythonExecutablePath = JunoDetector.detectPythonExecutable();
-        toolchainPath = JunoDetector.detectToolchainBin();
-        serialPort = JunoDetector.detectEsp32Port();
-        gitPath = JunoDetector.detectEspressifGitPath();
-        xtensaGdbPath = JunoDetector.detectXtensaGdbPath();
-        xtensaToolchainPath = JunoDetector.detectXtensaToolchainPath();
-        cMakePath = JunoDetector.detectCmakePath();
-        openOcdBin = JunoDetector.detectOpenOcdBin();
-        ninjaPath = JunoDetector.detectNinjaPath();
-        idfPyPath = JunoDetector.detectIdfPyPath();
-        cCacheBinPath = JunoDetector.detectCcacheBin();
-        dfuUtilBinPath = JunoDetector.detectDfuUtilBin();
-        openOcdScriptsPath = JunoDetector.detectOpenOcdScriptsPath();
+        Map<String, String> cached = DetectionCache.load(dotJunoDir, IDF_PATH.get());
+        if (cached != null) {
+            JunoLogger.info("Using cached toolchain detection from .juno/detection.cache");
+            for (LazyPath path : ALL) {
+                if (path.cacheable && cached.containsKey(path.name)) path.preset(cached.get(path.name));
+            }
+        }
+        cacheLoaded = true;
 
-        loadPropertiesOverrides();
+        resolveConcurrently(REQUIRED);
+        saveDetectionCache();
         validatePaths();
 
         initialized = true;
     }
 
+    private static void resolveConcurrently(List<LazyPath> paths) {
+        List<Callable<String>> tasks = new ArrayList<>();
+        for (LazyPath path : paths) tasks.add(path::get);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            executor.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("❌ Interrupted while detecting toolchain paths", e);
+        }
+    }
+
+    private static synchronized void saveDetectionCache() {
+        if (!cacheLoaded) return;
+
+        Map<String, String> snapshot = new LinkedHashMap<>();
+        for (LazyPath path : ALL) {
+            if (path.cacheable && path.detected) snapshot.put(path.name, path.value);
+        }
+        DetectionCache.save(getDotJunoDir(), IDF_PATH.get(), snapshot);
+    }
+
+    public static String getIdfPath() {
+        return IDF_PATH.get();
+    }
+
+    public static String getIdfPyPath() {
+        return IDF_PY_PATH.get();
+    }
+
+    public static String getPythonPath() {
+        return PYTHON_PATH.get();
+    }
+
+    public static String getPythonExecutablePath() {
+        return PYTHON_EXECUTABLE_PATH.get();
+    }
+
+    public static String getToolchainPath() {
+        return TOOLCHAIN_PATH.get();
+    }
+
+    public static String getCMakePath() {
+        return CMAKE_PATH.get();
+    }
+
+    public static String getNinjaPath() {
+        return NINJA_PATH.get();
+    }
+
+    /**
+     * Serial port from juno.properties, or the first detected ESP32 port. Enumerates USB on first call.
+     */
+    public static String getSerialPort() {
+        return SERIAL_PORT.get();
+    }
+
+    public static String getGitPath() {
+        return GIT_PATH.get();
+    }
+
+    public static String getXtensaGdbPath() {
+        return XTENSA_GDB_PATH.get();
+    }
+
+    public static String getXtensaToolchainPath() {
+        return XTENSA_TOOLCHAIN_PATH.get();
+    }
+
+    public static String getEspClangPath() {
+        return ESP_CLANG_PATH.get();
+    }
+
+    public static String getOpenOcdBin() {
+        return OPEN_OCD_BIN.get();
+    }
+
+    public static String getCCacheBinPath() {
+        return CCACHE_BIN_PATH.get();
+    }
+
+    public static String getDfuUtilBinPath() {
+        return DFU_UTIL_BIN_PATH.get();
+    }
+
+    public static String getOpenOcdScriptsPath() {
+        return OPEN_OCD_SCRIPTS_PATH.get();
+    }
+
+    /**
+     * Returns the debug-tool paths (GDB, OpenOCD, DFU util) only if they are already known
+     * from juno.properties, the detection cache or an earlier lookup. Never triggers a scan.
+     */
+    public static List<String> getKnownDebugToolPaths() {
+        List<String> known = new ArrayList<>();
+        for (LazyPath path : List.of(XTENSA_GDB_PATH, OPEN_OCD_BIN, DFU_UTIL_BIN_PATH, OPEN_OCD_SCRIPTS_PATH)) {
+            String value = path.peek();
+            if (value != null) known.add(value);
+        }
+        return known;
+    }
+
+    /**
+     * Same as {@link #getOpenOcdScriptsPath()} but returns null instead of scanning when unknown.
+     */
+    public static String peekOpenOcdScriptsPath() {
+        return OPEN_OCD_SCRIPTS_PATH.peek();
+    }
+
     public static boolean isInitialized() {
         return initialized;
     }
@@ -131,44 +264,22 @@ public final class JunoPaths {
         try (InputStream in = Files.newInputStream(propPath)) {
             Properties props = new Properties();
             props.load(in);
+            overrides = props;
             JunoLogger.info("Loaded manual overrides from juno.properties");
-
-            idfPath = resolve(props, "juno.idfPath", idfPath);
-            pythonPath = resolve(props, "juno.pythonPath", pythonPath);
-            pythonExecutablePath = resolve(props, "juno.pythonExecutablePath", pythonExecutablePath);
-            toolchainPath = resolve(props, "juno.toolchainPath", toolchainPath);
-            serialPort = resolve(props, "juno.serialPort", serialPort);
-            gitPath = resolve(props, "juno.gitPath", gitPath);
-            xtensaGdbPath = resolve(props, "juno.xtensaGdbPath", xtensaGdbPath);
-            xtensaToolchainPath = resolve(props, "juno.xtensaToolchainPath", xtensaToolchainPath);
-            espClangPath = resolve(props, "juno.espClangPath", espClangPath);
-            cMakePath = resolve(props, "juno.cMakePath", cMakePath);
-            openOcdBin = resolve(props, "juno.openOcdBin", openOcdBin);
-            ninjaPath = resolve(props, "juno.ninjaPath", ninjaPath);
-            idfPyPath = resolve(props, "juno.idfPyPath", idfPyPath);
-            cCacheBinPath = resolve(props, "juno.cCacheBinPath", cCacheBinPath);
-            dfuUtilBinPath = resolve(props, "juno.dfuUtilBinPath", dfuUtilBinPath);
-            openOcdScriptsPath = resolve(props, "juno.openOcdScriptsPath", openOcdScriptsPath);
-
         } catch (IOException e) {
             System.err.println("⚠️ Failed to read juno.properties: " + e.getMessage());
         }
     }
 
-    private static String resolve(Properties props, String key, String fallback) {
-        String value = props.getProperty(key, fallback);
-        return (value == null || value.equalsIgnoreCase("null")) ? fallback : value;
+    private static String override(String name) {
+        String value = overrides.getProperty("juno." + name);
+        return (value == null || value.isBlank() || value.equalsIgnoreCase("null")) ? null : value.trim();
     }
 
     private static void validatePaths() {
-        check("idfPath", idfPath);
-        check("idfPyPath", idfPyPath);
-        check("pythonPath", pythonPath);
-        check("pythonExecutablePath", pythonExecutablePath);
-        check("toolchainPath", toolchainPath);
-        check("cMakePath", cMakePath);
-        check("ninjaPath", ninjaPath);
-        check("serialPort", serialPort);
+        for (LazyPath path : REQUIRED) {
+            check(path.name, path.get());
+        }
     }
 
     private static void check(String name, String value) {
@@ -179,5 +290,57 @@ public final class JunoPaths {
         }
     }
 
+    /**
+     * A single path that is resolved once, on first access, and then memoized.
+     */
+    private static final class LazyPath {
+        private final String name;
+        private final Supplier<String> detector;
+        private final boolean cacheable;
+
+        private volatile boolean resolved;
+        // True when the value came from the detector or the cache rather than juno.properties.
+        private volatile boolean detected;
+        private volatile String value;
+
+        LazyPath(String name, Supplier<String> detector, boolean cacheable) {
+            this.name = name;
+            this.detector = detector;
+            this.cacheable = cacheable;
+        }
+
+        String get() {
+            if (resolved) return value;
+
+            boolean freshlyDetected = false;
+            synchronized (this) {
+                if (resolved) return value;
+
+                String manual = override(name);
+                if (manual != null) {
+                    value = manual;
+                } else {
+                    value = detector.get();
+                    detected = true;
+                    freshlyDetected = true;
+                }
+                resolved = true;
+            }
+            if (freshlyDetected && cacheable && initialized) saveDetectionCache();
+            return value;
+        }
+
+        synchronized void preset(String cachedValue) {
+            if (resolved || override(name) != null) return;
+            value = cachedValue;
+            detected = true;
+            resolved = true;
+        }
+
+        String peek() {
+            return resolved ? value : override(name);
+        }
+    }
+
     private JunoPaths() {} // prevent instantiation
 }
@@ -0,0 +1,186 @@
+package juno.detector;
+
+import com.fazecast.jSerialComm.SerialPort;
+import juno.logger.JunoLogger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Background watcher that keeps a cached list of serial ports and publishes attach/detach events.
+ * <p>
+ * jSerialComm has no native hotplug notifications, so a single daemon thread re-enumerates
+ * ports periodically and diffs the result against the previous snapshot. Lookups only read
+ * the latest snapshot and never touch USB themselves.
+ */
+public final class SerialPortMonitor {
+
+    /**
+     * Receives port changes. Callbacks run on the monitor thread and should return quickly.
+     */
+    public interface Listener {
+        void portAttached(SerialPort port);
+
+        void portDetached(SerialPort port);
+    }
+
+    private static final long DEFAULT_POLL_INTERVAL_MS = 500;
+
+    private static final SerialPortMonitor INSTANCE = new SerialPortMonitor();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Immutable snapshots, replaced wholesale on every change.
+    private volatile Map<String, SerialPort> ports = Collections.emptyMap();
+    private volatile List<SerialPort> esp32Ports = Collections.emptyList();
+
+    private volatile long pollIntervalMs = DEFAULT_POLL_INTERVAL_MS;
+    private volatile Thread monitorThread;
+
+    private SerialPortMonitor() {}
+
+    public static SerialPortMonitor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Enumerates ports once and starts the background watcher if it is not running yet.
+     */
+    public synchronized void start() {
+        if (monitorThread != null) return;
+
+        refresh();
+        monitorThread = new Thread(this::runMonitor, "JunoSerialPortMonitor");
+        monitorThread.setDaemon(true);
+        monitorThread.start();
+    }
+
+    /**
+     * Stops the background watcher. The next lookup starts it again.
+     */
+    public synchronized void stop() {
+        if (monitorThread == null) return;
+        monitorThread.interrupt();
+        monitorThread = null;
+    }
+
+    public void setPollIntervalMs(long pollIntervalMs) {
+        if (pollIntervalMs <= 0) throw new IllegalArgumentException("Poll interval must be positive");
+        this.pollIntervalMs = pollIntervalMs;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return all currently known ports, in enumeration order
+     */
+    public Collection<SerialPort> getPorts() {
+        ensureStarted();
+        return ports.values();
+    }
+
+    /**
+     * @return the port with the given system name (e.g. COM3, ttyUSB0), or null if not attached
+     */
+    public SerialPort getPort(String systemPortName) {
+        ensureStarted();
+        return ports.get(systemPortName);
+    }
+
+    /**
+     * @return attached ports that look like an ESP32 USB-serial bridge
+     */
+    public List<SerialPort> getEsp32Ports() {
+        ensureStarted();
+        return esp32Ports;
+    }
+
+    /**
+     * Re-enumerates ports immediately and publishes any changes.
+     */
+    public synchronized void refresh() {
+        Map<String, SerialPort> previous = ports;
+        Map<String, SerialPort> current = new LinkedHashMap<>();
+        for (SerialPort port : SerialPort.getCommPorts()) {
+            current.put(port.getSystemPortName(), port);
+        }
+        if (sameIdentities(current, previous)) return;
+
+        ports = Collections.unmodifiableMap(current);
+        reclassify();
+
+        // A different board on a reused name (ttyUSB0, COM3) counts as a detach followed by an attach.
+        for (Map.Entry<String, SerialPort> entry : previous.entrySet()) {
+            SerialPort now = current.get(entry.getKey());
+            if (now == null || !identity(now).equals(identity(entry.getValue()))) fire(entry.getValue(), false);
+        }
+        for (Map.Entry<String, SerialPort> entry : current.entrySet()) {
+            SerialPort before = previous.get(entry.getKey());
+            if (before == null || !identity(before).equals(identity(entry.getValue()))) fire(entry.getValue(), true);
+        }
+    }
+
+    /**
+     * Rebuilds the ESP32 candidate list from the current snapshot, e.g. after the USB ID table changed.
+     */
+    synchronized void reclassify() {
+        List<SerialPort> esp32 = new ArrayList<>();
+        for (SerialPort port : ports.values()) {
+            if (JunoDetector.isEsp32Candidate(port)) esp32.add(port);
+        }
+        esp32Ports = Collections.unmodifiableList(esp32);
+    }
+
+    private static boolean sameIdentities(Map<String, SerialPort> current, Map<String, SerialPort> previous) {
+        if (!current.keySet().equals(previous.keySet())) return false;
+        for (Map.Entry<String, SerialPort> entry : current.entrySet()) {
+            if (!identity(entry.getValue()).equals(identity(previous.get(entry.getKey())))) return false;
+        }
+        return true;
+    }
+
+    // What tells two boards apart behind the same system port name.
+    private static String identity(SerialPort port) {
+        return port.getSystemPortName() + '|' + port.getSerialNumber() + '|' + port.getVendorID() + ':' + port.getProductID()
+                + '|' + port.getPortLocation();
+    }
+
+    private void ensureStarted() {
+        if (monitorThread == null) start();
+    }
+
+    private void fire(SerialPort port, boolean attached) {
+        for (Listener listener : listeners) {
+            try {
+                if (attached) listener.portAttached(port);
+                else listener.portDetached(port);
+            } catch (RuntimeException e) {
+                JunoLogger.warn("Serial port listener failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void runMonitor() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(pollIntervalMs);
+                refresh();
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                JunoLogger.warn("Serial port enumeration failed: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package juno.detector;
+
+import juno.logger.JunoLogger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Table of USB vendor/product IDs that identify ESP32 boards or their USB-serial bridges.
+ * <p>
+ * Ships with the common bridges; extra entries can be added in .juno/usb-ids.properties
+ * as {@code VVVV:PPPP=label} (hex IDs). A product ID of {@code *} matches any product from that vendor.
+ */
+public final class UsbIdTable {
+
+    private static final String FILE_NAME = "usb-ids.properties";
+    private static final int ANY_PRODUCT = -1;
+
+    private static volatile UsbIdTable active = defaults();
+
+    // (vid << 16 | pid) → label; pid is ANY_PRODUCT & 0xFFFF for vendor-wide entries.
+    private final Map<Integer, String> entries;
+
+    private UsbIdTable(Map<Integer, String> entries) {
+        this.entries = Collections.unmodifiableMap(entries);
+    }
+
+    public static UsbIdTable defaults() {
+        Map<Integer, String> entries = new LinkedHashMap<>();
+        entries.put(key(0x10C4, 0xEA60), "Silicon Labs CP210x");
+        entries.put(key(0x1A86, 0x7523), "WCH CH340");
+        entries.put(key(0x1A86, 0x55D4), "WCH CH9102");
+        entries.put(key(0x1A86, 0x55D3), "WCH CH343");
+        entries.put(key(0x0403, 0x6001), "FTDI FT232R");
+        entries.put(key(0x0403, 0x6010), "FTDI FT2232");
+        entries.put(key(0x0403, 0x6014), "FTDI FT232H");
+        entries.put(key(0x0403, 0x6015), "FTDI FT231X");
+        entries.put(key(0x303A, ANY_PRODUCT), "Espressif USB");
+        return new UsbIdTable(entries);
+    }
+
+    /**
+     * Loads the default table plus any entries from usb-ids.properties in the given directory.
+     */
+    public static UsbIdTable load(Path dotJunoDir) {
+        Map<Integer, String> entries = new LinkedHashMap<>(defaults().entries);
+        Path file = dotJunoDir.resolve(FILE_NAME);
+        if (!Files.exists(file)) return new UsbIdTable(entries);
+
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            props.load(in);
+        } catch (IOException e) {
+            JunoLogger.warn("Failed to read " + FILE_NAME + ": " + e.getMessage());
+            return new UsbIdTable(entries);
+        }
+
+        for (String id : props.stringPropertyNames()) {
+            String[] parts = id.split(":");
+            try {
+                int vid = Integer.parseInt(parts[0].trim(), 16);
+                int pid = parts.length < 2 || parts[1].trim().equals("*") ? ANY_PRODUCT : Integer.parseInt(parts[1].trim(), 16);
+                entries.put(key(vid, pid), props.getProperty(id));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                JunoLogger.warn("Ignoring invalid USB ID in " + FILE_NAME + ": " + id);
+            }
+        }
+        return new UsbIdTable(entries);
+    }
+
+    /**
+     * @return the table {@link JunoDetector} currently matches against
+     */
+    public static UsbIdTable getActive() {
+        return active;
+    }
+
+    public static void setActive(UsbIdTable table) {
+        active = table;
+        SerialPortMonitor.getInstance().reclassify();
+    }
+
+    /**
+     * @return the label for this VID/PID, or null if it is not an ESP32 candidate
+     */
+    public String match(int vendorId, int productId) {
+        if (vendorId < 0) return null;
+        String label = entries.get(key(vendorId, productId));
+        return label != null ? label : entries.get(key(vendorId, ANY_PRODUCT));
+    }
+
+    public static String format(int vendorId, int productId) {
+        if (vendorId < 0) return "unknown";
+        return String.format(Locale.ROOT, "%04X:%04X", vendorId, productId & 0xFFFF);
+    }
+
+    private static int key(int vendorId, int productId) {
+        return (vendorId & 0xFFFF) << 16 | (productId & 0xFFFF);
+    }
+}
@@ -1,9 +1,19 @@
 package juno.device;
 
+import juno.serial.BaudNegotiator;
 import juno.serial.JunoSerialThreaded;
+import juno.serial.SerialChannelMux;
+import juno.serial.SerialLinePublisher;
+import juno.serial.SerialRecorder;
+import juno.serial.SerialRequestDispatcher;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
 
 /**
  * Represents a JUNO-managed ESP32 device.
@@ -13,7 +23,14 @@ public class JunoDevice {
 
     private final DeviceInfo deviceInfo;
 
+    public static final long DEFAULT_COMMAND_TIMEOUT_MS = 2000;
+
     private JunoSerialThreaded serialConnection;
+    private SerialRequestDispatcher requestDispatcher;
+    private SerialLinePublisher linePublisher;
+    private SerialRecorder serialRecorder;
+    private SerialChannelMux channelMux;
+    private LoopTelemetry loopTelemetry;
     private OTAUploader otaUploader;
 
     public JunoDevice(DeviceInfo deviceInfo) {
@@ -24,23 +41,179 @@ public class JunoDevice {
         if (serialConnection != null && serialConnection.isConnected()) {
             return;
         }
+        // A connection whose writer failed still holds the port, its reader thread and the helpers built on it.
+        disconnectSerial();
         serialConnection = new JunoSerialThreaded(deviceInfo.getSerialPort());
         serialConnection.open();
+        // Registered before the dispatcher so subscribers also see command responses.
+        linePublisher = new SerialLinePublisher(serialConnection);
+        requestDispatcher = new SerialRequestDispatcher(serialConnection);
+        if (loopTelemetry != null) attachLoopTelemetry();
     }
 
     public void disconnectSerial() {
+        stopSerialRecording();
+        if (requestDispatcher != null) {
+            requestDispatcher.close();
+            requestDispatcher = null;
+        }
+        channelMux = null;
+        if (linePublisher != null) {
+            linePublisher.close();
+            linePublisher = null;
+        }
         if (serialConnection != null) {
             serialConnection.close();
             serialConnection = null;
         }
     }
 
+    /**
+     * Sends a command and waits for its response line.
+     *
+     * @return the response, or empty if none arrived within {@link #DEFAULT_COMMAND_TIMEOUT_MS}
+     */
     public Optional<String> sendSerialCommand(String command) throws IOException {
-        if (serialConnection == null || !serialConnection.isConnected()) {
+        try {
+            return Optional.of(sendSerialCommandAsync(command, DEFAULT_COMMAND_TIMEOUT_MS).get());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException) return Optional.empty();
+            throw new IOException("Serial command failed: " + command, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for response to: " + command, e);
+        }
+    }
+
+    /**
+     * Sends a command once the device prompts for input and completes with the next response line.
+     * Many requests may be outstanding at once; they are sent in submission order.
+     */
+    public CompletableFuture<String> sendSerialCommandAsync(String command, long timeoutMillis) throws IOException {
+        return requireDispatcher().submit(command, timeoutMillis);
+    }
+
+    /**
+     * Like {@link #sendSerialCommandAsync(String, long)}, completing with the first line accepted by {@code matcher}.
+     */
+    public CompletableFuture<String> sendSerialCommandAsync(String command, Predicate<String> matcher, long timeoutMillis) throws IOException {
+        return requireDispatcher().submit(command, matcher, timeoutMillis);
+    }
+
+    /**
+     * Runs the flash/thunder handshake that the generated firmware waits for after boot.
+     */
+    public CompletableFuture<String> handshake(long timeoutMillis) throws IOException {
+        return requireDispatcher().handshake(timeoutMillis);
+    }
+
+    /**
+     * Raises the serial link above 115200 baud if the firmware agrees and the faster rate is stable.
+     * Call after {@link #handshake(long)} and before enabling pipelining.
+     *
+     * @param maxBaudRate per-project cap, see {@code JunoConfigManager.getMaxBaudRate()}
+     * @return the baud rate in use afterwards
+     */
+    public int negotiateBaudRate(int maxBaudRate) throws IOException {
+        BaudNegotiator negotiator = new BaudNegotiator(serialConnection, requireDispatcher());
+        try {
+            return negotiator.negotiate(maxBaudRate);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted during baud negotiation", e);
+        }
+    }
+
+    /**
+     * Switches the device to channel multiplexing: ESP-IDF logs move to {@link SerialChannelMux#LOG}
+     * and command responses stay on the text path.
+     *
+     * @return the mux, whose channels can be read independently
+     */
+    public SerialChannelMux enableChannels(long timeoutMillis) throws IOException {
+        SerialRequestDispatcher dispatcher = requireDispatcher();
+        try {
+            requireChannelMux().enable(dispatcher, timeoutMillis).get();
+        } catch (ExecutionException e) {
+            throw new IOException("Device did not enable channel multiplexing", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while enabling channels", e);
+        }
+        return channelMux;
+    }
+
+    /**
+     * Starts aggregating the loop timing summaries sent by firmware built with CONFIG_JUNO_TELEMETRY
+     * into per-device histograms. The aggregate survives reconnects; summaries sent while
+     * disconnected are lost.
+     */
+    public LoopTelemetry enableLoopTelemetry() throws IOException {
+        requireDispatcher();
+        if (loopTelemetry == null) {
+            loopTelemetry = new LoopTelemetry();
+            attachLoopTelemetry();
+        }
+        return loopTelemetry;
+    }
+
+    /**
+     * @return the aggregate, or null if {@link #enableLoopTelemetry()} was never called
+     */
+    public LoopTelemetry getLoopTelemetry() {
+        return loopTelemetry;
+    }
+
+    private void attachLoopTelemetry() {
+        requireChannelMux().channel(SerialChannelMux.TELEMETRY).setListener(loopTelemetry::accept);
+    }
+
+    // Telemetry frames arrive whether or not logs are multiplexed, so the mux is created on first use.
+    private SerialChannelMux requireChannelMux() {
+        if (channelMux == null) {
+            channelMux = new SerialChannelMux(serialConnection);
+        }
+        return channelMux;
+    }
+
+    /**
+     * Streams every line the device sends, including command responses, to any number of
+     * subscribers. Each subscriber gets its own buffer and requests lines at its own pace;
+     * subscribers are completed when the serial connection is closed.
+     */
+    public Flow.Publisher<String> getSerialLines() throws IOException {
+        requireDispatcher();
+        return linePublisher;
+    }
+
+    /**
+     * Captures every byte sent and received from now on into the given file, for later
+     * playback with {@code SerialReplayer}. Replaces any recording already running.
+     */
+    public SerialRecorder startSerialRecording(Path captureFile) throws IOException {
+        requireDispatcher();
+        stopSerialRecording();
+        serialRecorder = new SerialRecorder(captureFile);
+        serialConnection.setByteListener(serialRecorder);
+        return serialRecorder;
+    }
+
+    public void stopSerialRecording() {
+        if (serialRecorder == null) return;
+        if (serialConnection != null) serialConnection.setByteListener(null);
+        try {
+            serialRecorder.close();
+        } catch (IOException e) {
+            System.err.println("Failed to finish serial recording: " + e.getMessage());
+        }
+        serialRecorder = null;
+    }
+
+    private SerialRequestDispatcher requireDispatcher() throws IOException {
+        if (serialConnection == null || !serialConnection.isConnected() || requestDispatcher == null) {
             throw new IOException("Serial connection is not open");
         }
-        serialConnection.write(command);
-        return serialConnection.readResponse(); // depends on your JunoSerialThreaded design
+        return requestDispatcher;
     }
 
     public void uploadFirmwareOTA(Path firmwareBinPath) throws IOException {
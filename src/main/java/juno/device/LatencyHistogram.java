@@ -0,0 +1,95 @@
+package juno.device;
+
+import java.util.Arrays;
+
+/**
+ * Power-of-two latency histogram matching the firmware's telemetry buckets: bucket {@code i}
+ * counts values in [2^i, 2^(i+1)) microseconds, bucket 0 also holds 0 and the last bucket is
+ * open-ended. Not thread-safe; {@link LoopTelemetry} guards its instances.
+ */
+public class LatencyHistogram {
+
+    private final long[] buckets;
+    private long count;
+
+    public LatencyHistogram(int bucketCount) {
+        if (bucketCount < 1 || bucketCount > 62) throw new IllegalArgumentException("Bucket count out of range: " + bucketCount);
+        this.buckets = new long[bucketCount];
+    }
+
+    /**
+     * Copy constructor.
+     */
+    public LatencyHistogram(LatencyHistogram other) {
+        this.buckets = other.buckets.clone();
+        this.count = other.count;
+    }
+
+    public void add(int bucket, long samples) {
+        buckets[bucket] += samples;
+        count += samples;
+    }
+
+    /**
+     * Adds the matching buckets of another histogram; extra buckets in it go into the last one.
+     */
+    public void addAll(long[] otherBuckets) {
+        for (int i = 0; i < otherBuckets.length; i++) {
+            add(Math.min(i, buckets.length - 1), otherBuckets[i]);
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public int getBucketCount() {
+        return buckets.length;
+    }
+
+    public long[] getBuckets() {
+        return buckets.clone();
+    }
+
+    /**
+     * @return smallest value counted in the bucket, in microseconds
+     */
+    public static long bucketLowerMicros(int bucket) {
+        return bucket == 0 ? 0 : 1L << bucket;
+    }
+
+    /**
+     * @return upper bound of the bucket holding the given fraction of samples, e.g. 0.99 for p99;
+     * at least that fraction took less than this many microseconds. Values in the open-ended last
+     * bucket report its lower bound. 0 when empty.
+     */
+    public long percentileMicros(double fraction) {
+        if (fraction < 0 || fraction > 1) throw new IllegalArgumentException("Fraction must be within [0, 1]");
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) return i == buckets.length - 1 ? bucketLowerMicros(i) : 1L << (i + 1);
+        }
+        return bucketLowerMicros(buckets.length - 1);
+    }
+
+    /**
+     * @return samples in buckets that lie entirely at or above the given value, e.g. a loop deadline
+     */
+    public long countAtLeast(long micros) {
+        long total = 0;
+        for (int i = buckets.length - 1; i >= 0 && bucketLowerMicros(i) >= micros; i--) {
+            total += buckets[i];
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d p50<%dus p90<%dus p99<%dus p99.9<%dus %s",
+                count, percentileMicros(0.5), percentileMicros(0.9), percentileMicros(0.99), percentileMicros(0.999),
+                Arrays.toString(buckets));
+    }
+}
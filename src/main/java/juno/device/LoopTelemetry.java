@@ -0,0 +1,266 @@
+package juno.device;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Aggregates the loop timing summaries sent by firmware built with CONFIG_JUNO_TELEMETRY
+ * (idf.py menuconfig -> Juno) on the telemetry channel.
+ * <p>
+ * Each summary carries bucket counts rather than samples, so the merged histograms cover every
+ * loop() iteration the device reported, and show whether a sketch meets its loop deadline.
+ * Summaries are fed in from the serial reader thread; all getters are safe from any thread.
+ */
+public class LoopTelemetry {
+
+    public static final int VERSION = 1;
+    static final int HEADER_SIZE = 44;
+
+    /**
+     * One decoded summary. Counters cover the device's interval since the previous summary.
+     */
+    public static final class Summary {
+        private final int periodMillis;
+        private final long uptimeMillis;
+        private final long iterations;
+        private final long overruns;
+        private final long maxLoopMicros;
+        private final long totalLoopMicros;
+        private final long maxJitterMicros;
+        private final long freeHeap;
+        private final long minFreeHeap;
+        private final long loopStackFree;
+        private final long telemetryStackFree;
+        private final long[] loopBuckets;
+        private final long[] jitterBuckets;
+
+        private Summary(ByteBuffer in, int bucketCount) {
+            periodMillis = Short.toUnsignedInt(in.getShort());
+            uptimeMillis = Integer.toUnsignedLong(in.getInt());
+            iterations = Integer.toUnsignedLong(in.getInt());
+            overruns = Integer.toUnsignedLong(in.getInt());
+            maxLoopMicros = Integer.toUnsignedLong(in.getInt());
+            totalLoopMicros = Integer.toUnsignedLong(in.getInt());
+            maxJitterMicros = Integer.toUnsignedLong(in.getInt());
+            freeHeap = Integer.toUnsignedLong(in.getInt());
+            minFreeHeap = Integer.toUnsignedLong(in.getInt());
+            loopStackFree = Integer.toUnsignedLong(in.getInt());
+            telemetryStackFree = Integer.toUnsignedLong(in.getInt());
+            loopBuckets = new long[bucketCount];
+            jitterBuckets = new long[bucketCount];
+            for (int i = 0; i < bucketCount; i++) loopBuckets[i] = Short.toUnsignedInt(in.getShort());
+            for (int i = 0; i < bucketCount; i++) jitterBuckets[i] = Short.toUnsignedInt(in.getShort());
+        }
+
+        /**
+         * @throws IllegalArgumentException if the payload is not a summary this host understands
+         */
+        public static Summary parse(byte[] payload) {
+            if (payload.length < HEADER_SIZE) throw new IllegalArgumentException("Telemetry summary too short: " + payload.length);
+            ByteBuffer in = ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN);
+            int version = Byte.toUnsignedInt(in.get());
+            if (version != VERSION) throw new IllegalArgumentException("Unsupported telemetry version: " + version);
+            int bucketCount = Byte.toUnsignedInt(in.get());
+            if (bucketCount == 0 || payload.length != HEADER_SIZE + 4 * bucketCount) {
+                throw new IllegalArgumentException("Telemetry summary length " + payload.length + " does not match " + bucketCount + " buckets");
+            }
+            return new Summary(in, bucketCount);
+        }
+
+        public int getPeriodMillis() {
+            return periodMillis;
+        }
+
+        public long getUptimeMillis() {
+            return uptimeMillis;
+        }
+
+        public long getIterations() {
+            return iterations;
+        }
+
+        public long getOverruns() {
+            return overruns;
+        }
+
+        public long getMaxLoopMicros() {
+            return maxLoopMicros;
+        }
+
+        public long getTotalLoopMicros() {
+            return totalLoopMicros;
+        }
+
+        public long getMaxJitterMicros() {
+            return maxJitterMicros;
+        }
+
+        public long getFreeHeap() {
+            return freeHeap;
+        }
+
+        /**
+         * @return lowest free heap since boot, in bytes
+         */
+        public long getMinFreeHeap() {
+            return minFreeHeap;
+        }
+
+        /**
+         * @return bytes of the loop task's stack that have never been used
+         */
+        public long getLoopStackFree() {
+            return loopStackFree;
+        }
+
+        public long getTelemetryStackFree() {
+            return telemetryStackFree;
+        }
+
+        public long[] getLoopBuckets() {
+            return loopBuckets.clone();
+        }
+
+        public long[] getJitterBuckets() {
+            return jitterBuckets.clone();
+        }
+    }
+
+    private LatencyHistogram loopTimes;
+    private LatencyHistogram jitter;
+    private Summary latest;
+    private long summaries;
+    private long rejected;
+    private long restarts;
+    private long iterations;
+    private long overruns;
+    private long totalLoopMicros;
+    private long maxLoopMicros;
+    private long maxJitterMicros;
+    private long lowestFreeHeap = Long.MAX_VALUE;
+    private long lowestLoopStackFree = Long.MAX_VALUE;
+
+    /**
+     * Adds one summary payload from the telemetry channel. Malformed payloads are counted and skipped.
+     */
+    public void accept(byte[] payload) {
+        Summary summary;
+        try {
+            summary = Summary.parse(payload);
+        } catch (IllegalArgumentException e) {
+            synchronized (this) {
+                rejected++;
+            }
+            return;
+        }
+        add(summary);
+    }
+
+    public synchronized void add(Summary summary) {
+        if (loopTimes == null) {
+            loopTimes = new LatencyHistogram(summary.loopBuckets.length);
+            jitter = new LatencyHistogram(summary.jitterBuckets.length);
+        }
+        if (latest != null && summary.uptimeMillis < latest.uptimeMillis) restarts++;
+        latest = summary;
+        summaries++;
+        iterations += summary.iterations;
+        overruns += summary.overruns;
+        totalLoopMicros += summary.totalLoopMicros;
+        maxLoopMicros = Math.max(maxLoopMicros, summary.maxLoopMicros);
+        maxJitterMicros = Math.max(maxJitterMicros, summary.maxJitterMicros);
+        lowestFreeHeap = Math.min(lowestFreeHeap, summary.minFreeHeap);
+        lowestLoopStackFree = Math.min(lowestLoopStackFree, summary.loopStackFree);
+        loopTimes.addAll(summary.loopBuckets);
+        jitter.addAll(summary.jitterBuckets);
+    }
+
+    /**
+     * @return copy of the loop() duration histogram, or null before the first summary
+     */
+    public synchronized LatencyHistogram getLoopTimeHistogram() {
+        return loopTimes == null ? null : new LatencyHistogram(loopTimes);
+    }
+
+    /**
+     * @return copy of the start jitter histogram, or null before the first summary
+     */
+    public synchronized LatencyHistogram getJitterHistogram() {
+        return jitter == null ? null : new LatencyHistogram(jitter);
+    }
+
+    /**
+     * @return the most recent summary, or null before the first one
+     */
+    public synchronized Summary getLatest() {
+        return latest;
+    }
+
+    public synchronized long getSummaries() {
+        return summaries;
+    }
+
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return times the reported uptime went backwards, i.e. the device rebooted
+     */
+    public synchronized long getRestarts() {
+        return restarts;
+    }
+
+    public synchronized long getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return iterations that ran past their loop period
+     */
+    public synchronized long getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * @return fraction of iterations that missed their deadline, 0 before the first summary
+     */
+    public synchronized double getOverrunRatio() {
+        return iterations == 0 ? 0 : (double) overruns / iterations;
+    }
+
+    public synchronized long getMeanLoopMicros() {
+        return iterations == 0 ? 0 : totalLoopMicros / iterations;
+    }
+
+    public synchronized long getMaxLoopMicros() {
+        return maxLoopMicros;
+    }
+
+    public synchronized long getMaxJitterMicros() {
+        return maxJitterMicros;
+    }
+
+    /**
+     * @return lowest free heap the device has reported, in bytes, or -1 before the first summary
+     */
+    public synchronized long getLowestFreeHeap() {
+        return latest == null ? -1 : lowestFreeHeap;
+    }
+
+    /**
+     * @return smallest unused loop task stack reported, in bytes, or -1 before the first summary
+     */
+    public synchronized long getLowestLoopStackFree() {
+        return latest == null ? -1 : lowestLoopStackFree;
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (latest == null) return "no telemetry";
+        return String.format("%d iterations, %d overruns (%.3f%%), mean %d us, max %d us, max jitter %d us, "
+                        + "lowest free heap %d B, lowest loop stack free %d B%n  loop:   %s%n  jitter: %s",
+                iterations, overruns, getOverrunRatio() * 100, getMeanLoopMicros(), maxLoopMicros, maxJitterMicros,
+                lowestFreeHeap, lowestLoopStackFree, loopTimes, jitter);
+    }
+}
@@ -0,0 +1,362 @@
+package juno.flasher;
+
+import juno.logger.JunoLogger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Flashes a {@link FirmwareImage} in-process over jSerialComm, without starting Python or esptool.
+ * <p>
+ * Per port: reset into the bootloader, upload the esptool stub when available, raise the baud
+ * rate, write every part as compressed {@code FLASH_DEFL_DATA} blocks, check each part's MD5 on
+ * the device, and reset into the new firmware. Instances hold only settings, so one flasher can
+ * serve many ports from different threads.
+ * <p>
+ * With {@link #setDifferential(boolean)} only the 4 KB sectors whose contents differ are erased
+ * and written. Changed sectors come from the board's {@link FlashManifest} when the device still
+ * holds what it records, otherwise from MD5s computed on the device; every part is verified in
+ * full either way.
+ */
+public class EspFlasher {
+
+    public static final int DEFAULT_BAUD = 921600;
+
+    // Granularity of on-device hashing before narrowing down to sectors.
+    private static final int HASH_BLOCK_SIZE = 0x10000;
+
+    // Where esptool keeps its ESP32 stub inside ESP-IDF, newest layout first.
+    private static final List<String> IDF_STUB_PATHS = List.of(
+            "components/esptool_py/esptool/esptool/targets/stub_flasher/1/esp32.json",
+            "components/esptool_py/esptool/esptool/targets/stub_flasher/stub_flasher_32.json",
+            "components/esptool_py/esptool/esptool/stub_flasher/stub_flasher_32.json");
+
+    /**
+     * Progress of one part on one port; called on the flashing thread.
+     */
+    public interface ProgressListener {
+        void onProgress(String portName, FirmwareImage.Part part, long written, long total);
+    }
+
+    /**
+     * Outcome of one successful flash.
+     */
+    public static final class Result {
+        private final String portName;
+        private final long bytesWritten;
+        private final long bytesSent;
+        private final int baudRate;
+        private final boolean stub;
+        private final long elapsedNanos;
+        private final int sectorsWritten;
+        private final int sectorsTotal;
+
+        Result(String portName, long bytesWritten, long bytesSent, int baudRate, boolean stub, long elapsedNanos,
+               int sectorsWritten, int sectorsTotal) {
+            this.portName = portName;
+            this.bytesWritten = bytesWritten;
+            this.bytesSent = bytesSent;
+            this.baudRate = baudRate;
+            this.stub = stub;
+            this.elapsedNanos = elapsedNanos;
+            this.sectorsWritten = sectorsWritten;
+            this.sectorsTotal = sectorsTotal;
+        }
+
+        public String getPortName() {
+            return portName;
+        }
+
+        /**
+         * @return image bytes written to flash
+         */
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        /**
+         * @return compressed bytes sent over the wire
+         */
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        public int getBaudRate() {
+            return baudRate;
+        }
+
+        public boolean isStub() {
+            return stub;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return 4 KB sectors erased and written; equal to {@link #getSectorsTotal()} unless differential
+         */
+        public int getSectorsWritten() {
+            return sectorsWritten;
+        }
+
+        public int getSectorsTotal() {
+            return sectorsTotal;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d bytes (%d compressed, %d/%d sectors) at %d baud via %s in %.2f s",
+                    portName, bytesWritten, bytesSent, sectorsWritten, sectorsTotal, baudRate,
+                    stub ? "stub" : "ROM", elapsedNanos / 1e9);
+        }
+    }
+
+    private int baudRate = DEFAULT_BAUD;
+    private Path stubFile;
+    private boolean verify = true;
+    private boolean resetAfterFlash = true;
+    private ProgressListener progressListener;
+    private boolean differential = false;
+    private Path manifestDir;
+
+    /**
+     * @param baudRate rate used after the bootloader handshake; {@link EspRomLoader#ROM_BAUD} keeps the initial rate
+     */
+    public void setBaudRate(int baudRate) {
+        this.baudRate = baudRate;
+    }
+
+    /**
+     * @param stubFile esptool stub JSON, or null to talk to the ROM loader only
+     */
+    public void setStubFile(Path stubFile) {
+        this.stubFile = stubFile;
+    }
+
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    public void setResetAfterFlash(boolean resetAfterFlash) {
+        this.resetAfterFlash = resetAfterFlash;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * @param differential write only the sectors that differ from what the board already holds
+     */
+    public void setDifferential(boolean differential) {
+        this.differential = differential;
+    }
+
+    /**
+     * @param manifestDir where per-board {@link FlashManifest}s are kept, or null to always hash on the device
+     */
+    public void setManifestDir(Path manifestDir) {
+        this.manifestDir = manifestDir;
+    }
+
+    /**
+     * Finds esptool's ESP32 stub in an ESP-IDF install.
+     */
+    public static Optional<Path> findIdfStub(String idfPath) {
+        if (idfPath == null || idfPath.isBlank()) return Optional.empty();
+        Path root = Path.of(idfPath);
+        for (String candidate : IDF_STUB_PATHS) {
+            Path stub = root.resolve(candidate);
+            if (Files.isRegularFile(stub)) return Optional.of(stub);
+        }
+        Path esptool = root.resolve("components/esptool_py/esptool");
+        if (!Files.isDirectory(esptool)) return Optional.empty();
+        try (Stream<Path> files = Files.walk(esptool, 6)) {
+            return files.filter(p -> p.getFileName().toString().equals("stub_flasher_32.json")).findFirst();
+        } catch (IOException | UncheckedIOException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Flashes every part of the image to the board on the given port.
+     *
+     * @throws IOException if the board does not answer, a command fails or verification finds a mismatch
+     */
+    public Result flash(String portName, FirmwareImage image) throws IOException {
+        long start = System.nanoTime();
+        long written = 0;
+        long sent = 0;
+        int sectorsWritten = 0;
+        int sectorsTotal = 0;
+        try (EspRomLoader loader = new EspRomLoader(portName)) {
+            loader.connect();
+            FlashManifest manifest = null;
+            if (differential && manifestDir != null) {
+                manifest = FlashManifest.load(manifestDir, loader.readMacAddress());
+            }
+            if (stubFile != null && image.isStubAllowed()) {
+                loader.loadStub(stubFile);
+            }
+            if (baudRate != loader.getBaudRate()) {
+                loader.changeBaudRate(baudRate);
+            }
+            loader.attachFlash(image.getFlashSize());
+
+            for (FirmwareImage.Part part : image.getParts()) {
+                byte[] padded = part.getPadded();
+                long total = part.getData().length;
+                sectorsTotal += sectorCount(padded.length);
+                if (!differential) {
+                    sent += loader.writeDeflated(part.getOffset(), padded, part.getDeflated(), done -> report(portName, part, done, total));
+                    written += total;
+                    sectorsWritten += sectorCount(padded.length);
+                    if (verify) verify(loader, part);
+                    continue;
+                }
+
+                FlashManifest.Entry known = manifest == null ? null : manifest.get(part.getOffset());
+                List<int[]> runs = changedRuns(loader, part, known);
+                // Unchanged sectors count as already written.
+                long done = padded.length;
+                for (int[] run : runs) done -= runLength(run, padded.length);
+                report(portName, part, done, total);
+                for (int[] run : runs) {
+                    int from = run[0] * EspRomLoader.SECTOR_SIZE;
+                    byte[] slice = Arrays.copyOfRange(padded, from, from + runLength(run, padded.length));
+                    long base = done;
+                    sent += loader.writeDeflated(part.getOffset() + from, slice, n -> report(portName, part, base + n, total));
+                    done += slice.length;
+                    written += slice.length;
+                    sectorsWritten += run[1] - run[0];
+                }
+
+                // Differential writes are always checked: a wrong guess about the device must not go unnoticed.
+                if (!matches(loader, part)) {
+                    JunoLogger.warn(String.format("%s at 0x%X differs after a differential write on %s; rewriting it",
+                            part.getName(), part.getOffset(), portName));
+                    sent += loader.writeDeflated(part.getOffset(), padded, part.getDeflated(), n -> report(portName, part, n, total));
+                    written += total;
+                    sectorsWritten += sectorCount(padded.length);
+                    verify(loader, part);
+                }
+                if (manifest != null) manifest.put(part.getOffset(), FlashManifest.Entry.of(padded));
+            }
+
+            loader.finishFlash();
+            if (manifest != null) {
+                try {
+                    manifest.save();
+                } catch (IOException e) {
+                    JunoLogger.warn("Could not save flash manifest: " + e.getMessage());
+                }
+            }
+            if (resetAfterFlash) loader.hardReset();
+            return new Result(portName, written, sent, loader.getBaudRate(), loader.isStub(), System.nanoTime() - start,
+                    sectorsWritten, sectorsTotal);
+        }
+    }
+
+    /**
+     * Finds the sectors of a part that differ on the device, as [first, end) runs of sector indexes.
+     */
+    private static List<int[]> changedRuns(EspRomLoader loader, FirmwareImage.Part part, FlashManifest.Entry known) throws IOException {
+        byte[] padded = part.getPadded();
+        int offset = part.getOffset();
+        int sectors = sectorCount(padded.length);
+        byte[] deviceMd5 = loader.flashMd5(offset, padded.length);
+        if (Arrays.equals(deviceMd5, md5(padded, 0, padded.length))) return List.of();
+
+        boolean[] changed = new boolean[sectors];
+        if (known != null && Arrays.equals(known.getMd5(),
+                known.getSize() == padded.length ? deviceMd5 : loader.flashMd5(offset, known.getSize()))) {
+            // The device still holds what the manifest records, so its sector hashes stand in for the device's.
+            FlashManifest.Entry wanted = FlashManifest.Entry.of(padded);
+            for (int i = 0; i < sectors; i++) {
+                changed[i] = i >= known.getSectorCount()
+                        || sectorLength(i, padded.length) != sectorLength(i, known.getSize())
+                        || !Arrays.equals(wanted.getSectorMd5(i), known.getSectorMd5(i));
+            }
+        } else {
+            // Hash 64 KB blocks on the device, then the sectors of the blocks that differ. When most
+            // blocks differ (a blank or foreign board) the per-sector round trips would cost more than they save.
+            List<Integer> differing = new ArrayList<>();
+            for (int block = 0; block < padded.length; block += HASH_BLOCK_SIZE) {
+                int length = Math.min(HASH_BLOCK_SIZE, padded.length - block);
+                if (!Arrays.equals(loader.flashMd5(offset + block, length), md5(padded, block, length))) differing.add(block);
+            }
+            boolean refine = differing.size() * 2 <= (padded.length + HASH_BLOCK_SIZE - 1) / HASH_BLOCK_SIZE;
+            for (int block : differing) {
+                for (int from = block; from < Math.min(padded.length, block + HASH_BLOCK_SIZE); from += EspRomLoader.SECTOR_SIZE) {
+                    int sector = from / EspRomLoader.SECTOR_SIZE;
+                    int sectorLength = sectorLength(sector, padded.length);
+                    changed[sector] = !refine
+                            || !Arrays.equals(loader.flashMd5(offset + from, sectorLength), md5(padded, from, sectorLength));
+                }
+            }
+        }
+
+        List<int[]> runs = new ArrayList<>();
+        for (int i = 0; i < sectors; i++) {
+            if (!changed[i]) continue;
+            int end = i;
+            while (end < sectors && changed[end]) end++;
+            runs.add(new int[]{i, end});
+            i = end;
+        }
+        return runs;
+    }
+
+    private static int sectorCount(int length) {
+        return (length + EspRomLoader.SECTOR_SIZE - 1) / EspRomLoader.SECTOR_SIZE;
+    }
+
+    private static int runLength(int[] run, int length) {
+        return Math.min(length, run[1] * EspRomLoader.SECTOR_SIZE) - run[0] * EspRomLoader.SECTOR_SIZE;
+    }
+
+    private static int sectorLength(int sector, int length) {
+        return Math.max(0, Math.min(EspRomLoader.SECTOR_SIZE, length - sector * EspRomLoader.SECTOR_SIZE));
+    }
+
+    private void report(String portName, FirmwareImage.Part part, long written, long total) {
+        ProgressListener listener = progressListener;
+        if (listener != null) listener.onProgress(portName, part, Math.min(written, total), total);
+    }
+
+    private static boolean matches(EspRomLoader loader, FirmwareImage.Part part) throws IOException {
+        byte[] padded = part.getPadded();
+        return Arrays.equals(md5(padded, 0, padded.length), loader.flashMd5(part.getOffset(), padded.length));
+    }
+
+    private static void verify(EspRomLoader loader, FirmwareImage.Part part) throws IOException {
+        byte[] padded = part.getPadded();
+        byte[] expected = md5(padded, 0, padded.length);
+        byte[] actual = loader.flashMd5(part.getOffset(), padded.length);
+        if (!Arrays.equals(expected, actual)) {
+            throw new IOException(String.format("Verification of %s at 0x%X failed: expected MD5 %s, device has %s",
+                    part.getName(), part.getOffset(), HexFormat.of().formatHex(expected), HexFormat.of().formatHex(actual)));
+        }
+    }
+
+    static byte[] md5(byte[] data, int offset, int length) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            digest.update(data, offset, length);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package juno.flasher;
+
+import com.fazecast.jSerialComm.SerialPort;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.function.LongConsumer;
+import java.util.zip.Deflater;
+
+/**
+ * Client for the ESP32 serial bootloader protocol: the mask ROM loader, and optionally the
+ * esptool flasher stub that can be uploaded into RAM. Commands are SLIP-framed packets
+ * {@code [0x00, op, len16, checksum32, data]} answered by {@code [0x01, op, len16, value32, data, status]}.
+ * <p>
+ * One instance drives one port and is not thread-safe; flash several boards by giving each its own loader.
+ */
+public class EspRomLoader implements AutoCloseable {
+
+    static final int MEM_BEGIN = 0x05;
+    static final int MEM_END = 0x06;
+    static final int MEM_DATA = 0x07;
+    static final int SYNC = 0x08;
+    static final int READ_REG = 0x0A;
+    static final int SPI_SET_PARAMS = 0x0B;
+    static final int SPI_ATTACH = 0x0D;
+    static final int CHANGE_BAUDRATE = 0x0F;
+    static final int FLASH_DEFL_BEGIN = 0x10;
+    static final int FLASH_DEFL_DATA = 0x11;
+    static final int FLASH_DEFL_END = 0x12;
+    static final int SPI_FLASH_MD5 = 0x13;
+
+    static final byte[] SYNC_DATA = syncData();
+    static final int CHECKSUM_SEED = 0xEF;
+    static final int CHIP_DETECT_MAGIC_REG = 0x40001000;
+    static final int ESP32_CHIP_MAGIC = 0x00F01D83;
+    // EFUSE_BLK0 read registers; words 1 and 2 hold the factory MAC.
+    static final int EFUSE_RD_REG_BASE = 0x3FF5A000;
+    static final byte[] STUB_GREETING = "OHAI".getBytes(StandardCharsets.US_ASCII);
+
+    // The ESP32 ROM appends 4 status bytes to every response, the stub 2.
+    static final int ROM_STATUS_LENGTH = 4;
+    static final int STUB_STATUS_LENGTH = 2;
+    static final int ROM_WRITE_BLOCK = 0x400;
+    static final int STUB_WRITE_BLOCK = 0x4000;
+    static final int MEM_BLOCK = 0x1800;
+
+    public static final int ROM_BAUD = 115200;
+    public static final int SECTOR_SIZE = 0x1000;
+
+    private static final long DEFAULT_TIMEOUT_MS = 3000;
+    private static final long SYNC_TIMEOUT_MS = 100;
+    private static final int SYNC_ATTEMPTS = 7;
+    private static final int RESET_ATTEMPTS = 3;
+    private static final long ERASE_TIMEOUT_PER_MB_MS = 30_000;
+    private static final long WRITE_TIMEOUT_PER_MB_MS = 40_000;
+    private static final long MD5_TIMEOUT_PER_MB_MS = 8_000;
+    private static final int READ_TIMEOUT_MS = 50;
+
+    /**
+     * Payload and result value of one command.
+     */
+    public static final class Response {
+        private final int value;
+        private final byte[] data;
+
+        Response(int value, byte[] data) {
+            this.value = value;
+            this.data = data;
+        }
+
+        public int getValue() {
+            return value;
+        }
+
+        /**
+         * @return response data without the status bytes
+         */
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    private final SerialPort port;
+    private final SlipCodec.Decoder decoder = new SlipCodec.Decoder();
+    private final byte[] readBuffer = new byte[4096];
+    private int readPos = 0;
+    private int readLength = 0;
+    private boolean stub = false;
+    private int baudRate = ROM_BAUD;
+
+    public EspRomLoader(String portName) {
+        this.port = SerialPort.getCommPort(portName);
+    }
+
+    public String getPortName() {
+        return port.getSystemPortName();
+    }
+
+    /**
+     * Opens the port, resets the chip into its serial bootloader and synchronises with it.
+     *
+     * @throws IOException if the port cannot be opened or no ESP32 answers
+     */
+    public void connect() throws IOException {
+        port.setComPortParameters(ROM_BAUD, 8, SerialPort.ONE_STOP_BIT, SerialPort.NO_PARITY);
+        port.setComPortTimeouts(SerialPort.TIMEOUT_READ_SEMI_BLOCKING | SerialPort.TIMEOUT_WRITE_BLOCKING, READ_TIMEOUT_MS, 0);
+        if (!port.openPort()) {
+            throw new IOException("Failed to open serial port: " + port.getSystemPortName());
+        }
+        for (int reset = 0; reset < RESET_ATTEMPTS; reset++) {
+            resetIntoBootloader();
+            if (sync()) {
+                int magic = readReg(CHIP_DETECT_MAGIC_REG);
+                if (magic != ESP32_CHIP_MAGIC) {
+                    throw new IOException(String.format("Not an ESP32 on %s (chip magic 0x%08X)", port.getSystemPortName(), magic));
+                }
+                return;
+            }
+        }
+        throw new IOException("No ESP32 bootloader answered on " + port.getSystemPortName()
+                + "; hold BOOT while pressing EN if the board lacks auto-reset");
+    }
+
+    // Classic DevKit auto-reset: DTR drives IO0 and RTS drives EN, both inverted.
+    private void resetIntoBootloader() throws IOException {
+        port.clearDTR();
+        port.setRTS();
+        pause(100);
+        port.setDTR();
+        port.clearRTS();
+        pause(50);
+        port.clearDTR();
+        discardInput();
+    }
+
+    private boolean sync() throws IOException {
+        for (int attempt = 0; attempt < SYNC_ATTEMPTS; attempt++) {
+            try {
+                command(SYNC, SYNC_DATA, 0, SYNC_TIMEOUT_MS);
+                // The ROM answers one SYNC with several responses; drop the rest.
+                while (readPacket(System.nanoTime() + SYNC_TIMEOUT_MS * 1_000_000L) != null) {
+                    // skip
+                }
+                return true;
+            } catch (IOException e) {
+                // Not in the bootloader yet, or still printing its boot banner.
+            }
+        }
+        return false;
+    }
+
+    public int readReg(int address) throws IOException {
+        return command(READ_REG, le(address), 0, DEFAULT_TIMEOUT_MS).getValue();
+    }
+
+    /**
+     * @return the factory MAC address, e.g. {@code 24:0a:c4:12:34:56}; identifies a board across ports
+     */
+    public String readMacAddress() throws IOException {
+        int low = readReg(EFUSE_RD_REG_BASE + 4);
+        int high = readReg(EFUSE_RD_REG_BASE + 8);
+        return String.format("%02x:%02x:%02x:%02x:%02x:%02x",
+                (high >>> 8) & 0xFF, high & 0xFF, low >>> 24, (low >>> 16) & 0xFF, (low >>> 8) & 0xFF, low & 0xFF);
+    }
+
+    public boolean isStub() {
+        return stub;
+    }
+
+    public int getBaudRate() {
+        return baudRate;
+    }
+
+    /**
+     * Uploads esptool's flasher stub, e.g. {@code stub_flasher_32.json} from the ESP-IDF install,
+     * and switches to it. The stub writes flash faster and erases as it goes.
+     */
+    public void loadStub(Path stubJson) throws IOException {
+        JsonObject json;
+        try (Reader reader = Files.newBufferedReader(stubJson)) {
+            json = JsonParser.parseReader(reader).getAsJsonObject();
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid flasher stub: " + stubJson, e);
+        }
+        if (!json.has("entry") || !json.has("text") || !json.has("text_start")) {
+            throw new IOException("Flasher stub lacks entry/text: " + stubJson);
+        }
+
+        uploadToRam(Base64.getDecoder().decode(json.get("text").getAsString()), json.get("text_start").getAsInt());
+        if (json.has("data")) {
+            uploadToRam(Base64.getDecoder().decode(json.get("data").getAsString()), json.get("data_start").getAsInt());
+        }
+        int entry = json.get("entry").getAsInt();
+        command(MEM_END, le(entry == 0 ? 1 : 0, entry), 0, DEFAULT_TIMEOUT_MS);
+
+        byte[] greeting = readPacket(System.nanoTime() + DEFAULT_TIMEOUT_MS * 1_000_000L);
+        if (greeting == null || !Arrays.equals(greeting, STUB_GREETING)) {
+            throw new IOException("Flasher stub did not start on " + port.getSystemPortName());
+        }
+        stub = true;
+    }
+
+    private void uploadToRam(byte[] segment, int address) throws IOException {
+        int blocks = (segment.length + MEM_BLOCK - 1) / MEM_BLOCK;
+        command(MEM_BEGIN, le(segment.length, blocks, MEM_BLOCK, address), 0, DEFAULT_TIMEOUT_MS);
+        for (int seq = 0; seq < blocks; seq++) {
+            int from = seq * MEM_BLOCK;
+            byte[] block = Arrays.copyOfRange(segment, from, Math.min(segment.length, from + MEM_BLOCK));
+            command(MEM_DATA, concat(le(block.length, seq, 0, 0), block), checksum(block), DEFAULT_TIMEOUT_MS);
+        }
+    }
+
+    /**
+     * Switches both ends of the link to a new baud rate. The reply still arrives at the old rate.
+     */
+    public void changeBaudRate(int newBaud) throws IOException {
+        // The stub wants the current rate to derive its clock divider; the ROM ignores it.
+        command(CHANGE_BAUDRATE, le(newBaud, stub ? baudRate : 0), 0, DEFAULT_TIMEOUT_MS);
+        if (!port.setBaudRate(newBaud)) {
+            throw new IOException("Serial port rejected " + newBaud + " baud");
+        }
+        baudRate = newBaud;
+        pause(50);
+        discardInput();
+    }
+
+    /**
+     * Attaches the SPI flash and tells the loader its geometry.
+     */
+    public void attachFlash(int flashSize) throws IOException {
+        command(SPI_ATTACH, stub ? le(0) : le(0, 0), 0, DEFAULT_TIMEOUT_MS);
+        command(SPI_SET_PARAMS, le(0, flashSize, 64 * 1024, SECTOR_SIZE, 256, 0xFFFF), 0, DEFAULT_TIMEOUT_MS);
+    }
+
+    /**
+     * Writes data to flash as a zlib stream, padded to a multiple of 4 bytes.
+     *
+     * @param progress receives the number of uncompressed bytes written so far, may be null
+     * @return bytes sent over the wire
+     */
+    public int writeDeflated(int offset, byte[] data, LongConsumer progress) throws IOException {
+        byte[] image = padTo4(data);
+        return writeDeflated(offset, image, deflate(image), progress);
+    }
+
+    /**
+     * Like {@link #writeDeflated(int, byte[], LongConsumer)} with the compression already done,
+     * e.g. once for a whole batch of boards.
+     *
+     * @param image the padded data, a multiple of 4 bytes long
+     * @param compressed zlib stream of image
+     */
+    public int writeDeflated(int offset, byte[] image, byte[] compressed, LongConsumer progress) throws IOException {
+
+        int blockSize = stub ? STUB_WRITE_BLOCK : ROM_WRITE_BLOCK;
+        int blocks = (compressed.length + blockSize - 1) / blockSize;
+        // The stub erases as it writes; the ROM erases the whole region up front, in whole blocks.
+        int eraseSize = stub ? image.length : (image.length + blockSize - 1) / blockSize * blockSize;
+        long beginTimeout = stub ? DEFAULT_TIMEOUT_MS : Math.max(DEFAULT_TIMEOUT_MS, perMb(ERASE_TIMEOUT_PER_MB_MS, eraseSize));
+        command(FLASH_DEFL_BEGIN, le(eraseSize, blocks, blockSize, offset), 0, beginTimeout);
+
+        double ratio = compressed.length == 0 ? 1 : (double) image.length / compressed.length;
+        for (int seq = 0; seq < blocks; seq++) {
+            int from = seq * blockSize;
+            byte[] block = Arrays.copyOfRange(compressed, from, Math.min(compressed.length, from + blockSize));
+            long timeout = Math.max(DEFAULT_TIMEOUT_MS, perMb(WRITE_TIMEOUT_PER_MB_MS, (long) (block.length * ratio)));
+            command(FLASH_DEFL_DATA, concat(le(block.length, seq, 0, 0), block), checksum(block), timeout);
+            if (progress != null) progress.accept(Math.min(image.length, (long) ((from + block.length) * ratio)));
+        }
+        if (stub) {
+            // The stub acknowledges a block before writing it; a round trip waits for the last one.
+            readReg(CHIP_DETECT_MAGIC_REG);
+        }
+        return compressed.length;
+    }
+
+    /**
+     * @return MD5 of a flash region, computed on the device
+     */
+    public byte[] flashMd5(int offset, int size) throws IOException {
+        long timeout = Math.max(DEFAULT_TIMEOUT_MS, perMb(MD5_TIMEOUT_PER_MB_MS, size));
+        byte[] data = command(SPI_FLASH_MD5, le(offset, size, 0, 0), 0, timeout).getData();
+        // The ROM answers with 32 hex characters, the stub with the 16 raw bytes.
+        if (data.length >= 32) return HexFormat.of().parseHex(new String(data, 0, 32, StandardCharsets.US_ASCII));
+        if (data.length >= 16) return Arrays.copyOf(data, 16);
+        throw new IOException("Short SPI_FLASH_MD5 response: " + data.length + " bytes");
+    }
+
+    /**
+     * Leaves flash mode without rebooting; call {@link #hardReset()} to run the new firmware.
+     */
+    public void finishFlash() throws IOException {
+        int blockSize = stub ? STUB_WRITE_BLOCK : ROM_WRITE_BLOCK;
+        command(FLASH_DEFL_BEGIN, le(0, 0, blockSize, 0), 0, DEFAULT_TIMEOUT_MS);
+        command(FLASH_DEFL_END, le(1), 0, DEFAULT_TIMEOUT_MS);
+    }
+
+    /**
+     * Pulses EN so the chip boots from flash.
+     */
+    public void hardReset() throws IOException {
+        port.setRTS();
+        pause(100);
+        port.clearRTS();
+    }
+
+    /**
+     * Sends a command and waits for its response. Responses to other commands are skipped.
+     *
+     * @throws IOException on timeout or when the loader reports a failure
+     */
+    public Response command(int op, byte[] data, int checksum, long timeoutMillis) throws IOException {
+        byte[] packet = new byte[8 + data.length];
+        ByteBuffer header = ByteBuffer.wrap(packet).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 0).put((byte) op).putShort((short) data.length).putInt(checksum);
+        System.arraycopy(data, 0, packet, 8, data.length);
+        write(SlipCodec.encode(packet));
+
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        while (true) {
+            byte[] reply = readPacket(deadline);
+            if (reply == null) {
+                throw new IOException(String.format("Timed out waiting for response to command 0x%02X", op));
+            }
+            if (reply.length < 8 || reply[0] != 1 || (reply[1] & 0xFF) != op) continue;
+
+            ByteBuffer in = ByteBuffer.wrap(reply).order(ByteOrder.LITTLE_ENDIAN);
+            int size = Short.toUnsignedInt(in.getShort(2));
+            int value = in.getInt(4);
+            int statusLength = stub ? STUB_STATUS_LENGTH : ROM_STATUS_LENGTH;
+            if (size < statusLength || 8 + size > reply.length) {
+                throw new IOException(String.format("Malformed response to command 0x%02X", op));
+            }
+            int status = reply[8 + size - statusLength] & 0xFF;
+            if (status != 0) {
+                throw new IOException(String.format("Command 0x%02X failed with error 0x%02X", op, reply[8 + size - statusLength + 1] & 0xFF));
+            }
+            return new Response(value, Arrays.copyOfRange(reply, 8, 8 + size - statusLength));
+        }
+    }
+
+    /**
+     * @return the next SLIP packet, or null if none completed before the deadline
+     */
+    private byte[] readPacket(long deadlineNanos) throws IOException {
+        while (true) {
+            while (readPos < readLength) {
+                byte[] packet = decoder.feed(readBuffer[readPos++] & 0xFF);
+                if (packet != null) return packet;
+            }
+            if (System.nanoTime() - deadlineNanos >= 0) return null;
+            int n = port.readBytes(readBuffer, readBuffer.length);
+            if (n < 0) throw new IOException("Serial port closed: " + port.getSystemPortName());
+            readPos = 0;
+            readLength = n;
+        }
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            int n = port.writeBytes(bytes, bytes.length - offset, offset);
+            if (n < 0) throw new IOException("Write failed on " + port.getSystemPortName());
+            offset += n;
+        }
+    }
+
+    private void discardInput() {
+        port.flushIOBuffers();
+        readPos = 0;
+        readLength = 0;
+        decoder.reset();
+    }
+
+    @Override
+    public void close() {
+        if (port.isOpen()) port.closePort();
+    }
+
+    static int checksum(byte[] data) {
+        int sum = CHECKSUM_SEED;
+        for (byte b : data) sum ^= b & 0xFF;
+        return sum;
+    }
+
+    static byte[] padTo4(byte[] data) {
+        int padded = (data.length + 3) & ~3;
+        if (padded == data.length) return data;
+        byte[] out = Arrays.copyOf(data, padded);
+        Arrays.fill(out, data.length, padded, (byte) 0xFF);
+        return out;
+    }
+
+    static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte[] chunk = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] le(int... words) {
+        ByteBuffer out = ByteBuffer.allocate(words.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int w : words) out.putInt(w);
+        return out.array();
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] out = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, out, a.length, b.length);
+        return out;
+    }
+
+    private static long perMb(long millisPerMb, long bytes) {
+        return (long) (millisPerMb * (bytes / 1e6));
+    }
+
+    private static byte[] syncData() {
+        byte[] data = new byte[36];
+        data[0] = 0x07;
+        data[1] = 0x07;
+        data[2] = 0x12;
+        data[3] = 0x20;
+        Arrays.fill(data, 4, 36, (byte) 0x55);
+        return data;
+    }
+
+    private static void pause(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while resetting the chip", e);
+        }
+    }
+}
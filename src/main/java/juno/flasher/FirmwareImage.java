@@ -0,0 +1,155 @@
+package juno.flasher;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The binaries of one firmware build and where they go in flash: bootloader, partition
+ * table and app, as listed by ESP-IDF in {@code build/flasher_args.json}.
+ */
+public class FirmwareImage {
+
+    public static final int DEFAULT_FLASH_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * One binary and its flash offset.
+     */
+    public static final class Part {
+        private final int offset;
+        private final String name;
+        private final byte[] data;
+        private byte[] padded;
+        private byte[] deflated;
+
+        public Part(int offset, String name, byte[] data) {
+            if (offset % EspRomLoader.SECTOR_SIZE != 0) {
+                throw new IllegalArgumentException(String.format("%s offset 0x%X is not sector aligned", name, offset));
+            }
+            this.offset = offset;
+            this.name = name;
+            this.data = data;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * @return the data padded with 0xFF to a multiple of 4 bytes, as written to flash
+         */
+        public synchronized byte[] getPadded() {
+            if (padded == null) padded = EspRomLoader.padTo4(data);
+            return padded;
+        }
+
+        /**
+         * @return zlib stream of {@link #getPadded()}, compressed once and shared by every board
+         */
+        public synchronized byte[] getDeflated() {
+            if (deflated == null) deflated = EspRomLoader.deflate(getPadded());
+            return deflated;
+        }
+    }
+
+    private final List<Part> parts;
+    private final int flashSize;
+    private final boolean stubAllowed;
+
+    public FirmwareImage(List<Part> parts, int flashSize, boolean stubAllowed) {
+        this.parts = List.copyOf(parts);
+        this.flashSize = flashSize;
+        this.stubAllowed = stubAllowed;
+    }
+
+    /**
+     * Reads the images produced by {@code idf.py build} in the given project.
+     *
+     * @throws IOException if the project has not been built
+     */
+    public static FirmwareImage fromBuild(File projectDir) throws IOException {
+        Path buildDir = projectDir.toPath().resolve("build");
+        Path argsFile = buildDir.resolve("flasher_args.json");
+        if (!Files.isRegularFile(argsFile)) {
+            throw new IOException("No flasher_args.json in " + buildDir + "; build the project first");
+        }
+
+        JsonObject args;
+        try (Reader reader = Files.newBufferedReader(argsFile)) {
+            args = JsonParser.parseReader(reader).getAsJsonObject();
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid " + argsFile, e);
+        }
+
+        List<Part> parts = new ArrayList<>();
+        for (Map.Entry<String, JsonElement> file : args.getAsJsonObject("flash_files").entrySet()) {
+            Path binary = buildDir.resolve(file.getValue().getAsString());
+            parts.add(new Part(Integer.decode(file.getKey()), binary.getFileName().toString(), Files.readAllBytes(binary)));
+        }
+        parts.sort(Comparator.comparingInt(Part::getOffset));
+
+        int flashSize = DEFAULT_FLASH_SIZE;
+        JsonObject settings = args.getAsJsonObject("flash_settings");
+        if (settings != null && settings.has("flash_size")) {
+            flashSize = parseFlashSize(settings.get("flash_size").getAsString());
+        }
+        boolean stubAllowed = true;
+        JsonObject extra = args.getAsJsonObject("extra_esptool_args");
+        if (extra != null && extra.has("stub")) {
+            stubAllowed = extra.get("stub").getAsBoolean();
+        }
+        return new FirmwareImage(parts, flashSize, stubAllowed);
+    }
+
+    // "4MB" -> 4 MiB; "detect" and "keep" fall back to the default.
+    static int parseFlashSize(String size) {
+        String normalized = size.trim().toUpperCase(Locale.ROOT);
+        if (normalized.endsWith("MB")) {
+            try {
+                return Integer.parseInt(normalized.substring(0, normalized.length() - 2)) * 1024 * 1024;
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return DEFAULT_FLASH_SIZE;
+    }
+
+    public List<Part> getParts() {
+        return parts;
+    }
+
+    public int getFlashSize() {
+        return flashSize;
+    }
+
+    /**
+     * @return false if the project disabled the esptool stub (CONFIG_ESPTOOLPY_NO_STUB)
+     */
+    public boolean isStubAllowed() {
+        return stubAllowed;
+    }
+
+    public long getTotalBytes() {
+        long total = 0;
+        for (Part part : parts) total += part.data.length;
+        return total;
+    }
+}
@@ -0,0 +1,142 @@
+package juno.flasher;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import juno.logger.JunoLogger;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * Per-sector MD5s of what was last flashed to one board, keyed by its MAC address, so a
+ * differential flash can find changed sectors without hashing them on the device.
+ * <p>
+ * Entries are only hints: {@link EspFlasher} trusts one only after the device's MD5 of the whole
+ * region matches it, so a board reflashed by other tools is simply hashed on the device instead.
+ */
+public class FlashManifest {
+
+    /**
+     * Hashes of one flashed part.
+     */
+    public static final class Entry {
+        private final int size;
+        private final byte[] md5;
+        private final byte[][] sectorMd5s;
+
+        Entry(int size, byte[] md5, byte[][] sectorMd5s) {
+            this.size = size;
+            this.md5 = md5;
+            this.sectorMd5s = sectorMd5s;
+        }
+
+        /**
+         * Hashes a padded image: the whole of it, and each 4 KB sector (the last one may be shorter).
+         */
+        public static Entry of(byte[] image) {
+            int sectors = (image.length + EspRomLoader.SECTOR_SIZE - 1) / EspRomLoader.SECTOR_SIZE;
+            byte[][] sectorMd5s = new byte[sectors][];
+            for (int i = 0; i < sectors; i++) {
+                int from = i * EspRomLoader.SECTOR_SIZE;
+                sectorMd5s[i] = EspFlasher.md5(image, from, Math.min(EspRomLoader.SECTOR_SIZE, image.length - from));
+            }
+            return new Entry(image.length, EspFlasher.md5(image, 0, image.length), sectorMd5s);
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public byte[] getMd5() {
+            return md5;
+        }
+
+        public int getSectorCount() {
+            return sectorMd5s.length;
+        }
+
+        public byte[] getSectorMd5(int sector) {
+            return sectorMd5s[sector];
+        }
+    }
+
+    private final Path file;
+    private final Map<Integer, Entry> entries = new HashMap<>();
+
+    private FlashManifest(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the manifest for one board. A missing or unreadable file gives an empty manifest.
+     */
+    public static FlashManifest load(Path directory, String macAddress) {
+        FlashManifest manifest = new FlashManifest(directory.resolve(macAddress.replace(':', '-') + ".json"));
+        if (!Files.isRegularFile(manifest.file)) return manifest;
+
+        HexFormat hex = HexFormat.of();
+        try (Reader reader = Files.newBufferedReader(manifest.file)) {
+            JsonObject parts = JsonParser.parseReader(reader).getAsJsonObject().getAsJsonObject("parts");
+            for (Map.Entry<String, JsonElement> part : parts.entrySet()) {
+                JsonObject entry = part.getValue().getAsJsonObject();
+                JsonArray sectors = entry.getAsJsonArray("sectors");
+                byte[][] sectorMd5s = new byte[sectors.size()][];
+                for (int i = 0; i < sectorMd5s.length; i++) sectorMd5s[i] = hex.parseHex(sectors.get(i).getAsString());
+                manifest.entries.put(Integer.decode(part.getKey()),
+                        new Entry(entry.get("size").getAsInt(), hex.parseHex(entry.get("md5").getAsString()), sectorMd5s));
+            }
+        } catch (IOException | RuntimeException e) {
+            JunoLogger.warn("Ignoring unreadable flash manifest " + manifest.file + ": " + e.getMessage());
+            manifest.entries.clear();
+        }
+        return manifest;
+    }
+
+    /**
+     * @return hashes of what was flashed at the offset, or null if unknown
+     */
+    public Entry get(int offset) {
+        return entries.get(offset);
+    }
+
+    public void put(int offset, Entry entry) {
+        entries.put(offset, entry);
+    }
+
+    /**
+     * Writes the manifest atomically, creating its directory if needed.
+     */
+    public void save() throws IOException {
+        HexFormat hex = HexFormat.of();
+        JsonObject parts = new JsonObject();
+        for (Map.Entry<Integer, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            JsonObject json = new JsonObject();
+            json.addProperty("size", entry.size);
+            json.addProperty("md5", hex.formatHex(entry.md5));
+            JsonArray sectors = new JsonArray();
+            for (byte[] md5 : entry.sectorMd5s) sectors.add(hex.formatHex(md5));
+            json.add("sectors", sectors);
+            parts.add(String.format("0x%X", e.getKey()), json);
+        }
+        JsonObject root = new JsonObject();
+        root.add("parts", parts);
+
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(root, writer);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,241 @@
+package juno.flasher;
+
+import juno.logger.JunoLogger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Flashes one {@link FirmwareImage} to many boards at once with a shared {@link EspFlasher}.
+ * <p>
+ * At most {@link #setConcurrency(int)} ports are flashed at a time, each on its own virtual thread.
+ * A board that fails is retried on its own, after a short pause that frees its slot for the others,
+ * so one flaky cable never restarts the batch. The image is compressed once up front and shared.
+ */
+public class FleetFlasher {
+
+    public static final int DEFAULT_CONCURRENCY = 8;
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final long RETRY_PAUSE_MS = 1000;
+
+    /**
+     * Hears about each board as it starts, fails an attempt and finishes; called on the flashing threads.
+     * An exception thrown here is logged and never fails or retries a board.
+     */
+    public interface Listener {
+        default void onStart(String portName, int attempt) {
+        }
+
+        default void onAttemptFailed(String portName, int attempt, Exception error) {
+        }
+
+        default void onFinished(DeviceResult result) {
+        }
+    }
+
+    /**
+     * Outcome for one port after all its attempts.
+     */
+    public static final class DeviceResult {
+        private final String portName;
+        private final int attempts;
+        private final EspFlasher.Result result;
+        private final Exception error;
+        private final long elapsedNanos;
+
+        DeviceResult(String portName, int attempts, EspFlasher.Result result, Exception error, long elapsedNanos) {
+            this.portName = portName;
+            this.attempts = attempts;
+            this.result = result;
+            this.error = error;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public String getPortName() {
+            return portName;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public boolean isSuccess() {
+            return result != null;
+        }
+
+        /**
+         * @return the successful attempt's result, or null if every attempt failed
+         */
+        public EspFlasher.Result getResult() {
+            return result;
+        }
+
+        /**
+         * @return the last attempt's error, or null on success
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        /**
+         * @return time from the first attempt to the last, pauses between retries included
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            String outcome = isSuccess() ? "ok" : "FAILED (" + error.getMessage() + ")";
+            return String.format("%s: %s after %d attempt(s) in %.2f s", portName, outcome, attempts, elapsedNanos / 1e9);
+        }
+    }
+
+    /**
+     * Outcome of a whole batch, in the order the ports were given.
+     */
+    public static final class Report {
+        private final List<DeviceResult> devices;
+        private final long elapsedNanos;
+
+        Report(List<DeviceResult> devices, long elapsedNanos) {
+            this.devices = Collections.unmodifiableList(devices);
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public List<DeviceResult> getDevices() {
+            return devices;
+        }
+
+        public List<DeviceResult> getFailures() {
+            return devices.stream().filter(d -> !d.isSuccess()).toList();
+        }
+
+        public boolean isAllSucceeded() {
+            return getFailures().isEmpty();
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d/%d boards flashed in %.2f s",
+                    devices.size() - getFailures().size(), devices.size(), elapsedNanos / 1e9);
+        }
+    }
+
+    private final EspFlasher flasher;
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private Listener listener = new Listener() {
+    };
+
+    /**
+     * @param flasher settings used for every board; must not be reconfigured while a batch runs
+     */
+    public FleetFlasher(EspFlasher flasher) {
+        this.flasher = flasher;
+    }
+
+    /**
+     * @param concurrency boards flashed at the same time; USB hubs and host CPU set the useful limit
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) throw new IllegalArgumentException("Concurrency must be at least 1");
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * @param maxAttempts tries per board, the first one included
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) throw new IllegalArgumentException("Max attempts must be at least 1");
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Flashes the image to every port and waits for all of them. Failures are reported, not thrown.
+     */
+    public Report flash(List<String> portNames, FirmwareImage image) throws InterruptedException {
+        List<String> ports = new ArrayList<>(new LinkedHashSet<>(portNames));
+        // Compress once here instead of racing for it on the first threads.
+        for (FirmwareImage.Part part : image.getParts()) part.getDeflated();
+
+        long start = System.nanoTime();
+        Semaphore slots = new Semaphore(concurrency, true);
+        DeviceResult[] results = new DeviceResult[ports.size()];
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < ports.size(); i++) {
+                int index = i;
+                executor.submit(() -> {
+                    String portName = ports.get(index);
+                    try {
+                        results[index] = flashWithRetries(portName, image, slots);
+                    } catch (Throwable t) {
+                        // An Error or an interrupt still leaves a result for this board.
+                        Exception error = t instanceof Exception e ? e : new ExecutionException(t);
+                        results[index] = new DeviceResult(portName, 0, null, error, System.nanoTime() - start);
+                    }
+                });
+            }
+        }
+        if (Thread.interrupted()) throw new InterruptedException("Fleet flash interrupted");
+        return new Report(Arrays.asList(results), System.nanoTime() - start);
+    }
+
+    /**
+     * Flashes again only the boards that failed in an earlier report.
+     */
+    public Report retryFailures(Report report, FirmwareImage image) throws InterruptedException {
+        return flash(report.getFailures().stream().map(DeviceResult::getPortName).toList(), image);
+    }
+
+    private DeviceResult flashWithRetries(String portName, FirmwareImage image, Semaphore slots) throws InterruptedException {
+        long start = System.nanoTime();
+        Exception error = null;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            if (attempt > 1) Thread.sleep(RETRY_PAUSE_MS);
+            int current = attempt;
+            EspFlasher.Result result;
+            slots.acquire();
+            try {
+                notifyListener(() -> listener.onStart(portName, current));
+                result = flasher.flash(portName, image);
+            } catch (Exception e) {
+                error = e;
+                notifyListener(() -> listener.onAttemptFailed(portName, current, e));
+                continue;
+            } finally {
+                slots.release();
+            }
+            return finished(new DeviceResult(portName, attempt, result, null, System.nanoTime() - start));
+        }
+        return finished(new DeviceResult(portName, maxAttempts, null, error, System.nanoTime() - start));
+    }
+
+    private DeviceResult finished(DeviceResult result) {
+        notifyListener(() -> listener.onFinished(result));
+        return result;
+    }
+
+    private void notifyListener(Runnable call) {
+        try {
+            call.run();
+        } catch (RuntimeException e) {
+            JunoLogger.warn("Fleet flash listener failed: " + e.getMessage());
+        }
+    }
+}
@@ -1,15 +1,106 @@
 package juno.flasher;
 
+import juno.detector.JunoPaths;
 import juno.logger.JunoLogger;
 
 import java.io.*;
+import java.util.List;
 import java.util.Locale;
 
 public class JunoFlasher {
 
-    public void flashProject(File projectDir) throws IOException, InterruptedException {
+    /**
+     * Builds and flashes with the generated script and idf.py. Use {@link #buildProject(File)} for a build-only run.
+     */
+    public void flashProject(File projectDir, String portName) throws IOException, InterruptedException {
+        requirePort(portName);
+        runScript(projectDir, portName);
+        JunoLogger.success("Flashing finished successfully.");
+    }
+
+    /**
+     * Runs the generated build script without its idf.py flash step.
+     */
+    public void buildProject(File projectDir) throws IOException, InterruptedException {
+        runScript(projectDir, null);
+        JunoLogger.success("Build finished successfully.");
+    }
+
+    /**
+     * Flashes the firmware from an earlier {@link #buildProject(File)} in-process with {@link EspFlasher},
+     * without starting Python. Only sectors that changed since the last flash of the same board are written.
+     */
+    public EspFlasher.Result flashBuiltProject(File projectDir, String portName) throws IOException {
+        requirePort(portName);
+        FirmwareImage image = FirmwareImage.fromBuild(projectDir);
+        EspFlasher.Result result = createEspFlasher().flash(portName, image);
+        JunoLogger.success("Flashing finished: " + result);
+        return result;
+    }
+
+    /**
+     * Flashes the firmware from an earlier {@link #buildProject(File)} to every given port at once,
+     * at most {@code concurrency} at a time, retrying each failed board up to {@code maxAttempts} times.
+     */
+    public FleetFlasher.Report flashBuiltProjectToFleet(File projectDir, List<String> portNames, int concurrency, int maxAttempts)
+            throws IOException, InterruptedException {
+        FirmwareImage image = FirmwareImage.fromBuild(projectDir);
+        FleetFlasher fleet = new FleetFlasher(createEspFlasher());
+        fleet.setConcurrency(concurrency);
+        fleet.setMaxAttempts(maxAttempts);
+        fleet.setListener(new FleetFlasher.Listener() {
+            @Override
+            public void onStart(String portName, int attempt) {
+                if (attempt > 1) JunoLogger.info(String.format("Retrying %s (attempt %d of %d)", portName, attempt, maxAttempts));
+            }
+
+            @Override
+            public void onAttemptFailed(String portName, int attempt, Exception error) {
+                JunoLogger.warn(String.format("Attempt %d on %s failed: %s", attempt, portName, error.getMessage()));
+            }
+
+            @Override
+            public void onFinished(FleetFlasher.DeviceResult result) {
+                if (result.isSuccess()) {
+                    JunoLogger.success("Flashed " + result.getResult());
+                } else {
+                    JunoLogger.error("Gave up on " + result);
+                }
+            }
+        });
+
+        JunoLogger.info(String.format("Flashing %d board(s), %d at a time", portNames.size(), concurrency));
+        FleetFlasher.Report report = fleet.flash(portNames, image);
+        if (report.isAllSucceeded()) {
+            JunoLogger.success("Fleet flashing finished: " + report);
+        } else {
+            JunoLogger.error("Fleet flashing finished: " + report);
+        }
+        return report;
+    }
+
+    private static void requirePort(String portName) throws IOException {
+        if (portName == null || portName.isBlank()) {
+            throw new IOException("No ESP32 board detected; nothing to flash");
+        }
+    }
+
+    private static EspFlasher createEspFlasher() {
+        EspFlasher flasher = new EspFlasher();
+        EspFlasher.findIdfStub(JunoPaths.getIdfPath()).ifPresent(flasher::setStubFile);
+        flasher.setDifferential(true);
+        flasher.setManifestDir(new File(JunoPaths.getDotJunoDir(), "flash-manifests").toPath());
+        flasher.setProgressListener((port, part, written, total) -> {
+            if (written == total) JunoLogger.info(String.format("Wrote %s (%d bytes) to %s", part.getName(), total, port));
+        });
+        return flasher;
+    }
+
+    // Flashes to the port after building, or only builds if it is null.
+    private static void runScript(File projectDir, String flashPort) throws IOException, InterruptedException {
+        boolean buildOnly = flashPort == null;
         String os = System.getProperty("os.name").toLowerCase(Locale.ROOT);
-        ProcessBuilder pb = getProcessBuilder(projectDir, os);
+        ProcessBuilder pb = getProcessBuilder(projectDir, os, flashPort);
         Process process = pb.start();
 
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
@@ -19,13 +110,11 @@ public class JunoFlasher {
         int exitCode = process.waitFor();
 
         if (exitCode != 0) {
-            throw new RuntimeException("Flashing failed with exit code: " + exitCode);
-        } else {
-            JunoLogger.success("Flashing finished successfully.");
+            throw new RuntimeException((buildOnly ? "Build" : "Flashing") + " failed with exit code: " + exitCode);
         }
     }
 
-    private static ProcessBuilder getProcessBuilder(File projectDir, String os) throws FileNotFoundException {
+    private static ProcessBuilder getProcessBuilder(File projectDir, String os, String flashPort) throws FileNotFoundException {
         ProcessBuilder pb;
 
         if (os.contains("win")) {
@@ -44,6 +133,7 @@ public class JunoFlasher {
             pb.directory(projectDir);
         }
 
+        pb.command().add(flashPort == null ? "--no-flash" : flashPort);
         pb.redirectErrorStream(true);
         return pb;
     }
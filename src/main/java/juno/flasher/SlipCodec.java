@@ -0,0 +1,94 @@
+package juno.flasher;
+
+import java.util.Arrays;
+
+/**
+ * SLIP framing used by the ESP32 serial bootloader: every packet is wrapped in {@code 0xC0}
+ * bytes, with {@code 0xC0} and {@code 0xDB} inside the packet escaped as {@code 0xDB 0xDC}
+ * and {@code 0xDB 0xDD}.
+ */
+public final class SlipCodec {
+
+    public static final int END = 0xC0;
+    public static final int ESC = 0xDB;
+    public static final int ESC_END = 0xDC;
+    public static final int ESC_ESC = 0xDD;
+
+    private SlipCodec() {}
+
+    /**
+     * @return the packet with both delimiters
+     */
+    public static byte[] encode(byte[] packet) {
+        byte[] out = new byte[packet.length * 2 + 2];
+        int n = 0;
+        out[n++] = (byte) END;
+        for (byte b : packet) {
+            int v = b & 0xFF;
+            if (v == END) {
+                out[n++] = (byte) ESC;
+                out[n++] = (byte) ESC_END;
+            } else if (v == ESC) {
+                out[n++] = (byte) ESC;
+                out[n++] = (byte) ESC_ESC;
+            } else {
+                out[n++] = b;
+            }
+        }
+        out[n++] = (byte) END;
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * Reassembles packets from a byte stream. Bytes outside a packet, such as the ROM's boot
+     * messages, are skipped, and a packet with an invalid escape is dropped.
+     */
+    public static final class Decoder {
+        private byte[] buffer = new byte[1024];
+        private int length = 0;
+        private boolean inPacket = false;
+        private boolean escaped = false;
+
+        /**
+         * @return the packet completed by this byte, or null
+         */
+        public byte[] feed(int b) {
+            if (b == END) {
+                if (inPacket && length > 0 && !escaped) {
+                    inPacket = false;
+                    return Arrays.copyOf(buffer, length);
+                }
+                // Opening delimiter, or an empty/broken packet: start over.
+                inPacket = true;
+                length = 0;
+                escaped = false;
+                return null;
+            }
+            if (!inPacket) return null;
+
+            if (escaped) {
+                escaped = false;
+                if (b == ESC_END) {
+                    b = END;
+                } else if (b == ESC_ESC) {
+                    b = ESC;
+                } else {
+                    inPacket = false;
+                    return null;
+                }
+            } else if (b == ESC) {
+                escaped = true;
+                return null;
+            }
+            if (length == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            buffer[length++] = (byte) b;
+            return null;
+        }
+
+        public void reset() {
+            inPacket = false;
+            escaped = false;
+            length = 0;
+        }
+    }
+}
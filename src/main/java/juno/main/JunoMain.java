@@ -1,7 +1,6 @@
 package juno.main;
 
 import juno.builder.JunoBuilder;
-import juno.builder.OperationMode;
 import juno.builder.impl.LocalBuilder;
 
 
@@ -11,7 +10,7 @@ public class JunoMain {
 
         JunoBuilder builder = new LocalBuilder();
             builder.buildJuno();
-            builder.flashFirmware(OperationMode.LOCAL);
+            builder.flashFirmware();
 
     }
 }
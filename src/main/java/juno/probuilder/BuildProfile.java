@@ -0,0 +1,37 @@
+package juno.probuilder;
+
+/**
+ * Firmware build profiles. Each one maps to an sdkconfig fragment in the generated
+ * project's profiles/ directory and is selected per build with -DJUNO_PROFILE=&lt;id&gt;.
+ */
+public enum BuildProfile {
+
+    /** -Og, 160 MHz, DIO flash at 40 MHz, debug logging. For development only. */
+    DEBUG("debug"),
+    /** -Os, 240 MHz, DIO flash at 80 MHz, info logging. */
+    BALANCED("balanced"),
+    /** -O2, 240 MHz, QIO flash at 80 MHz, warnings only. */
+    PERFORMANCE("max-performance");
+
+    public static final BuildProfile DEFAULT = BALANCED;
+
+    private final String id;
+
+    BuildProfile(String id) {
+        this.id = id;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @throws IllegalArgumentException if no profile has the given id
+     */
+    public static BuildProfile fromId(String id) {
+        for (BuildProfile profile : values()) {
+            if (profile.id.equalsIgnoreCase(id.trim())) return profile;
+        }
+        throw new IllegalArgumentException("Unknown build profile: " + id + " (expected debug, balanced or max-performance)");
+    }
+}
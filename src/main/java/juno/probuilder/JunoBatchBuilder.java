@@ -11,26 +11,38 @@ import java.util.stream.Stream;
 
 public class JunoBatchBuilder {
 
-    private static final String IDF_PATH = JunoPaths.idfPath;
-    private static final String PYTHON_EXE_PATH = JunoPaths.pythonExecutablePath;
-    private static final String PATH = Stream.of(JunoPaths.xtensaGdbPath, JunoPaths.xtensaToolchainPath, JunoPaths.cMakePath, JunoPaths.openOcdBin, JunoPaths.ninjaPath, JunoPaths.idfPyPath, JunoPaths.cCacheBinPath, JunoPaths.dfuUtilBinPath, JunoPaths.pythonPath, JunoPaths.openOcdScriptsPath).filter(p -> p != null && !p.isBlank()).collect(Collectors.joining(";"));
-
-    private static final String OPENOCD_SCRIPTS = JunoPaths.openOcdScriptsPath;
-    private static final String GIT_PATH = JunoPaths.gitPath;
+    private static final String IDF_PATH = JunoPaths.getIdfPath();
+    private static final String PYTHON_EXE_PATH = JunoPaths.getPythonExecutablePath();
+    // Debug tools (GDB, OpenOCD, DFU util) are only added when already known, so a build never scans for them.
+    private static final String PATH = Stream.concat(
+                    Stream.of(JunoPaths.getXtensaToolchainPath(), JunoPaths.getCMakePath(), JunoPaths.getNinjaPath(), JunoPaths.getIdfPyPath(), JunoPaths.getCCacheBinPath(), JunoPaths.getPythonPath()),
+                    JunoPaths.getKnownDebugToolPaths().stream())
+            .filter(p -> p != null && !p.isBlank()).collect(Collectors.joining(";"));
+
+    private static final String OPENOCD_SCRIPTS = JunoPaths.peekOpenOcdScriptsPath();
+    private static final String GIT_PATH = JunoPaths.getGitPath();
+
+    public void writeBuildScripts(File projectDir) throws IOException {
+        writeBuildScripts(projectDir, BuildProfile.DEFAULT);
+    }
 
-    public void writeBuildScripts(File projectDir, String comPort) throws IOException {
+    /**
+     * Writes the build script. It takes the port to flash as its argument, or --no-flash to only build,
+     * so writing it never needs a board.
+     */
+    public void writeBuildScripts(File projectDir, BuildProfile profile) throws IOException {
         String osName = System.getProperty("os.name").toLowerCase();
 
         if (osName.contains("win")) {
-            writeBatchFile(projectDir, comPort);
+            writeBatchFile(projectDir, profile);
         } else if (osName.contains("mac") || osName.contains("nix") || osName.contains("nux")) {
-            writeBashScript(projectDir, comPort);
+            writeBashScript(projectDir, profile);
         } else {
             throw new UnsupportedOperationException("Unsupported OS for script generation: " + osName);
         }
     }
 
-    private void writeBatchFile(File projectDir, String comPort) throws IOException {
+    private void writeBatchFile(File projectDir, BuildProfile profile) throws IOException {
         File batchFile = new File(projectDir, "esp32_build_flash.bat");
 
         String batchContent = """
@@ -49,16 +61,27 @@ public class JunoBatchBuilder {
                 REM Move to project directory
                 cd /d "%s"
                 
-                echo 🚀 Building project...
-                call "%%PYTHON_EXE_PATH%%" "%%IDF_PATH%%\\tools\\idf.py" build
+                echo 🚀 Building project (%s profile)...
+                call "%%PYTHON_EXE_PATH%%" "%%IDF_PATH%%\\tools\\idf.py" -DJUNO_PROFILE=%s build
                 if errorlevel 1 (
                     echo ❌ Build failed! Exiting...
                     pause
                     exit /b 1
                 )
                 
-                echo 📦 Flashing firmware to %s...
-                call "%%PYTHON_EXE_PATH%%" "%%IDF_PATH%%\\tools\\idf.py" -p %s flash
+                REM --no-flash: build only, the JVM flashes the image itself
+                if /i "%%~1"=="--no-flash" (
+                    echo ✅ Build completed.
+                    exit /b 0
+                )
+                
+                if "%%~1"=="" (
+                    echo ❌ No serial port given! Usage: esp32_build_flash.bat ^<port^> ^| --no-flash
+                    exit /b 1
+                )
+                
+                echo 📦 Flashing firmware to %%~1...
+                call "%%PYTHON_EXE_PATH%%" "%%IDF_PATH%%\\tools\\idf.py" -DJUNO_PROFILE=%s -p %%~1 flash
                 if errorlevel 1 (
                     echo ❌ Flash failed! Exiting...
                     pause
@@ -72,8 +95,9 @@ public class JunoBatchBuilder {
                 GIT_PATH,              // %s → set "GIT_PATH=..."
                 PATH,                  // %s → set "PATH=..."
                 projectDir.getAbsolutePath(), // %s → cd /d "..."
-                comPort,               // %s → flash to COMx
-                comPort);
+                profile.getId(),       // %s → building (... profile)
+                profile.getId(),       // %s → -DJUNO_PROFILE=... build
+                profile.getId());      // %s → -DJUNO_PROFILE=... flash
         try (FileWriter writer = new FileWriter(batchFile)) {
             writer.write(batchContent);
         }
@@ -82,7 +106,7 @@ public class JunoBatchBuilder {
 
     }
 
-    private void writeBashScript(File projectDir, String comPort) throws IOException {
+    private void writeBashScript(File projectDir, BuildProfile profile) throws IOException {
         File bashFile = new File(projectDir, "esp32_build_flash.sh");
 
         String bashContent = """
@@ -110,16 +134,27 @@ public class JunoBatchBuilder {
                 fi
                 
                 # === Build the project ===
-                echo "🔨 Building project..."
-                "$PYTHON_EXE_PATH" "$IDF_PATH/tools/idf.py" build
+                echo "🔨 Building project (%s profile)..."
+                "$PYTHON_EXE_PATH" "$IDF_PATH/tools/idf.py" -DJUNO_PROFILE=%s build
                 if [ $? -ne 0 ]; then
                     echo "❌ Build failed! Exiting..."
                     exit 1
                 fi
                 
+                # --no-flash: build only, the JVM flashes the image itself
+                if [ "$1" = "--no-flash" ]; then
+                    echo "✅ Build completed."
+                    exit 0
+                fi
+                
+                if [ -z "$1" ]; then
+                    echo "❌ No serial port given! Usage: esp32_build_flash.sh <port> | --no-flash"
+                    exit 1
+                fi
+                
                 # === Flash the project ===
-                echo "🚀 Flashing project to %s..."
-                "$PYTHON_EXE_PATH" "$IDF_PATH/tools/idf.py" -p "%s" flash
+                echo "🚀 Flashing project to $1..."
+                "$PYTHON_EXE_PATH" "$IDF_PATH/tools/idf.py" -DJUNO_PROFILE=%s -p "$1" flash
                 if [ $? -ne 0 ]; then
                     echo "❌ Flash failed! Exiting..."
                     exit 1
@@ -128,7 +163,8 @@ public class JunoBatchBuilder {
                 
                 # === Done ===
                 echo "✅ Operation completed."
-                """.formatted(IDF_PATH, OPENOCD_SCRIPTS, PYTHON_EXE_PATH, GIT_PATH, PATH, projectDir.getAbsolutePath(), comPort, comPort, comPort);
+                """.formatted(IDF_PATH, OPENOCD_SCRIPTS, PYTHON_EXE_PATH, GIT_PATH, PATH, projectDir.getAbsolutePath(),
+                profile.getId(), profile.getId(), profile.getId());
 
         try (FileWriter writer = new FileWriter(bashFile)) {
             writer.write(bashContent);
@@ -2,6 +2,7 @@ package juno.probuilder;
 
 import juno.detector.JunoPaths;
 import juno.logger.JunoLogger;
+import juno.serial.FrameCodec;
 
 import java.io.File;
 import java.io.IOException;
@@ -14,17 +15,29 @@ public class JunoProjectCreator {
     private static String PROJECT_DIR = "Null Project";
 
     public static File createProject() throws IOException {
+        return createProject(BuildProfile.DEFAULT);
+    }
+
+    /**
+     * @param defaultProfile profile used when a build does not pass -DJUNO_PROFILE
+     */
+    public static File createProject(BuildProfile defaultProfile) throws IOException {
         File projectDir = JunoPaths.getProjectDir("ESP32Project");
         JunoProjectCreator.PROJECT_DIR = projectDir.getAbsolutePath();
         Path mainDir = projectDir.toPath().resolve("main");
         Files.createDirectories(mainDir);
+        Files.createDirectories(projectDir.toPath().resolve("profiles"));
         JunoLogger.info("Created project directory: " + projectDir.getAbsolutePath());
-        writeFiles();
+        writeFiles(defaultProfile);
         return projectDir;
     }
 
-    private static void writeFiles() throws IOException {
-        writeTextFile(PROJECT_DIR + "\\CMakeLists.txt", cmakeListsTxtContent());
+    private static void writeFiles(BuildProfile defaultProfile) throws IOException {
+        writeTextFile(PROJECT_DIR + "\\CMakeLists.txt", cmakeListsTxtContent(defaultProfile));
+        writeTextFile(PROJECT_DIR + "\\sdkconfig.defaults", sdkconfigDefaultsContent());
+        for (BuildProfile profile : BuildProfile.values()) {
+            writeTextFile(PROJECT_DIR + "\\profiles\\sdkconfig." + profile.getId(), profileContent(profile));
+        }
         writeTextFile(PROJECT_DIR + "\\LICENSE", licenseContent());
         writeTextFile(PROJECT_DIR + "\\README.md", readmeContent());
         writeTextFile(PROJECT_DIR + "\\.clangd", clangdContent());
@@ -37,6 +50,10 @@ public class JunoProjectCreator {
         writeTextFile(PROJECT_DIR + "\\main\\Kconfig.projbuild", kconfigProjbuildContent());
         writeTextFile(PROJECT_DIR + "\\main\\juno_serial.h", junoSerialHeaderfile());
         writeTextFile(PROJECT_DIR + "\\main\\juno_serial.c", junoSerialSourceFile());
+        writeTextFile(PROJECT_DIR + "\\main\\juno_runtime.h", junoRuntimeHeaderFile());
+        writeTextFile(PROJECT_DIR + "\\main\\juno_runtime.c", junoRuntimeSourceFile());
+        writeTextFile(PROJECT_DIR + "\\main\\juno_telemetry.h", junoTelemetryHeaderFile());
+        writeTextFile(PROJECT_DIR + "\\main\\juno_telemetry.c", junoTelemetrySourceFile());
         writeTextFile(PROJECT_DIR + "\\main\\main.c", mainCContent());
 
         JunoLogger.info("Created all project files.");
@@ -47,14 +64,75 @@ public class JunoProjectCreator {
         JunoLogger.success("Created: " + path);
     }
 
-    private static String cmakeListsTxtContent() {
+    private static String cmakeListsTxtContent(BuildProfile defaultProfile) {
         return """
                 cmake_minimum_required(VERSION 3.16)
+                
+                # Build profile: debug, balanced or max-performance, e.g. idf.py -DJUNO_PROFILE=max-performance build
+                set(JUNO_PROFILE "%s" CACHE STRING "JUNO build profile")
+                if(NOT EXISTS "${CMAKE_CURRENT_LIST_DIR}/profiles/sdkconfig.${JUNO_PROFILE}")
+                    message(FATAL_ERROR "Unknown JUNO_PROFILE '${JUNO_PROFILE}' (expected debug, balanced or max-performance)")
+                endif()
+                # One sdkconfig per profile, so switching profiles never reuses another profile's settings
+                set(SDKCONFIG "${CMAKE_CURRENT_LIST_DIR}/sdkconfig.${JUNO_PROFILE}")
+                set(SDKCONFIG_DEFAULTS "sdkconfig.defaults;profiles/sdkconfig.${JUNO_PROFILE}")
+                
                 include($ENV{IDF_PATH}/tools/cmake/project.cmake)
                 project(ESP32Project)
+                """.formatted(defaultProfile.getId());
+    }
+
+    private static String sdkconfigDefaultsContent() {
+        return """
+                # Settings shared by every JUNO build profile; see profiles/ for the rest.
+                
+                # 1 ms ticks so loop() periods below 10 ms are honoured
+                CONFIG_FREERTOS_HZ=1000
                 """;
     }
 
+    private static String profileContent(BuildProfile profile) {
+        switch (profile) {
+            case DEBUG:
+                return """
+                        # JUNO debug profile: quick to debug, not for shipping
+                        CONFIG_JUNO_PROFILE_DEBUG=y
+                        CONFIG_COMPILER_OPTIMIZATION_DEBUG=y
+                        CONFIG_COMPILER_OPTIMIZATION_ASSERTIONS_ENABLE=y
+                        CONFIG_ESP_DEFAULT_CPU_FREQ_MHZ_160=y
+                        CONFIG_ESPTOOLPY_FLASHMODE_DIO=y
+                        CONFIG_ESPTOOLPY_FLASHFREQ_40M=y
+                        CONFIG_LOG_DEFAULT_LEVEL_DEBUG=y
+                        """;
+            case BALANCED:
+                return """
+                        # JUNO balanced profile: full clock, compact code, info logging
+                        CONFIG_JUNO_PROFILE_BALANCED=y
+                        CONFIG_COMPILER_OPTIMIZATION_SIZE=y
+                        CONFIG_COMPILER_OPTIMIZATION_ASSERTIONS_ENABLE=y
+                        CONFIG_ESP_DEFAULT_CPU_FREQ_MHZ_240=y
+                        CONFIG_ESPTOOLPY_FLASHMODE_DIO=y
+                        CONFIG_ESPTOOLPY_FLASHFREQ_80M=y
+                        CONFIG_LOG_DEFAULT_LEVEL_INFO=y
+                        """;
+            case PERFORMANCE:
+                return """
+                        # JUNO max-performance profile: fastest code and flash access, warnings only.
+                        # QIO needs a flash chip with quad I/O (standard on ESP32-WROOM-32 modules).
+                        CONFIG_JUNO_PROFILE_MAX_PERFORMANCE=y
+                        CONFIG_COMPILER_OPTIMIZATION_PERF=y
+                        CONFIG_COMPILER_OPTIMIZATION_ASSERTIONS_SILENT=y
+                        CONFIG_ESP_DEFAULT_CPU_FREQ_MHZ_240=y
+                        CONFIG_ESPTOOLPY_FLASHMODE_QIO=y
+                        CONFIG_ESPTOOLPY_FLASHFREQ_80M=y
+                        CONFIG_LOG_DEFAULT_LEVEL_WARN=y
+                        CONFIG_BOOTLOADER_LOG_LEVEL_WARN=y
+                        """;
+            default:
+                throw new IllegalArgumentException("Unhandled build profile: " + profile);
+        }
+    }
+
     private static String licenseContent() {
         return "/* MIT License - Example */\n";
     }
@@ -87,8 +165,12 @@ public class JunoProjectCreator {
                 # Ignore build output folder
                 /build/
                 
-                # Ignore SDK config file
+                # Ignore SDK config files (one per build profile)
                 /sdkconfig
+                /sdkconfig.old
+                /sdkconfig.debug
+                /sdkconfig.balanced
+                /sdkconfig.max-performance
                 
                 # Ignore Eclipse project files (if used)
                 .cproject
@@ -118,13 +200,104 @@ public class JunoProjectCreator {
 
     private static String mainCMakeListsTxtContent() {
         return """
-                idf_component_register(SRCS "main.c" juno_serial.c
+                idf_component_register(SRCS "main.c" juno_serial.c juno_runtime.c juno_telemetry.c
                                        INCLUDE_DIRS "")
                 """;
     }
 
     private static String kconfigProjbuildContent() {
-        return "# Minimal Kconfig.projbuild\n";
+        return """
+                menu "Juno"
+                
+                    config JUNO_MAX_BAUD
+                        int "Highest UART baud rate the host may negotiate"
+                        range 115200 5000000
+                        default 921600
+                        help
+                            The link always starts at 115200. The host may ask to switch to a
+                            faster rate up to this value; the device falls back to 115200 if
+                            the faster rate cannot be verified.
+                
+                    config JUNO_UART_TX_BUFFER_SIZE
+                        int "UART transmit buffer size (bytes)"
+                        range 0 65536
+                        default 4096
+                        help
+                            juno_serial_write() copies output into this ring buffer and returns
+                            while the UART drains it in the background; it only waits when the
+                            buffer is full. Must be 0 or larger than the 128-byte hardware FIFO.
+                            0 makes every write wait until its bytes reach the FIFO.
+                
+                    config JUNO_UART_RX_BUFFER_SIZE
+                        int "UART receive buffer size (bytes)"
+                        range 256 65536
+                        default 1024
+                        help
+                            Input the driver holds until juno_serial_read() collects it. Raise it
+                            when the host pipelines many commands or sends large frames.
+                
+                    config JUNO_LOOP_PERIOD_MS
+                        int "loop() period (ms)"
+                        range 1 60000
+                        default 10
+                        help
+                            loop() starts on a fixed grid with this spacing, measured from the
+                            previous start. Rounded to whole FreeRTOS ticks.
+                
+                    config JUNO_LOOP_PRIORITY
+                        int "loop() task priority"
+                        range 1 24
+                        default 5
+                
+                    config JUNO_LOOP_STACK_SIZE
+                        int "loop() task stack size (bytes)"
+                        range 2048 65536
+                        default 4096
+                
+                    choice JUNO_LOOP_CORE
+                        prompt "Core for the loop() task"
+                        default JUNO_LOOP_CORE_1
+                
+                        config JUNO_LOOP_CORE_ANY
+                            bool "No affinity"
+                        config JUNO_LOOP_CORE_0
+                            bool "Core 0 (shared with Wi-Fi/BT)"
+                        config JUNO_LOOP_CORE_1
+                            bool "Core 1"
+                            depends on !FREERTOS_UNICORE
+                    endchoice
+                
+                    config JUNO_TELEMETRY
+                        bool "Send loop timing telemetry to the host"
+                        default n
+                        help
+                            Records every loop() duration and start jitter, and periodically sends a
+                            summary with free heap and stack high-water marks on the telemetry
+                            channel. JunoDevice.enableLoopTelemetry() aggregates the summaries.
+                
+                    config JUNO_TELEMETRY_INTERVAL_MS
+                        int "Telemetry summary interval (ms)"
+                        depends on JUNO_TELEMETRY
+                        range 100 60000
+                        default 1000
+                
+                    choice JUNO_PROFILE
+                        prompt "Build profile"
+                        default JUNO_PROFILE_BALANCED
+                        help
+                            Records which profiles/sdkconfig.<name> fragment the build used; pick the
+                            profile with idf.py -DJUNO_PROFILE=<name> build rather than here.
+                
+                        config JUNO_PROFILE_DEBUG
+                            bool "debug"
+                        config JUNO_PROFILE_BALANCED
+                            bool "balanced"
+                        config JUNO_PROFILE_MAX_PERFORMANCE
+                            bool "max-performance"
+                    endchoice
+                
+                endmenu
+                """;
     }
 
     private static String junoSerialHeaderfile() {
@@ -132,6 +305,9 @@ public class JunoProjectCreator {
                  #ifndef JUNO_SERIAL_H
                   #define JUNO_SERIAL_H
                   \s
+                  #include <stddef.h>
+                  #include <stdint.h>
+                  \s
                   /**
                    * @brief Initializing UART0.
                    * @return Pointer to a static null-terminated string. Overwritten on next call.
@@ -140,57 +316,425 @@ public class JunoProjectCreator {
                 
                   /**
                    * @brief Reads a line from UART0.
+                   * In pipelined mode ("juno_pipe <n>" from the host) commands arrive as
+                   * "@<seq> <command>"; the sequence prefix is stripped, acknowledged, and
+                   * added to every juno_serial_write() until the next command.
                    * @return Pointer to a static null-terminated string. Overwritten on next call.
                    */
                   const char *juno_serial_read();
                 
+                  /**
+                   * @brief Like juno_serial_read(), but returns NULL if no complete line arrives
+                   * within timeout_ms; 0 only collects what is already buffered. A partly received
+                   * line is kept for the next call. Use it in loop() so the loop keeps its period.
+                   */
+                  const char *juno_serial_try_read(uint32_t timeout_ms);
+                
                   /**
                    * @brief Sends a null-terminated string to UART0.
                    */
                   void juno_serial_write(const char *message);
                 
+                  /**
+                   * @brief Waits until all queued output has left the UART, e.g. before deep sleep.
+                   * juno_serial_write() itself returns as soon as the message is buffered.
+                   */
+                  void juno_serial_flush(void);
+                
+                  #define JUNO_FRAME_MAX_PAYLOAD %d
+                
+                  /**
+                   * @brief Sends a binary frame to the host alongside text output.
+                   * Wire format: 0x00, COBS(type, len_lo, len_hi, payload, crc_lo, crc_hi), 0x00.
+                   * The CRC is CRC-16/CCITT-FALSE over type, length and payload.
+                   */
+                  void juno_serial_write_frame(uint8_t type, const void *payload, size_t len);
+                
+                  /**
+                   * @brief Called from juno_serial_read() or juno_serial_try_read() for each valid
+                   * frame from the host. Weak no-op by default; define it in the sketch to receive frames.
+                   */
+                  void juno_serial_on_frame(uint8_t type, const uint8_t *payload, size_t len);
+                
+                  // Logical channels, carried in frames of type JUNO_FRAME_TYPE_CHANNEL_BASE + channel
+                  #define JUNO_FRAME_TYPE_CHANNEL_BASE 0xF0
+                  #define JUNO_CHANNEL_COMMAND 0
+                  #define JUNO_CHANNEL_LOG 1
+                  #define JUNO_CHANNEL_TELEMETRY 2
+                
+                  /**
+                   * @brief Sends data on a logical channel, e.g. JUNO_CHANNEL_TELEMETRY.
+                   */
+                  void juno_serial_send(uint8_t channel, const void *data, size_t len);
+                
+                  /**
+                   * @brief Called for each channel frame from the host. Weak no-op by default.
+                   */
+                  void juno_serial_on_channel(uint8_t channel, const uint8_t *data, size_t len);
+                
+                  /**
+                   * @brief Sends ESP-IDF log output on JUNO_CHANNEL_LOG instead of plain text.
+                   * Done automatically when the host sends "juno_mux".
+                   */
+                  void juno_serial_route_logs(void);
+                
                   #endif // JUNO_SERIAL_H
                 
-                """;
+                """.formatted(FrameCodec.MAX_PAYLOAD);
     }
 
     private static String junoSerialSourceFile() {
         return """
                 #include "juno_serial.h"
                 #include "driver/uart.h"
+                #include "esp_idf_version.h"
+                #include "esp_log.h"
                 #include "freertos/FreeRTOS.h"
+                #include "freertos/queue.h"
                 #include "freertos/task.h"
+                #include <stdarg.h>
+                #include <stdio.h>
+                #include <stdlib.h>
                 #include <string.h>
+                #if ESP_IDF_VERSION >= ESP_IDF_VERSION_VAL(5, 3, 0)
+                #include "driver/uart_vfs.h"
+                #else
+                #include "esp_vfs_dev.h"
+                #define uart_vfs_dev_use_driver esp_vfs_dev_uart_use_driver
+                #endif
                 
                 #define BUF_SIZE 512
                 #define UART_NUM UART_NUM_0              
                 
+                // Pipelined mode: the host may have this many commands in the RX buffer at once.
+                #define JUNO_PIPE_MAX_WINDOW 8
+                
+                #ifndef CONFIG_JUNO_MAX_BAUD
+                #define CONFIG_JUNO_MAX_BAUD 921600
+                #endif
+                #define JUNO_DEFAULT_BAUD 115200
+                #define JUNO_BAUD_VERIFY_MS 1500
+                
+                #ifndef CONFIG_JUNO_UART_TX_BUFFER_SIZE
+                #define CONFIG_JUNO_UART_TX_BUFFER_SIZE 4096
+                #endif
+                #ifndef CONFIG_JUNO_UART_RX_BUFFER_SIZE
+                #define CONFIG_JUNO_UART_RX_BUFFER_SIZE (BUF_SIZE * 2)
+                #endif
+                #if CONFIG_JUNO_UART_TX_BUFFER_SIZE > 0 && CONFIG_JUNO_UART_TX_BUFFER_SIZE <= 128
+                #error "CONFIG_JUNO_UART_TX_BUFFER_SIZE must be 0 or larger than the 128-byte UART FIFO"
+                #endif
+                
                 static char internal_buffer[BUF_SIZE];              
                 
-                bool juno_serial_read_line(char *out, size_t maxLen) {
-                    int index = 0;
-                    char c;
+                static bool pipelined = false;
+                static bool has_seq = false;
+                static unsigned long current_seq = 0;
+                
+                // UART driver events; pattern detection raises one for every '\\n' received
+                #define JUNO_UART_QUEUE_LEN 20
+                static QueueHandle_t uart_queue;
+                
+                // Bytes pulled from the driver but not parsed yet
+                static uint8_t rx_chunk[BUF_SIZE];
+                static size_t rx_len = 0;
+                static size_t rx_pos = 0;
+                // Rest of a detected line too long for rx_chunk, still in the driver buffer
+                static size_t rx_line_rest = 0;
+                
+                static void juno_serial_discard_input(void) {
+                    uart_flush_input(UART_NUM);
+                    xQueueReset(uart_queue);
+                    uart_pattern_queue_reset(UART_NUM, JUNO_UART_QUEUE_LEN);
+                    rx_len = rx_pos = rx_line_rest = 0;
+                }
+                
+                static bool juno_serial_take(size_t want) {
+                    if (want > BUF_SIZE) {
+                        rx_line_rest = want - BUF_SIZE;
+                        want = BUF_SIZE;
+                    }
+                    int len = uart_read_bytes(UART_NUM, rx_chunk, want, 0);
+                    if (len <= 0) return false;
+                    rx_len = (size_t)len;
+                    rx_pos = 0;
+                    return true;
+                }
+                
+                // Sleeps until the driver reports input, then pulls a whole line in one read.
+                // Input without a newline (binary frames, a partial line) is pulled as it arrives.
+                static bool juno_serial_fill(TickType_t timeout) {
+                    if (rx_line_rest > 0) {
+                        size_t rest = rx_line_rest;
+                        rx_line_rest = 0;
+                        if (juno_serial_take(rest)) return true;
+                    }
+                
+                    TickType_t start = xTaskGetTickCount();
                     while (true) {
-                        int len = uart_read_bytes(UART_NUM_0, (uint8_t *)&c, 1, 100 / portTICK_PERIOD_MS);
-                        if (len > 0) {
-                            if (c == '\\n') {
-                                out[index] = '\\0';
-                                return true;
+                        TickType_t wait = portMAX_DELAY;
+                        if (timeout != portMAX_DELAY) {
+                            TickType_t elapsed = xTaskGetTickCount() - start;
+                            // A zero timeout still polls the queue once
+                            if (elapsed > timeout) return false;
+                            wait = timeout - elapsed;
+                        }
+                
+                        uart_event_t event;
+                        if (xQueueReceive(uart_queue, &event, wait) != pdTRUE) return false;
+                
+                        switch (event.type) {
+                            case UART_PATTERN_DET: {
+                                int pos = uart_pattern_pop_pos(UART_NUM);
+                                if (pos >= 0) {
+                                    if (juno_serial_take((size_t)pos + 1)) return true;
+                                    break;
+                                }
+                                // Position queue overflowed; take what is buffered instead
+                                uart_pattern_queue_reset(UART_NUM, JUNO_UART_QUEUE_LEN);
                             }
-                            if (c != '\\r' && index < maxLen - 1) {
-                                out[index++] = c;
+                            // fall through
+                            case UART_DATA: {
+                                // Complete lines are left to their own pattern events
+                                if (uart_pattern_get_pos(UART_NUM) >= 0) break;
+                                size_t buffered = 0;
+                                uart_get_buffered_data_len(UART_NUM, &buffered);
+                                if (buffered > 0 && juno_serial_take(buffered)) return true;
+                                break;
                             }
+                            case UART_FIFO_OVF:
+                            case UART_BUFFER_FULL:
+                                juno_serial_discard_input();
+                                break;
+                            default:
+                                break;
                         }
                     }
                 }
                 
+                static bool juno_serial_next_byte(uint8_t *ch, TickType_t timeout) {
+                    if (rx_pos >= rx_len && !juno_serial_fill(timeout)) return false;
+                    *ch = rx_chunk[rx_pos++];
+                    return true;
+                }
+                
+                bool juno_serial_read_line(char *out, size_t maxLen) {
+                    size_t index = 0;
+                    uint8_t c;
+                    while (juno_serial_next_byte(&c, portMAX_DELAY)) {
+                        if (c == '\\n') {
+                            out[index] = '\\0';
+                            return true;
+                        }
+                        if (c != '\\r' && index < maxLen - 1) {
+                            out[index++] = c;
+                        }
+                    }
+                    return false;
+                }
+                
+                
+                // Raw frame: type + 2-byte length + payload + 2-byte CRC; COBS adds at most 1 byte per 254
+                #define JUNO_FRAME_MAX_RAW (JUNO_FRAME_MAX_PAYLOAD + 5)
+                #define JUNO_FRAME_MAX_ENCODED (JUNO_FRAME_MAX_RAW + JUNO_FRAME_MAX_RAW / 254 + 1)
+                
+                static uint16_t juno_crc16(const uint8_t *data, size_t len) {
+                    uint16_t crc = 0xFFFF;
+                    for (size_t i = 0; i < len; i++) {
+                        crc ^= (uint16_t)data[i] << 8;
+                        for (int bit = 0; bit < 8; bit++) {
+                            crc = (crc & 0x8000) ? (crc << 1) ^ 0x1021 : crc << 1;
+                        }
+                    }
+                    return crc;
+                }
+                
+                static size_t juno_cobs_encode(const uint8_t *src, size_t len, uint8_t *dst) {
+                    size_t code_index = 0;
+                    size_t write = 1;
+                    uint8_t code = 1;
+                    for (size_t i = 0; i < len; i++) {
+                        if (src[i] != 0) {
+                            dst[write++] = src[i];
+                            code++;
+                        }
+                        if (src[i] == 0 || code == 0xFF) {
+                            dst[code_index] = code;
+                            code = 1;
+                            code_index = write++;
+                        }
+                    }
+                    dst[code_index] = code;
+                    return write;
+                }
+                
+                // Returns the decoded length, or 0 if the input is not valid COBS or does not fit.
+                static size_t juno_cobs_decode(const uint8_t *src, size_t len, uint8_t *dst, size_t max) {
+                    size_t read = 0;
+                    size_t write = 0;
+                    while (read < len) {
+                        uint8_t code = src[read++];
+                        if (code == 0 || read + code - 1 > len) return 0;
+                        for (uint8_t i = 1; i < code; i++) {
+                            if (write >= max) return 0;
+                            dst[write++] = src[read++];
+                        }
+                        if (code != 0xFF && read < len) {
+                            if (write >= max) return 0;
+                            dst[write++] = 0;
+                        }
+                    }
+                    return write;
+                }
+                
+                void juno_serial_write_frame(uint8_t type, const void *payload, size_t len) {
+                    if (len > JUNO_FRAME_MAX_PAYLOAD) return;
+                
+                    uint8_t raw[JUNO_FRAME_MAX_RAW];
+                    raw[0] = type;
+                    raw[1] = (uint8_t)(len & 0xFF);
+                    raw[2] = (uint8_t)(len >> 8);
+                    if (len > 0) memcpy(raw + 3, payload, len);
+                    uint16_t crc = juno_crc16(raw, len + 3);
+                    raw[len + 3] = (uint8_t)(crc & 0xFF);
+                    raw[len + 4] = (uint8_t)(crc >> 8);
+                
+                    uint8_t encoded[JUNO_FRAME_MAX_ENCODED + 2];
+                    encoded[0] = 0;
+                    size_t end = 1 + juno_cobs_encode(raw, len + 5, encoded + 1);
+                    encoded[end++] = 0;
+                    uart_write_bytes(UART_NUM, encoded, end);
+                }
+                
+                __attribute__((weak)) void juno_serial_on_frame(uint8_t type, const uint8_t *payload, size_t len) {
+                    (void)type;
+                    (void)payload;
+                    (void)len;
+                }
+                
+                void juno_serial_send(uint8_t channel, const void *data, size_t len) {
+                    juno_serial_write_frame(JUNO_FRAME_TYPE_CHANNEL_BASE + channel, data, len);
+                }
+                
+                __attribute__((weak)) void juno_serial_on_channel(uint8_t channel, const uint8_t *data, size_t len) {
+                    (void)channel;
+                    (void)data;
+                    (void)len;
+                }
+                
+                static int juno_log_vprintf(const char *fmt, va_list args) {
+                    char line[JUNO_FRAME_MAX_PAYLOAD];
+                    int n = vsnprintf(line, sizeof(line), fmt, args);
+                    if (n <= 0) return n;
+                    size_t len = n < (int)sizeof(line) ? (size_t)n : sizeof(line) - 1;
+                    juno_serial_send(JUNO_CHANNEL_LOG, line, len);
+                    return n;
+                }
+                
+                void juno_serial_route_logs(void) {
+                    esp_log_set_vprintf(juno_log_vprintf);
+                }
+                
+                // Returns false if the body is not a valid frame.
+                static bool juno_serial_handle_frame(const uint8_t *body, size_t len) {
+                    uint8_t raw[JUNO_FRAME_MAX_RAW];
+                    size_t raw_len = juno_cobs_decode(body, len, raw, sizeof(raw));
+                    if (raw_len < 5) return false;
+                
+                    size_t payload_len = raw[1] | ((size_t)raw[2] << 8);
+                    if (payload_len != raw_len - 5) return false;
+                
+                    uint16_t crc = raw[raw_len - 2] | ((uint16_t)raw[raw_len - 1] << 8);
+                    if (juno_crc16(raw, raw_len - 2) != crc) return false;
+                
+                    if (raw[0] >= JUNO_FRAME_TYPE_CHANNEL_BASE) {
+                        juno_serial_on_channel(raw[0] - JUNO_FRAME_TYPE_CHANNEL_BASE, raw + 3, payload_len);
+                    } else {
+                        juno_serial_on_frame(raw[0], raw + 3, payload_len);
+                    }
+                    return true;
+                }
+                
+                // A body that failed to decode, read again as text before any new input
+                static uint8_t replay[JUNO_FRAME_MAX_ENCODED + 1];
+                static size_t replay_len = 0;
+                static size_t replay_pos = 0;
+                
+                static void juno_serial_replay(const uint8_t *body, size_t len, uint8_t last) {
+                    memcpy(replay, body, len);
+                    replay[len] = last;
+                    replay_len = len + 1;
+                    replay_pos = 0;
+                }
+                
+                static bool juno_serial_next_input(uint8_t *ch, TickType_t timeout) {
+                    if (replay_pos < replay_len) {
+                        *ch = replay[replay_pos++];
+                        return true;
+                    }
+                    return juno_serial_next_byte(ch, timeout);
+                }
+                
+                static bool juno_serial_read_line_timeout(char *out, size_t maxLen, TickType_t timeout) {
+                    size_t index = 0;
+                    TickType_t start = xTaskGetTickCount();
+                    TickType_t elapsed;
+                    while ((elapsed = xTaskGetTickCount() - start) < timeout) {
+                        uint8_t c;
+                        if (!juno_serial_next_byte(&c, timeout - elapsed)) break;
+                        if (c == '\\n') {
+                            out[index] = '\\0';
+                            return true;
+                        }
+                        if (c != '\\r' && index < maxLen - 1) {
+                            out[index++] = c;
+                        }
+                    }
+                    return false;
+                }
+                
+                // Switches to the requested rate, keeps it only if the host proves it can talk at it.
+                static void juno_serial_negotiate_baud(uint32_t requested) {
+                    char reply[48];
+                    if (requested <= JUNO_DEFAULT_BAUD || requested > CONFIG_JUNO_MAX_BAUD) {
+                        snprintf(reply, sizeof(reply), "juno_baud_no %d", CONFIG_JUNO_MAX_BAUD);
+                        juno_serial_write(reply);
+                        return;
+                    }
+                
+                    snprintf(reply, sizeof(reply), "juno_baud_ok %lu", (unsigned long)requested);
+                    juno_serial_write(reply);
+                    // Buffered output must leave at the old rate before switching
+                    juno_serial_flush();
+                    uart_set_baudrate(UART_NUM, requested);
+                    juno_serial_discard_input();
+                
+                    char line[32];
+                    TickType_t start = xTaskGetTickCount();
+                    TickType_t window = pdMS_TO_TICKS(JUNO_BAUD_VERIFY_MS);
+                    TickType_t elapsed;
+                    while ((elapsed = xTaskGetTickCount() - start) < window) {
+                        if (!juno_serial_read_line_timeout(line, sizeof(line), window - elapsed)) break;
+                        if (strcmp(line, "juno_baud_check") == 0) {
+                            juno_serial_write("juno_baud_confirmed");
+                        } else if (strcmp(line, "juno_baud_done") == 0) {
+                            juno_serial_write("juno_baud_committed");
+                            return;
+                        }
+                    }
+                
+                    // Unstable or host gave up: fall back to the default rate
+                    juno_serial_flush();
+                    uart_set_baudrate(UART_NUM, JUNO_DEFAULT_BAUD);
+                    juno_serial_discard_input();
+                }
                 
                 void juno_serial_init() {                \s
                     static bool initialized = false;
                     if (initialized) return;
                 
                     uart_config_t uart_config = {
-                        .baud_rate = 115200,
+                        .baud_rate = JUNO_DEFAULT_BAUD,
                         .data_bits = UART_DATA_8_BITS,
                         .parity = UART_PARITY_DISABLE,
                         .stop_bits = UART_STOP_BITS_1,
@@ -200,7 +744,15 @@ public class JunoProjectCreator {
                     uart_param_config(UART_NUM_0, &uart_config);
                     uart_set_pin(UART_NUM_0, UART_PIN_NO_CHANGE, UART_PIN_NO_CHANGE,
                                  UART_PIN_NO_CHANGE, UART_PIN_NO_CHANGE);
-                    uart_driver_install(UART_NUM_0, BUF_SIZE * 2, 0, 0, NULL, 0);
+                    // With a TX ring buffer, writes return once copied and the driver drains them
+                    uart_driver_install(UART_NUM_0, CONFIG_JUNO_UART_RX_BUFFER_SIZE, CONFIG_JUNO_UART_TX_BUFFER_SIZE,
+                                        JUNO_UART_QUEUE_LEN, &uart_queue, 0);
+                    // Route printf/ESP_LOG through the driver too; writing straight to the FIFO
+                    // they could land in the middle of a line or frame queued in the TX buffer
+                    uart_vfs_dev_use_driver(UART_NUM_0);
+                    // Interrupt on each '\\n' so the task sleeps until a whole line is buffered
+                    uart_enable_pattern_det_baud_intr(UART_NUM, '\\n', 1, 9, 0, 0);
+                    uart_pattern_queue_reset(UART_NUM, JUNO_UART_QUEUE_LEN);
                 
                     // Block here until "flash" is received
                     char buffer[64];
@@ -209,7 +761,6 @@ public class JunoProjectCreator {
                             if (strcmp(buffer, "flash") == 0) {
                                
                                 uart_write_bytes(UART_NUM_0, "thunder\\n", strlen("thunder\\n"));
-                                uart_wait_tx_done(UART_NUM_0, pdMS_TO_TICKS(50));
                                 break;
                             }
                         }
@@ -218,78 +769,487 @@ public class JunoProjectCreator {
                     initialized = true;
                 }
                 
-                const char* juno_serial_read() {
+                // Returns NULL on timeout; a partly received line is kept for the next call.
+                static const char *juno_serial_read_within(TickType_t timeout) {
                     static char buffer[BUF_SIZE];
                     static int index = 0;
+                    // The host sends one command per prompt, so prompt again only after a line
+                    static bool prompted = false;
+                
+                    // Send "ready" to host to indicate ESP32 is ready for a command.
+                    // In pipelined mode the host streams commands and needs no prompt.
+                    if (!pipelined && !prompted) {
+                        uart_write_bytes(UART_NUM, "juno_read\\n", strlen("juno_read\\n"));
+                        prompted = true;
+                    }
                 
-                    // Send "ready" to host to indicate ESP32 is ready for a command
-                   
-                    uart_write_bytes(UART_NUM, "juno_read\\n", strlen("juno_read\\n"));
-                     uart_wait_tx_done(UART_NUM, pdMS_TO_TICKS(50));
+                    // Binary frame being received; -1 while reading text
+                    static uint8_t frame_body[JUNO_FRAME_MAX_ENCODED];
+                    static int frame_len = -1;
                 
+                    TickType_t start = xTaskGetTickCount();
                     while (1) {
                         uint8_t ch;
-                        int len = uart_read_bytes(UART_NUM_0, &ch, 1, portMAX_DELAY); // wait forever
+                        TickType_t wait = portMAX_DELAY;
+                        if (timeout != portMAX_DELAY) {
+                            TickType_t elapsed = xTaskGetTickCount() - start;
+                            if (elapsed > timeout) return NULL;
+                            wait = timeout - elapsed;
+                        }
+                        if (juno_serial_next_input(&ch, wait)) {
+                            // 0x00 delimits frames; consecutive zeros collapse into one delimiter
+                            if (ch == 0) {
+                                if (frame_len > 0) {
+                                    if (!juno_serial_handle_frame(frame_body, frame_len)) {
+                                        // Most likely text read out of phase after a lost delimiter:
+                                        // read it again as text and let this zero open the next frame
+                                        juno_serial_replay(frame_body, frame_len, 0);
+                                    }
+                                    frame_len = -1;
+                                } else {
+                                    frame_len = 0;
+                                }
+                                continue;
+                            }
+                            if (frame_len >= 0) {
+                                if (frame_len < (int)sizeof(frame_body)) {
+                                    frame_body[frame_len++] = ch;
+                                } else {
+                                    // Oversized, so not a frame: read it again as text
+                                    juno_serial_replay(frame_body, frame_len, ch);
+                                    frame_len = -1;
+                                }
+                                continue;
+                            }
                 
-                        if (len > 0) {
                             if (ch == '\\r') continue; // skip CR
                 
                             if (ch == '\\n') {
                                 buffer[index] = '\\0';
                                 index = 0;
+                                prompted = false;
                 
                                 // Handle internal JUNO command
                                 if (strcmp(buffer, "flash") == 0) {
+                                    has_seq = false;
                                     juno_serial_write("thunder");
                                     return NULL; // Skip this one, ask for next
                                 }
                 
+                                // Host asks for a faster link: "juno_baud <rate>"
+                                if (strncmp(buffer, "juno_baud ", 10) == 0) {
+                                    has_seq = false;
+                                    juno_serial_negotiate_baud(strtoul(buffer + 10, NULL, 10));
+                                    return NULL;
+                                }
+                
+                                // Host reads logs on their own channel from now on
+                                if (strcmp(buffer, "juno_mux") == 0) {
+                                    has_seq = false;
+                                    juno_serial_route_logs();
+                                    juno_serial_write("juno_mux_ok");
+                                    return NULL;
+                                }
+                
+                                // Host asks to stream commands without waiting for prompts
+                                if (strncmp(buffer, "juno_pipe ", 10) == 0) {
+                                    int window = atoi(buffer + 10);
+                                    if (window < 1) window = 1;
+                                    if (window > JUNO_PIPE_MAX_WINDOW) window = JUNO_PIPE_MAX_WINDOW;
+                                    char reply[32];
+                                    snprintf(reply, sizeof(reply), "juno_pipe_ok %d", window);
+                                    juno_serial_write(reply);
+                                    pipelined = true;
+                                    return NULL;
+                                }
+                
+                                // "@<seq> <command>": acknowledge and tag replies with <seq>
+                                if (pipelined && buffer[0] == '@') {
+                                    char *payload = NULL;
+                                    current_seq = strtoul(buffer + 1, &payload, 10);
+                                    has_seq = false;
+                                    char ack[32];
+                                    snprintf(ack, sizeof(ack), "#ack %lu", current_seq);
+                                    juno_serial_write(ack);
+                                    has_seq = true;
+                                    return (payload && *payload == ' ') ? payload + 1 : payload;
+                                }
+                
                                 return buffer;
                             }
                 
                             if (index < BUF_SIZE - 1) {
                                 buffer[index++] = ch;
                             }
+                        } else if (timeout != portMAX_DELAY) {
+                            return NULL;
                         }
                     }
                 }
                 
+                const char *juno_serial_read() {
+                    return juno_serial_read_within(portMAX_DELAY);
+                }
+                
+                const char *juno_serial_try_read(uint32_t timeout_ms) {
+                    return juno_serial_read_within(pdMS_TO_TICKS(timeout_ms));
+                }
                 
+                
+                // Copies the line into the driver's TX buffer and returns without waiting for the UART.
                 void juno_serial_write(const char *message) {
-                    if (message && strlen(message) > 0) {
-                        char buffer[512];  // Adjust size as needed
-                        snprintf(buffer, sizeof(buffer), "%s\\n", message);
-                      
-                        uart_write_bytes(UART_NUM, buffer, strlen(buffer));
-                        uart_wait_tx_done(UART_NUM, pdMS_TO_TICKS(50));
+                    if (!message || message[0] == '\\0') return;
+                
+                    char buffer[BUF_SIZE];
+                    int n;
+                    if (pipelined && has_seq) {
+                        n = snprintf(buffer, sizeof(buffer), "@%lu %s\\n", current_seq, message);
+                    } else {
+                        n = snprintf(buffer, sizeof(buffer), "%s\\n", message);
+                    }
+                    if (n < 0) return;
+                
+                    // One driver call keeps the line whole when other tasks write too
+                    if ((size_t)n < sizeof(buffer)) {
+                        uart_write_bytes(UART_NUM, buffer, n);
+                        return;
+                    }
+                
+                    // Longer than the buffer: send prefix, message and newline separately instead of truncating
+                    size_t len = strlen(message);
+                    size_t prefix_len = (size_t)n - len - 1;
+                    if (prefix_len > 0) uart_write_bytes(UART_NUM, buffer, prefix_len);
+                    uart_write_bytes(UART_NUM, message, len);
+                    uart_write_bytes(UART_NUM, "\\n", 1);
+                }
+                
+                void juno_serial_flush(void) {
+                    uart_wait_tx_done(UART_NUM, portMAX_DELAY);
+                }
+                
+                
+                """;
+    }
+
+    private static String junoRuntimeHeaderFile() {
+        return """
+                #ifndef JUNO_RUNTIME_H
+                #define JUNO_RUNTIME_H
+                
+                #include <stdint.h>
+                
+                /**
+                 * @brief Runs once in the loop task before the first loop(). Defined by the sketch.
+                 */
+                void setup(void);
+                
+                /**
+                 * @brief Runs every CONFIG_JUNO_LOOP_PERIOD_MS in the loop task. Defined by the sketch.
+                 */
+                void loop(void);
+                
+                typedef struct {
+                    uint32_t iterations;
+                    uint32_t overruns;     // iterations that ran past their period
+                    uint32_t last_us;      // duration of the latest loop()
+                    uint32_t max_us;       // longest loop() so far
+                    uint32_t period_us;
+                } juno_loop_stats_t;
+                
+                /**
+                 * @brief Copies the loop timing counters; safe from any task.
+                 */
+                void juno_loop_get_stats(juno_loop_stats_t *out);
+                
+                #endif // JUNO_RUNTIME_H
+                """;
+    }
+
+    private static String junoRuntimeSourceFile() {
+        return """
+                #include "juno_runtime.h"
+                #include "juno_telemetry.h"
+                #include "esp_log.h"
+                #include "esp_timer.h"
+                #include "freertos/FreeRTOS.h"
+                #include "freertos/task.h"
+                #include <stdbool.h>
+                #include <stddef.h>
+                
+                #ifndef CONFIG_JUNO_LOOP_PERIOD_MS
+                #define CONFIG_JUNO_LOOP_PERIOD_MS 10
+                #endif
+                #ifndef CONFIG_JUNO_LOOP_PRIORITY
+                #define CONFIG_JUNO_LOOP_PRIORITY 5
+                #endif
+                #ifndef CONFIG_JUNO_LOOP_STACK_SIZE
+                #define CONFIG_JUNO_LOOP_STACK_SIZE 4096
+                #endif
+                
+                #if defined(CONFIG_JUNO_LOOP_CORE_0)
+                #define JUNO_LOOP_CORE 0
+                #elif defined(CONFIG_JUNO_LOOP_CORE_1)
+                #define JUNO_LOOP_CORE 1
+                #else
+                #define JUNO_LOOP_CORE tskNO_AFFINITY
+                #endif
+                
+                static juno_loop_stats_t stats;
+                static portMUX_TYPE stats_lock = portMUX_INITIALIZER_UNLOCKED;
+                
+                void juno_loop_get_stats(juno_loop_stats_t *out) {
+                    portENTER_CRITICAL(&stats_lock);
+                    *out = stats;
+                    portEXIT_CRITICAL(&stats_lock);
+                }
+                
+                static void juno_loop_task(void *arg) {
+                    (void)arg;
+                    setup();
+                
+                    TickType_t period = pdMS_TO_TICKS(CONFIG_JUNO_LOOP_PERIOD_MS);
+                    if (period == 0) period = 1;
+                    stats.period_us = period * portTICK_PERIOD_MS * 1000;
+                
+                #ifdef CONFIG_JUNO_TELEMETRY
+                    juno_telemetry_start(xTaskGetCurrentTaskHandle(), stats.period_us);
+                    int64_t prev_start = -1;
+                #endif
+                
+                    TickType_t last_wake = xTaskGetTickCount();
+                    while (true) {
+                        int64_t start = esp_timer_get_time();
+                        loop();
+                        uint32_t elapsed = (uint32_t)(esp_timer_get_time() - start);
+                
+                        // Fixed-rate: wake relative to the previous wake time, not to now
+                        bool on_time = xTaskDelayUntil(&last_wake, period) == pdTRUE;
+                
+                        portENTER_CRITICAL(&stats_lock);
+                        stats.iterations++;
+                        stats.last_us = elapsed;
+                        if (elapsed > stats.max_us) stats.max_us = elapsed;
+                        if (!on_time) stats.overruns++;
+                        portEXIT_CRITICAL(&stats_lock);
+                
+                #ifdef CONFIG_JUNO_TELEMETRY
+                        uint32_t jitter = JUNO_TELEMETRY_NO_JITTER;
+                        if (prev_start >= 0) {
+                            int64_t drift = start - prev_start - (int64_t)stats.period_us;
+                            jitter = (uint32_t)(drift < 0 ? -drift : drift);
+                        }
+                        juno_telemetry_record(elapsed, jitter, !on_time);
+                        // The next start after an overrun is off the grid, so it has no meaningful jitter
+                        prev_start = on_time ? start : -1;
+                #endif
+                
+                        if (!on_time) {
+                            // Missed the slot: restart the grid from now instead of bursting to catch up,
+                            // and block for a tick so the idle task (and its watchdog) still runs.
+                            vTaskDelay(1);
+                            last_wake = xTaskGetTickCount();
+                        }
                     }
                 }
                 
+                static const char *TAG = "juno";
                 
+                void app_main(void) {
+                #if defined(CONFIG_JUNO_PROFILE_DEBUG)
+                    ESP_LOGW(TAG, "debug build profile (-Og, 160 MHz); build with -DJUNO_PROFILE=max-performance for shipping");
+                #elif defined(CONFIG_JUNO_PROFILE_MAX_PERFORMANCE)
+                    ESP_LOGI(TAG, "max-performance build profile");
+                #else
+                    ESP_LOGI(TAG, "balanced build profile");
+                #endif
+                    xTaskCreatePinnedToCore(juno_loop_task, "juno_loop", CONFIG_JUNO_LOOP_STACK_SIZE, NULL,
+                                            CONFIG_JUNO_LOOP_PRIORITY, NULL, JUNO_LOOP_CORE);
+                }
+                """;
+    }
+
+    private static String junoTelemetryHeaderFile() {
+        return """
+                #ifndef JUNO_TELEMETRY_H
+                #define JUNO_TELEMETRY_H
+                
+                #include <stdbool.h>
+                #include <stdint.h>
+                #include "freertos/FreeRTOS.h"
+                #include "freertos/task.h"
+                
+                // Loop telemetry, enabled with CONFIG_JUNO_TELEMETRY (idf.py menuconfig -> Juno).
+                //
+                // Every CONFIG_JUNO_TELEMETRY_INTERVAL_MS one summary is sent on JUNO_CHANNEL_TELEMETRY,
+                // little-endian, counters covering only that interval:
+                //   u8  version (JUNO_TELEMETRY_VERSION)      u8  bucket count
+                //   u16 loop period (ms)                      u32 uptime (ms)
+                //   u32 iterations                            u32 overruns
+                //   u32 longest loop() (us)                   u32 total loop() time (us)
+                //   u32 largest start jitter (us)             u32 free heap (bytes)
+                //   u32 lowest free heap since boot (bytes)   u32 loop task stack never used (bytes)
+                //   u32 telemetry task stack never used (bytes)
+                //   u16 loop() time buckets[bucket count]     u16 jitter buckets[bucket count]
+                // Bucket i counts values in [2^i, 2^(i+1)) us; bucket 0 also holds 0 and the last
+                // bucket everything above. Counts saturate at 65535.
+                
+                #define JUNO_TELEMETRY_VERSION 1
+                #define JUNO_TELEMETRY_BUCKETS 20
+                #define JUNO_TELEMETRY_SIZE (44 + 4 * JUNO_TELEMETRY_BUCKETS)
+                #define JUNO_TELEMETRY_NO_JITTER UINT32_MAX
+                
+                /**
+                 * @brief Starts the low-priority task that sends the summaries. Needs juno_serial_init().
+                 */
+                void juno_telemetry_start(TaskHandle_t loop_task, uint32_t period_us);
+                
+                /**
+                 * @brief Counts one loop() iteration; called by the runtime after every loop().
+                 * @param jitter_us distance of this start from one period after the previous start,
+                 *                  or JUNO_TELEMETRY_NO_JITTER when there is no on-grid previous start
+                 */
+                void juno_telemetry_record(uint32_t loop_us, uint32_t jitter_us, bool overrun);
+                
+                #endif // JUNO_TELEMETRY_H
+                """;
+    }
+
+    private static String junoTelemetrySourceFile() {
+        return """
+                #include "juno_telemetry.h"
+                #include "juno_serial.h"
+                #include "esp_system.h"
+                #include "esp_timer.h"
+                #include <string.h>
+                
+                #ifndef CONFIG_JUNO_TELEMETRY_INTERVAL_MS
+                #define CONFIG_JUNO_TELEMETRY_INTERVAL_MS 1000
+                #endif
+                
+                #define JUNO_TELEMETRY_PRIORITY 1
+                #define JUNO_TELEMETRY_STACK_SIZE 3072
+                
+                #if JUNO_TELEMETRY_SIZE > JUNO_FRAME_MAX_PAYLOAD
+                #error "Telemetry summary does not fit in one frame"
+                #endif
+                
+                typedef struct {
+                    uint32_t iterations;
+                    uint32_t overruns;
+                    uint32_t loop_max_us;
+                    uint32_t loop_total_us;
+                    uint32_t jitter_max_us;
+                    uint16_t loop_buckets[JUNO_TELEMETRY_BUCKETS];
+                    uint16_t jitter_buckets[JUNO_TELEMETRY_BUCKETS];
+                } juno_telemetry_window_t;
+                
+                static juno_telemetry_window_t window;
+                static portMUX_TYPE window_lock = portMUX_INITIALIZER_UNLOCKED;
+                static TaskHandle_t loop_handle;
+                static uint16_t period_ms;
+                
+                static inline uint32_t juno_telemetry_bucket(uint32_t us) {
+                    if (us < 2) return 0;
+                    uint32_t bucket = 31 - __builtin_clz(us);
+                    return bucket < JUNO_TELEMETRY_BUCKETS ? bucket : JUNO_TELEMETRY_BUCKETS - 1;
+                }
+                
+                static inline void juno_telemetry_count(uint16_t *bucket) {
+                    if (*bucket != UINT16_MAX) (*bucket)++;
+                }
+                
+                void juno_telemetry_record(uint32_t loop_us, uint32_t jitter_us, bool overrun) {
+                    portENTER_CRITICAL(&window_lock);
+                    window.iterations++;
+                    if (overrun) window.overruns++;
+                    window.loop_total_us += loop_us;
+                    if (loop_us > window.loop_max_us) window.loop_max_us = loop_us;
+                    juno_telemetry_count(&window.loop_buckets[juno_telemetry_bucket(loop_us)]);
+                    if (jitter_us != JUNO_TELEMETRY_NO_JITTER) {
+                        if (jitter_us > window.jitter_max_us) window.jitter_max_us = jitter_us;
+                        juno_telemetry_count(&window.jitter_buckets[juno_telemetry_bucket(jitter_us)]);
+                    }
+                    portEXIT_CRITICAL(&window_lock);
+                }
+                
+                static uint8_t *juno_put_u16(uint8_t *p, uint16_t v) {
+                    p[0] = (uint8_t)(v & 0xFF);
+                    p[1] = (uint8_t)(v >> 8);
+                    return p + 2;
+                }
+                
+                static uint8_t *juno_put_u32(uint8_t *p, uint32_t v) {
+                    p = juno_put_u16(p, (uint16_t)(v & 0xFFFF));
+                    return juno_put_u16(p, (uint16_t)(v >> 16));
+                }
+                
+                static void juno_telemetry_task(void *arg) {
+                    (void)arg;
+                    static juno_telemetry_window_t w;
+                    static uint8_t payload[JUNO_TELEMETRY_SIZE];
+                
+                    TickType_t interval = pdMS_TO_TICKS(CONFIG_JUNO_TELEMETRY_INTERVAL_MS);
+                    if (interval == 0) interval = 1;
+                    TickType_t last_wake = xTaskGetTickCount();
+                    while (true) {
+                        xTaskDelayUntil(&last_wake, interval);
+                
+                        // Swap the window out so loop() is only held up for a copy
+                        portENTER_CRITICAL(&window_lock);
+                        w = window;
+                        memset(&window, 0, sizeof(window));
+                        portEXIT_CRITICAL(&window_lock);
+                
+                        uint8_t *p = payload;
+                        *p++ = JUNO_TELEMETRY_VERSION;
+                        *p++ = JUNO_TELEMETRY_BUCKETS;
+                        p = juno_put_u16(p, period_ms);
+                        p = juno_put_u32(p, (uint32_t)(esp_timer_get_time() / 1000));
+                        p = juno_put_u32(p, w.iterations);
+                        p = juno_put_u32(p, w.overruns);
+                        p = juno_put_u32(p, w.loop_max_us);
+                        p = juno_put_u32(p, w.loop_total_us);
+                        p = juno_put_u32(p, w.jitter_max_us);
+                        p = juno_put_u32(p, esp_get_free_heap_size());
+                        p = juno_put_u32(p, esp_get_minimum_free_heap_size());
+                        // ESP-IDF reports stack high-water marks in bytes
+                        p = juno_put_u32(p, uxTaskGetStackHighWaterMark(loop_handle));
+                        p = juno_put_u32(p, uxTaskGetStackHighWaterMark(NULL));
+                        for (int i = 0; i < JUNO_TELEMETRY_BUCKETS; i++) p = juno_put_u16(p, w.loop_buckets[i]);
+                        for (int i = 0; i < JUNO_TELEMETRY_BUCKETS; i++) p = juno_put_u16(p, w.jitter_buckets[i]);
+                
+                        juno_serial_send(JUNO_CHANNEL_TELEMETRY, payload, sizeof(payload));
+                    }
+                }
+                
+                void juno_telemetry_start(TaskHandle_t loop_task, uint32_t period_us) {
+                    loop_handle = loop_task;
+                    period_ms = (uint16_t)(period_us / 1000);
+                    xTaskCreate(juno_telemetry_task, "juno_telemetry", JUNO_TELEMETRY_STACK_SIZE, NULL,
+                                JUNO_TELEMETRY_PRIORITY, NULL);
+                }
                 """;
     }
 
     private static String mainCContent() {
         return """
-                                #include "esp_log.h"
-                                #include "juno_serial.h"
-                                #include <stdbool.h>
-                                #include <stdio.h>
-                                #include <string.h>
-                                #include <sys/unistd.h>
-                                #include <unistd.h>
-                
-                                void app_main(void) {
-                                  juno_serial_init();
-                                  while (true) {                                      
-                                          const char* line = juno_serial_read();                
-                                              juno_serial_write(line); 
-                                              juno_serial_write("hello world"); 
-                                              juno_serial_write("new world"); 
-                                      sleep(0.5);
-                                  }
-                                }
+                #include "juno_runtime.h"
+                #include "juno_serial.h"
                 
+                void setup(void) {
+                    juno_serial_init();
+                }
+                
+                // Called every CONFIG_JUNO_LOOP_PERIOD_MS (idf.py menuconfig -> Juno)
+                void loop(void) {
+                    // Only takes a command that has already arrived, so loop() never waits for the host
+                    const char *line = juno_serial_try_read(0);
+                    if (line) {
+                        juno_serial_write(line);
+                        juno_serial_write("hello world");
+                        juno_serial_write("new world");
+                    }
+                }
                 """;
     }
 
@@ -0,0 +1,93 @@
+package juno.serial;
+
+import juno.logger.JunoLogger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Moves a JUNO serial link from 115200 baud to a faster rate agreed with the firmware.
+ * <p>
+ * For each candidate rate, highest first, the host asks {@code juno_baud <rate>}. If the device
+ * answers {@code juno_baud_ok}, both sides switch and the host sends several
+ * {@code juno_baud_check} probes at the new rate. Only if every probe is answered does the host
+ * send {@code juno_baud_done}; otherwise it drops back to 115200 and the device, hearing nothing
+ * valid within its verify window, does the same. Run this in lockstep mode, before pipelining.
+ */
+public class BaudNegotiator {
+
+    public static final int[] CANDIDATE_RATES = {2_000_000, 921_600, 460_800};
+
+    private static final int PROBES = 3;
+    private static final long REPLY_TIMEOUT_MS = 2000;
+    private static final long PROBE_TIMEOUT_MS = 300;
+    // Slightly longer than JUNO_BAUD_VERIFY_MS in the generated firmware.
+    private static final long DEVICE_FALLBACK_MS = 1700;
+
+    private final JunoSerialThreaded serial;
+    private final SerialRequestDispatcher dispatcher;
+
+    public BaudNegotiator(JunoSerialThreaded serial, SerialRequestDispatcher dispatcher) {
+        this.serial = serial;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Negotiates the fastest candidate rate not above {@code maxBaudRate}.
+     *
+     * @return the baud rate in use afterwards (115200 if nothing faster was stable)
+     */
+    public int negotiate(int maxBaudRate) throws InterruptedException {
+        for (int rate : CANDIDATE_RATES) {
+            if (rate > maxBaudRate) continue;
+            if (tryRate(rate)) {
+                JunoLogger.success("Serial link running at " + rate + " baud");
+                return rate;
+            }
+        }
+        JunoLogger.info("Staying at " + JunoSerialThreaded.DEFAULT_BAUD_RATE + " baud");
+        return JunoSerialThreaded.DEFAULT_BAUD_RATE;
+    }
+
+    private boolean tryRate(int rate) throws InterruptedException {
+        String reply = await(dispatcher.submit("juno_baud " + rate, line -> line.startsWith("juno_baud_"), REPLY_TIMEOUT_MS));
+        if (reply == null || !reply.startsWith("juno_baud_ok")) return false;
+
+        // Let the device finish sending at the old rate before switching.
+        Thread.sleep(20);
+        if (!serial.setBaudRate(rate)) {
+            fallBack();
+            return false;
+        }
+
+        for (int i = 0; i < PROBES; i++) {
+            if (await(dispatcher.sendDirect("juno_baud_check", "juno_baud_confirmed"::equals, PROBE_TIMEOUT_MS)) == null) {
+                JunoLogger.warn("Baud " + rate + " unstable, falling back");
+                fallBack();
+                return false;
+            }
+        }
+
+        if (await(dispatcher.sendDirect("juno_baud_done", "juno_baud_committed"::equals, PROBE_TIMEOUT_MS)) == null) {
+            fallBack();
+            return false;
+        }
+        return true;
+    }
+
+    private void fallBack() throws InterruptedException {
+        serial.setBaudRate(JunoSerialThreaded.DEFAULT_BAUD_RATE);
+        TimeUnit.MILLISECONDS.sleep(DEVICE_FALLBACK_MS);
+    }
+
+    private static String await(CompletableFuture<String> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException) return null;
+            throw new IllegalStateException("Baud negotiation failed", e.getCause());
+        }
+    }
+}
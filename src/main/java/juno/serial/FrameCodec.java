@@ -0,0 +1,116 @@
+package juno.serial;
+
+import java.util.Arrays;
+
+/**
+ * Encodes and decodes binary frames that share the serial link with newline-delimited text.
+ * <p>
+ * A frame on the wire is {@code 0x00 COBS(type, lenLo, lenHi, payload..., crcLo, crcHi) 0x00}.
+ * COBS guarantees the body contains no zero bytes, and text never does, so the zero delimiters
+ * mark frame boundaries unambiguously. The CRC is CRC-16/CCITT-FALSE over type, length and payload.
+ */
+public final class FrameCodec {
+
+    // The generated firmware's JUNO_FRAME_MAX_PAYLOAD is written from this, so both ends agree.
+    public static final int MAX_PAYLOAD = 256;
+    // type + length + payload + crc
+    public static final int MAX_RAW_SIZE = 1 + 2 + MAX_PAYLOAD + 2;
+    // COBS adds one byte per 254 plus one; the encoded body never exceeds this.
+    public static final int MAX_ENCODED_SIZE = MAX_RAW_SIZE + MAX_RAW_SIZE / 254 + 1;
+
+    private FrameCodec() {}
+
+    /**
+     * @return the complete frame including both zero delimiters
+     */
+    public static byte[] encode(SerialFrame frame) {
+        byte[] payload = frame.getPayload();
+        byte[] raw = new byte[1 + 2 + payload.length + 2];
+        raw[0] = (byte) frame.getType();
+        raw[1] = (byte) payload.length;
+        raw[2] = (byte) (payload.length >>> 8);
+        System.arraycopy(payload, 0, raw, 3, payload.length);
+        int crc = crc16(raw, 0, 3 + payload.length);
+        raw[3 + payload.length] = (byte) crc;
+        raw[4 + payload.length] = (byte) (crc >>> 8);
+
+        byte[] encoded = new byte[raw.length + raw.length / 254 + 3];
+        encoded[0] = 0;
+        int end = cobsEncode(raw, raw.length, encoded, 1);
+        encoded[end] = 0;
+        return Arrays.copyOf(encoded, end + 1);
+    }
+
+    /**
+     * Decodes a COBS body (without delimiters) and validates its length and CRC.
+     *
+     * @param scratch buffer of at least {@link #MAX_RAW_SIZE} bytes
+     * @return the frame, or null if the body is malformed or fails the CRC
+     */
+    public static SerialFrame decode(byte[] body, int length, byte[] scratch) {
+        int rawLength = cobsDecode(body, length, scratch);
+        if (rawLength < 5) return null;
+
+        int payloadLength = (scratch[1] & 0xFF) | (scratch[2] & 0xFF) << 8;
+        if (payloadLength != rawLength - 5 || payloadLength > MAX_PAYLOAD) return null;
+
+        int expected = (scratch[rawLength - 2] & 0xFF) | (scratch[rawLength - 1] & 0xFF) << 8;
+        if (crc16(scratch, 0, rawLength - 2) != expected) return null;
+
+        byte[] payload = new byte[payloadLength];
+        System.arraycopy(scratch, 3, payload, 0, payloadLength);
+        return new SerialFrame(scratch[0] & 0xFF, payload);
+    }
+
+    /**
+     * CRC-16/CCITT-FALSE (poly 0x1021, init 0xFFFF), matching juno_crc16() in the generated firmware.
+     */
+    public static int crc16(byte[] data, int off, int len) {
+        int crc = 0xFFFF;
+        for (int i = off; i < off + len; i++) {
+            crc ^= (data[i] & 0xFF) << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+        }
+        return crc & 0xFFFF;
+    }
+
+    private static int cobsEncode(byte[] src, int len, byte[] dst, int dstOff) {
+        int codeIndex = dstOff;
+        int write = dstOff + 1;
+        int code = 1;
+        for (int i = 0; i < len; i++) {
+            if (src[i] != 0) {
+                dst[write++] = src[i];
+                code++;
+            }
+            if (src[i] == 0 || code == 0xFF) {
+                dst[codeIndex] = (byte) code;
+                code = 1;
+                codeIndex = write++;
+            }
+        }
+        dst[codeIndex] = (byte) code;
+        return write;
+    }
+
+    // Returns the decoded length, or -1 if the body is not valid COBS or does not fit.
+    private static int cobsDecode(byte[] src, int len, byte[] dst) {
+        int read = 0;
+        int write = 0;
+        while (read < len) {
+            int code = src[read++] & 0xFF;
+            if (code == 0 || read + code - 1 > len) return -1;
+            for (int i = 1; i < code; i++) {
+                if (write >= dst.length) return -1;
+                dst[write++] = src[read++];
+            }
+            if (code != 0xFF && read < len) {
+                if (write >= dst.length) return -1;
+                dst[write++] = 0;
+            }
+        }
+        return write;
+    }
+}
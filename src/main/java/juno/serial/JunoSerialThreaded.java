@@ -2,136 +2,616 @@ package juno.serial;
 
 
 import com.fazecast.jSerialComm.SerialPort;
+import juno.logger.JunoLogger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Threaded serial communication manager for ESP32 device.
- * Uses a background thread to read data and a write queue for outgoing commands.
+ * A reader thread blocks in the serial driver until bytes arrive, and a writer thread
+ * blocks on the write queue, so neither thread wakes up while the link is idle.
  */
 public class JunoSerialThreaded {
 
+    /**
+     * Sees every complete line on the reader thread before it is buffered for
+     * {@link #readResponse()}. Must not block.
+     */
+    public interface LineListener {
+        /**
+         * @return true if the line was consumed and should not be buffered
+         */
+        boolean onLine(SerialLine line);
+
+        /**
+         * Called once when reading from or writing to the port fails for good.
+         */
+        default void onConnectionFailed(IOException failure) {
+        }
+    }
+
+    /**
+     * Receives binary frames on the reader thread. Must not block.
+     */
+    public interface FrameListener {
+        void onFrame(SerialFrame frame);
+    }
+
+    public enum Direction { RX, TX }
+
+    /**
+     * Sees raw bytes as they cross the port, before any framing: received bytes on the
+     * reader thread and transmitted batches on the writer thread. Must not block.
+     */
+    public interface ByteListener {
+        void onBytes(Direction direction, byte[] data, int offset, int length);
+    }
+
     private final String portName;
     private SerialPort comPort;
     private InputStream in;
     private OutputStream out;
 
-    private final BlockingQueue<String> writeQueue = new LinkedBlockingQueue<>();
-    private final StringBuilder responseBuffer = new StringBuilder();
+    public static final int DEFAULT_BAUD_RATE = 115200;
+    public static final int DEFAULT_WRITE_QUEUE_CAPACITY = 1024;
+    // Upper bound on bytes coalesced into a single write() + flush().
+    private static final int MAX_BATCH_BYTES = 4096;
+    private static final long FAILURE_CHECK_MS = 100;
+
+    private final BlockingQueue<byte[]> writeQueue;
+    // Owned by the reader thread: frames raw input before lines are offered to the listener.
+    private final LineFramer rxFramer = new LineFramer();
+    // Guarded by itself; holds lines nobody consumed and is signalled whenever one arrives.
+    private final LineFramer lineFramer = new LineFramer();
+    private final List<LineListener> lineListeners = new CopyOnWriteArrayList<>();
 
-    private Thread ioThread;
+    // Framed mode, reader thread only. frameLength is -1 outside a frame.
+    private volatile FrameListener frameListener;
+    private final byte[] frameBody = new byte[FrameCodec.MAX_ENCODED_SIZE];
+    private final byte[] frameScratch = new byte[FrameCodec.MAX_RAW_SIZE];
+    private int frameLength = -1;
+    private volatile long frameErrors = 0;
+
+    private volatile ByteListener byteListener;
+    // Set once reading or writing has failed; queued and later writes are refused with it.
+    private volatile IOException failure;
+
+    private Thread readerThread;
+    private Thread writerThread;
     private volatile boolean running = false;
 
+    // Hub mode: a SerialHub worker polls the port instead of dedicated threads.
+    private volatile Runnable writeSignal;
+    // Hub mode: the batch being written; only touched by whoever holds hubWriting.
+    private ByteArrayOutputStream hubPending;
+    private final AtomicBoolean hubWriting = new AtomicBoolean();
+
     public JunoSerialThreaded(String portName) {
+        this(portName, DEFAULT_WRITE_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param writeQueueCapacity maximum number of pending commands before {@link #write(String)} blocks
+     */
+    public JunoSerialThreaded(String portName, int writeQueueCapacity) {
         this.portName = portName;
+        this.writeQueue = new ArrayBlockingQueue<>(writeQueueCapacity);
     }
 
     /**
-     * Opens the serial connection and starts the IO thread.
+     * Opens the serial connection and starts the reader and writer threads.
      */
     public void open() throws IOException {
         comPort = SerialPort.getCommPort(portName);
-        comPort.setComPortParameters(115200, 8, SerialPort.ONE_STOP_BIT, SerialPort.NO_PARITY);
-        comPort.setComPortTimeouts(SerialPort.TIMEOUT_READ_SEMI_BLOCKING, 100, 0);
+        comPort.setComPortParameters(DEFAULT_BAUD_RATE, 8, SerialPort.ONE_STOP_BIT, SerialPort.NO_PARITY);
+        // Timeout 0: a read blocks until at least one byte arrives or the port is closed.
+        comPort.setComPortTimeouts(SerialPort.TIMEOUT_READ_SEMI_BLOCKING, 0, 0);
 
         if (!comPort.openPort()) {
-            throw new IOException("Failed to open serial port: " + portName);
+            throw openFailure();
         }
 
         in = comPort.getInputStream();
         out = comPort.getOutputStream();
 
         running = true;
-        ioThread = new Thread(this::runIO, "JunoSerialThread");
-        ioThread.start();
+        readerThread = new Thread(this::runReader, "JunoSerialReader-" + portName);
+        writerThread = new Thread(this::runWriter, "JunoSerialWriter-" + portName);
+        readerThread.setDaemon(true);
+        writerThread.setDaemon(true);
+        readerThread.start();
+        writerThread.start();
+    }
+
+    /**
+     * Opens the serial connection without starting threads; the given signal runs whenever
+     * a write is queued or a batch finishes. Used by {@link SerialHub}, which then calls
+     * {@link #pollReceive(byte[])} and {@link #pumpWrites(Executor)} from one of its workers.
+     */
+    void openForHub(Runnable writeSignal) throws IOException {
+        comPort = SerialPort.getCommPort(portName);
+        comPort.setComPortParameters(DEFAULT_BAUD_RATE, 8, SerialPort.ONE_STOP_BIT, SerialPort.NO_PARITY);
+        comPort.setComPortTimeouts(SerialPort.TIMEOUT_NONBLOCKING | SerialPort.TIMEOUT_WRITE_BLOCKING, 0, 0);
+
+        if (!comPort.openPort()) {
+            throw openFailure();
+        }
+
+        out = comPort.getOutputStream();
+        hubPending = new ByteArrayOutputStream(MAX_BATCH_BYTES);
+        this.writeSignal = writeSignal;
+        running = true;
+    }
+
+    /**
+     * Reads whatever the driver has buffered without blocking and dispatches it.
+     *
+     * @return bytes consumed, or -1 if the port is gone
+     */
+    int pollReceive(byte[] buffer) {
+        SerialPort port = comPort;
+        if (!running || port == null || !port.isOpen()) return -1;
+        int available = port.bytesAvailable();
+        if (available < 0) return -1;
+        if (available == 0) return 0;
+
+        int numRead = port.readBytes(buffer, Math.min(available, buffer.length));
+        if (numRead < 0) return -1;
+        if (numRead > 0) receive(buffer, numRead);
+        return numRead;
+    }
+
+    /**
+     * Hands queued commands to the writer pool as one batch, unless the previous batch is still
+     * being written. Never blocks, so a stalled device only holds up the pool thread writing to it.
+     *
+     * @return true if a batch was handed off
+     * @throws IOException if an earlier batch failed
+     */
+    boolean pumpWrites(Executor writers) throws IOException {
+        checkWritable();
+        if (writeQueue.isEmpty() || !hubWriting.compareAndSet(false, true)) return false;
+        byte[] message;
+        while (hubPending.size() < MAX_BATCH_BYTES && (message = writeQueue.poll()) != null) {
+            hubPending.write(message, 0, message.length);
+        }
+        writers.execute(this::writeHubBatch);
+        return true;
+    }
+
+    private void writeHubBatch() {
+        try {
+            flush(hubPending);
+        } catch (IOException | RuntimeException e) {
+            hubPending.reset();
+            if (running) fail("write", e);
+        } finally {
+            hubWriting.set(false);
+            // Wakes the worker for whatever was queued meanwhile, or to report the failure.
+            signalWrite();
+        }
+    }
+
+    private void signalWrite() {
+        Runnable signal = writeSignal;
+        if (signal != null) signal.run();
     }
 
     /**
      * Sends a command to the device.
+     * Blocks while the write queue is full, so producers cannot outrun a stalled device.
+     *
+     * @param command command string
+     * @throws InterruptedIOException if interrupted before the command was queued; it is not sent
+     * @throws IOException if writing to the port has failed
+     */
+    public void write(String command) throws IOException {
+        try {
+            enqueue(terminate(command).getBytes(StandardCharsets.UTF_8));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw interrupted("command", e);
+        }
+    }
+
+    /**
+     * Sends a command to the device, waiting at most the given time for queue space.
      *
      * @param command command string
+     * @param timeoutMillis maximum time to wait for the queue to drain
+     * @return true if the command was queued, false if the queue stayed full
+     * @throws IOException if writing to the port has failed
      */
-    public void write(String command) {
-        writeQueue.offer(command.endsWith("\n") ? command : command + "\n");
+    public boolean write(String command, long timeoutMillis) throws IOException, InterruptedException {
+        checkWritable();
+        boolean queued = writeQueue.offer(terminate(command).getBytes(StandardCharsets.UTF_8), timeoutMillis, TimeUnit.MILLISECONDS);
+        if (queued) {
+            checkWritable();
+            signalWrite();
+        }
+        return queued;
     }
 
     /**
-     * Reads the latest line response from the device.
-     * Clears buffer after reading.
+     * Sends a binary frame. Frames share the write queue with text commands and keep their order.
+     *
+     * @throws InterruptedIOException if interrupted before the frame was queued; it is not sent
+     * @throws IOException if writing to the port has failed
+     */
+    public void writeFrame(SerialFrame frame) throws IOException {
+        try {
+            enqueue(FrameCodec.encode(frame));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw interrupted("frame", e);
+        }
+    }
+
+    // Waits in short steps so a producer blocked on a full queue notices when the writer fails.
+    private void enqueue(byte[] message) throws IOException, InterruptedException {
+        checkWritable();
+        while (!writeQueue.offer(message, FAILURE_CHECK_MS, TimeUnit.MILLISECONDS)) {
+            checkWritable();
+        }
+        checkWritable();
+        signalWrite();
+    }
+
+    private InterruptedIOException interrupted(String what, InterruptedException cause) {
+        InterruptedIOException e = new InterruptedIOException("Interrupted before the " + what + " for " + portName + " was queued");
+        e.initCause(cause);
+        return e;
+    }
+
+    private void checkWritable() throws IOException {
+        IOException error = failure;
+        if (error != null) throw new IOException(error.getMessage(), error);
+    }
+
+    // Marks the connection dead: queued and later writes fail, and line listeners are told once.
+    private void fail(String operation, Exception cause) {
+        IOException error;
+        synchronized (writeQueue) {
+            if (failure != null) return;
+            error = new IOException("Serial " + operation + " on " + portName + " failed: " + cause.getMessage(), cause);
+            failure = error;
+        }
+        writeQueue.clear();
+        JunoLogger.error(error.getMessage());
+        for (LineListener listener : lineListeners) {
+            try {
+                listener.onConnectionFailed(error);
+            } catch (RuntimeException e) {
+                JunoLogger.warn("Serial line listener failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Enables framed receive when non-null: bytes between 0x00 delimiters are decoded as
+     * {@link SerialFrame}s and everything else is still treated as text lines. Leave unset
+     * for text-only links so stray zero bytes (e.g. boot ROM noise) cannot swallow text.
+     */
+    public void setFrameListener(FrameListener listener) {
+        this.frameListener = listener;
+    }
+
+    /**
+     * Installs a tap on the raw byte stream, e.g. a {@link SerialRecorder}. Pass null to remove it.
+     */
+    public void setByteListener(ByteListener listener) {
+        this.byteListener = listener;
+    }
+
+    /**
+     * @return zero-delimited runs read back as text because of a bad CRC, length or COBS encoding
+     */
+    public long getFrameErrors() {
+        return frameErrors;
+    }
+
+    private static String terminate(String command) {
+        return command.endsWith("\n") ? command : command + "\n";
+    }
+
+    /**
+     * Reads all complete lines received since the last read, joined with newlines.
+     * A trailing partial line stays buffered until its newline arrives.
      *
      * @return Optional containing response, or empty if nothing
      */
     public Optional<String> readResponse() {
-        synchronized (responseBuffer) {
-            if (responseBuffer.length() == 0) return Optional.empty();
-            String result = responseBuffer.toString().trim();
-            responseBuffer.setLength(0);
-            return Optional.of(result);
+        synchronized (lineFramer) {
+            if (!lineFramer.hasLine()) return Optional.empty();
+            StringBuilder result = new StringBuilder();
+            lineFramer.pollLine(line -> result.append(line));
+            while (lineFramer.pollLine(line -> result.append('\n').append(line))) {
+                // keep draining
+            }
+            return Optional.of(result.toString().trim());
+        }
+    }
+
+    /**
+     * Waits until the device sends a complete line, then behaves like {@link #readResponse()}.
+     *
+     * @param timeoutMillis maximum time to wait
+     * @return Optional containing response, or empty if nothing arrived in time
+     */
+    public Optional<String> readResponse(long timeoutMillis) throws InterruptedException {
+        synchronized (lineFramer) {
+            if (!awaitLine(timeoutMillis)) return Optional.empty();
+            return readResponse();
+        }
+    }
+
+    /**
+     * Removes and returns the oldest complete line.
+     *
+     * @param timeoutMillis maximum time to wait
+     * @return Optional containing the line, or empty if none arrived in time
+     */
+    public Optional<String> readLine(long timeoutMillis) throws InterruptedException {
+        synchronized (lineFramer) {
+            if (!awaitLine(timeoutMillis)) return Optional.empty();
+            return Optional.of(lineFramer.pollLine());
+        }
+    }
+
+    /**
+     * Hands every buffered complete line to the handler without copying or decoding it.
+     * The handler runs while the receive buffer is locked and must not block.
+     *
+     * @return number of lines delivered
+     */
+    public int drainLines(LineFramer.LineHandler handler) {
+        synchronized (lineFramer) {
+            int count = 0;
+            while (lineFramer.pollLine(handler)) count++;
+            return count;
+        }
+    }
+
+    /**
+     * Adds a listener that sees each incoming line before it is buffered. Listeners run in
+     * the order added; once one consumes a line, later listeners do not see it.
+     */
+    public void addLineListener(LineListener listener) {
+        lineListeners.add(listener);
+    }
+
+    public void removeLineListener(LineListener listener) {
+        lineListeners.remove(listener);
+    }
+
+    // Caller must hold the lineFramer lock.
+    private boolean awaitLine(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (!lineFramer.hasLine()) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis <= 0) return false;
+            lineFramer.wait(remainingMillis);
         }
+        return true;
     }
 
     /**
-     * Background I/O thread that reads serial data and writes from queue.
+     * Background reader. Blocks in the driver until data arrives and frames it into lines
+     * straight from the read buffer. Each line goes to the listener first; the rest are
+     * buffered and wake waiting readers.
      */
-    private void runIO() {
+    private void runReader() {
         byte[] readBuffer = new byte[1024];
         while (running && comPort != null && comPort.isOpen()) {
             try {
-                // Handle incoming data
-                while (in.available() > 0) {
-                    int numRead = in.read(readBuffer);
-                    if (numRead > 0) {
-                        String data = new String(readBuffer, 0, numRead, StandardCharsets.UTF_8);
-                        synchronized (responseBuffer) {
-                            responseBuffer.append(data);
-                        }
+                int numRead = in.read(readBuffer);
+                if (numRead < 0) break;
+                if (numRead > 0) receive(readBuffer, numRead);
+            } catch (Exception e) {
+                if (running) fail("read", e);
+                return;
+            }
+        }
+        // Still running means the port went away underneath us, e.g. the board was unplugged.
+        if (running) fail("read", new EOFException("port closed"));
+    }
+
+    /**
+     * Feeds raw bytes from the port through framing and line dispatch.
+     * Called only by the thread that reads this port (the reader thread, or a {@link SerialHub} worker).
+     */
+    void receive(byte[] data, int length) {
+        ByteListener tap = byteListener;
+        if (tap != null) tap.onBytes(Direction.RX, data, 0, length);
+        if (frameListener != null) {
+            splitFrames(data, length);
+        } else {
+            rxFramer.write(data, 0, length);
+        }
+        while (rxFramer.pollLine(this::dispatchLine)) {
+            // keep dispatching
+        }
+    }
+
+    // Routes zero-delimited frame bodies to the frame decoder and the rest to the line framer.
+    // A body that fails to decode was most likely text read out of phase after a lost delimiter:
+    // it goes back to the line framer and its closing zero opens the next frame instead.
+    private void splitFrames(byte[] data, int length) {
+        int textStart = 0;
+        for (int i = 0; i < length; i++) {
+            byte b = data[i];
+            if (b != 0) {
+                if (frameLength >= 0) {
+                    if (frameLength < frameBody.length) {
+                        frameBody[frameLength++] = b;
+                    } else {
+                        frameErrors++;
+                        rxFramer.write(frameBody, 0, frameLength);
+                        frameLength = -1;
+                        textStart = i;
                     }
                 }
+                continue;
+            }
 
-                // Handle outgoing data
-                String command = writeQueue.poll();
-                if (command != null && out != null) {
-                    out.write(command.getBytes(StandardCharsets.UTF_8));
-                    out.flush();
+            if (frameLength < 0) {
+                rxFramer.write(data, textStart, i - textStart);
+                frameLength = 0;
+            } else if (frameLength > 0) {
+                if (deliverFrame()) {
+                    frameLength = -1;
+                } else {
+                    frameErrors++;
+                    rxFramer.write(frameBody, 0, frameLength);
+                    frameLength = 0;
                 }
+            }
+            // Consecutive zeros collapse into one delimiter.
+            textStart = i + 1;
+        }
+        if (frameLength < 0 && textStart < length) {
+            rxFramer.write(data, textStart, length - textStart);
+        }
+    }
 
-                Thread.sleep(20); // avoid busy waiting
-            } catch (Exception e) {
-                System.err.println("Serial I/O error: " + e.getMessage());
+    // Returns false if the body is not a valid frame.
+    private boolean deliverFrame() {
+        SerialFrame frame = FrameCodec.decode(frameBody, frameLength, frameScratch);
+        if (frame == null) return false;
+        FrameListener listener = frameListener;
+        if (listener != null) {
+            try {
+                listener.onFrame(frame);
+            } catch (RuntimeException e) {
+                JunoLogger.warn("Serial frame listener failed: " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    private void dispatchLine(SerialLine line) {
+        for (LineListener listener : lineListeners) {
+            try {
+                if (listener.onLine(line)) return;
+            } catch (RuntimeException e) {
+                JunoLogger.warn("Serial line listener failed: " + e.getMessage());
+            }
+        }
+        synchronized (lineFramer) {
+            lineFramer.writeLine(line);
+            lineFramer.notifyAll();
+        }
+    }
+
+    /**
+     * Background writer. Blocks until a command is queued, then drains everything
+     * already waiting into a single write and flush.
+     */
+    private void runWriter() {
+        List<byte[]> batch = new ArrayList<>();
+        ByteArrayOutputStream pending = new ByteArrayOutputStream(MAX_BATCH_BYTES);
+        while (running) {
+            try {
+                batch.add(writeQueue.take());
+                writeQueue.drainTo(batch);
+
+                for (byte[] message : batch) {
+                    pending.write(message);
+                    if (pending.size() >= MAX_BATCH_BYTES) flush(pending);
+                }
+                flush(pending);
+                batch.clear();
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException | RuntimeException e) {
+                if (running) fail("write", e);
                 break;
             }
         }
     }
 
+    private void flush(ByteArrayOutputStream pending) throws IOException {
+        if (pending.size() == 0) return;
+        ByteListener tap = byteListener;
+        if (tap != null) {
+            byte[] bytes = pending.toByteArray();
+            tap.onBytes(Direction.TX, bytes, 0, bytes.length);
+        }
+        if (out != null) {
+            pending.writeTo(out);
+            out.flush();
+        }
+        pending.reset();
+    }
+
     /**
      * Closes the serial connection and stops background thread.
      */
     public void close() {
         running = false;
-        if (ioThread != null) {
-            try {
-                ioThread.join(500);
-            } catch (InterruptedException ignored) {}
-        }
+        writeSignal = null;
+        if (writerThread != null) writerThread.interrupt();
 
+        // Closing the port unblocks the reader's pending read.
         if (in != null) try { in.close(); } catch (IOException ignored) {}
         if (out != null) try { out.close(); } catch (IOException ignored) {}
         if (comPort != null) comPort.closePort();
 
+        try {
+            if (readerThread != null) readerThread.join(500);
+            if (writerThread != null) writerThread.join(500);
+        } catch (InterruptedException ignored) {}
+
         in = null;
         out = null;
         comPort = null;
     }
 
     /**
-     * Checks if the serial connection is alive.
+     * Changes the host-side baud rate of the open port.
+     * Use {@link BaudNegotiator} so the device switches at the same time.
+     *
+     * @return true if the driver accepted the rate
+     */
+    public boolean setBaudRate(int baudRate) {
+        return comPort != null && comPort.setBaudRate(baudRate);
+    }
+
+    public int getBaudRate() {
+        return comPort != null ? comPort.getBaudRate() : 0;
+    }
+
+    /**
+     * Checks if the serial connection is alive and reading from or writing to it has not failed.
      */
     public boolean isConnected() {
+        return comPort != null && comPort.isOpen() && failure == null;
+    }
+
+    private IOException openFailure() {
+        return new IOException("Failed to open serial port: " + portName + " (error " + comPort.getLastErrorCode()
+                + "; is it open in another program?)");
+    }
+
+    /**
+     * Checks if the port is open, whether or not writing to it has failed.
+     */
+    boolean isPortOpen() {
         return comPort != null && comPort.isOpen();
     }
 }
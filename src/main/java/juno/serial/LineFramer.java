@@ -0,0 +1,181 @@
+package juno.serial;
+
+/**
+ * Splits a serial byte stream into newline-terminated lines.
+ * <p>
+ * Bytes are kept in a fixed-size ring buffer alongside an index of newline positions, so
+ * framing never allocates per chunk and lines are only decoded when a consumer asks.
+ * When the ring is full, the oldest complete lines are dropped first. Not thread-safe.
+ */
+public final class LineFramer {
+
+    /**
+     * Receives complete lines. The {@link SerialLine} is only valid during the call.
+     */
+    public interface LineHandler {
+        void onLine(SerialLine line);
+    }
+
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private static final byte[] NEWLINE = {'\n'};
+
+    private final byte[] ring;
+    private final int mask;
+    // Absolute stream positions; index = position & mask.
+    private long head;
+    private long tail;
+
+    // Absolute positions of '\n' bytes still in the ring, oldest first.
+    private long[] lineEnds = new long[64];
+    private int lineEndsHead;
+    private int lineCount;
+
+    private final byte[] scratch;
+    private final SerialLine view = new SerialLine();
+    private long droppedBytes;
+
+    public LineFramer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity ring size in bytes, rounded up to a power of two
+     */
+    public LineFramer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 64) - 1) << 1;
+        this.ring = new byte[size];
+        this.mask = size - 1;
+        this.scratch = new byte[size];
+    }
+
+    /**
+     * Appends raw bytes from the device.
+     */
+    public void write(byte[] src, int off, int len) {
+        if (len > ring.length) {
+            // Only the newest ring-full of bytes can be kept anyway.
+            droppedBytes += len - ring.length;
+            off += len - ring.length;
+            len = ring.length;
+        }
+        makeRoom(len);
+
+        int start = (int) (tail & mask);
+        int first = Math.min(len, ring.length - start);
+        System.arraycopy(src, off, ring, start, first);
+        System.arraycopy(src, off + first, ring, 0, len - first);
+
+        for (int i = 0; i < len; i++) {
+            if (src[off + i] == '\n') addLineEnd(tail + i);
+        }
+        tail += len;
+    }
+
+    /**
+     * Appends a complete line taken from another framer, restoring its newline.
+     */
+    public void writeLine(SerialLine line) {
+        line.appendTo(this);
+        write(NEWLINE, 0, 1);
+    }
+
+    public boolean hasLine() {
+        return lineCount > 0;
+    }
+
+    public int lineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return bytes discarded because consumers did not keep up
+     */
+    public long droppedBytes() {
+        return droppedBytes;
+    }
+
+    /**
+     * Hands the oldest complete line to the handler and removes it.
+     *
+     * @return false if no complete line is buffered
+     */
+    public boolean pollLine(LineHandler handler) {
+        if (lineCount == 0) return false;
+
+        long end = lineEnds[lineEndsHead];
+        lineEndsHead = (lineEndsHead + 1) % lineEnds.length;
+        lineCount--;
+
+        long contentEnd = end;
+        if (contentEnd > head && ring[(int) ((contentEnd - 1) & mask)] == '\r') contentEnd--;
+        int len = (int) (contentEnd - head);
+
+        int start = (int) (head & mask);
+        if (start + len <= ring.length) {
+            view.set(ring, start, len);
+        } else {
+            int first = ring.length - start;
+            System.arraycopy(ring, start, scratch, 0, first);
+            System.arraycopy(ring, 0, scratch, first, len - first);
+            view.set(scratch, 0, len);
+        }
+        head = end + 1;
+        handler.onLine(view);
+        return true;
+    }
+
+    /**
+     * Removes the oldest complete line and decodes it.
+     *
+     * @return the line, or null if no complete line is buffered
+     */
+    public String pollLine() {
+        String[] result = new String[1];
+        return pollLine(line -> result[0] = line.toString()) ? result[0] : null;
+    }
+
+    /**
+     * Discards everything, including any partial line.
+     */
+    public void clear() {
+        head = tail;
+        lineCount = 0;
+        lineEndsHead = 0;
+    }
+
+    private void makeRoom(int len) {
+        while (tail - head + len > ring.length && lineCount > 0) {
+            long end = lineEnds[lineEndsHead];
+            lineEndsHead = (lineEndsHead + 1) % lineEnds.length;
+            lineCount--;
+            droppedBytes += end + 1 - head;
+            head = end + 1;
+        }
+        long overflow = tail - head + len - ring.length;
+        if (overflow > 0) {
+            // A single partial line longer than the ring: keep its newest bytes.
+            droppedBytes += overflow;
+            head += overflow;
+        }
+    }
+
+    private void addLineEnd(long position) {
+        if (lineCount == lineEnds.length) {
+            long[] grown = new long[lineEnds.length * 2];
+            for (int i = 0; i < lineCount; i++) {
+                grown[i] = lineEnds[(lineEndsHead + i) % lineEnds.length];
+            }
+            lineEnds = grown;
+            lineEndsHead = 0;
+        }
+        lineEnds[(lineEndsHead + lineCount) % lineEnds.length] = position;
+        lineCount++;
+    }
+
+    @Override
+    public String toString() {
+        return "LineFramer{buffered=" + (tail - head) + ", lines=" + lineCount + ", dropped=" + droppedBytes
+                + ", capacity=" + ring.length + "}";
+    }
+}
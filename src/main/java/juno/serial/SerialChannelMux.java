@@ -0,0 +1,145 @@
+package juno.serial;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Splits one UART into logical channels carried in binary frames.
+ * <p>
+ * A frame whose type is {@code CHANNEL_FRAME_BASE + n} carries data for channel {@code n}.
+ * Plain text lines stay on the command path ({@link JunoSerialThreaded#readResponse()} and
+ * {@link SerialRequestDispatcher}), so once the firmware routes ESP-IDF logs to {@link #LOG}
+ * responses are no longer mixed with log noise. Each channel has its own bounded queue that
+ * drops its oldest entry when full, so a flood on one channel never stalls another.
+ */
+public final class SerialChannelMux implements JunoSerialThreaded.FrameListener {
+
+    public static final int CHANNEL_FRAME_BASE = 0xF0;
+    public static final int CHANNEL_COUNT = 16;
+
+    public static final int COMMAND = 0;
+    public static final int LOG = 1;
+    public static final int TELEMETRY = 2;
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+    private static final String MUX_REQUEST = "juno_mux";
+    private static final String MUX_REPLY = "juno_mux_ok";
+
+    private final JunoSerialThreaded serial;
+    private final Channel[] channels = new Channel[CHANNEL_COUNT];
+    private volatile JunoSerialThreaded.FrameListener applicationFrames;
+
+    public SerialChannelMux(JunoSerialThreaded serial) {
+        this(serial, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public SerialChannelMux(JunoSerialThreaded serial, int queueCapacity) {
+        this.serial = serial;
+        for (int i = 0; i < CHANNEL_COUNT; i++) {
+            channels[i] = new Channel(i, queueCapacity);
+        }
+        serial.setFrameListener(this);
+    }
+
+    /**
+     * Asks the firmware to send ESP-IDF log output on the {@link #LOG} channel.
+     */
+    public CompletableFuture<String> enable(SerialRequestDispatcher dispatcher, long timeoutMillis) {
+        return dispatcher.submit(MUX_REQUEST, MUX_REPLY::equals, timeoutMillis);
+    }
+
+    public Channel channel(int id) {
+        if (id < 0 || id >= CHANNEL_COUNT) throw new IllegalArgumentException("No such channel: " + id);
+        return channels[id];
+    }
+
+    /**
+     * Sends data to the device on the given channel.
+     *
+     * @throws IOException if writing to the port has failed
+     */
+    public void send(int channel, byte[] data) throws IOException {
+        channel(channel);
+        serial.writeFrame(new SerialFrame(CHANNEL_FRAME_BASE + channel, data));
+    }
+
+    /**
+     * Receives frames whose type is outside the channel range.
+     */
+    public void setApplicationFrameListener(JunoSerialThreaded.FrameListener listener) {
+        this.applicationFrames = listener;
+    }
+
+    @Override
+    public void onFrame(SerialFrame frame) {
+        int channel = frame.getType() - CHANNEL_FRAME_BASE;
+        if (channel >= 0 && channel < CHANNEL_COUNT) {
+            channels[channel].offer(frame.getPayload());
+            return;
+        }
+        JunoSerialThreaded.FrameListener listener = applicationFrames;
+        if (listener != null) listener.onFrame(frame);
+    }
+
+    /**
+     * One logical stream. Consumers read only their own channel.
+     */
+    public static final class Channel {
+        private final int id;
+        private final BlockingQueue<byte[]> queue;
+        private final AtomicLong dropped = new AtomicLong();
+        private volatile Consumer<byte[]> listener;
+
+        Channel(int id, int capacity) {
+            this.id = id;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * @return next message, or null if none arrived within the timeout
+         */
+        public byte[] poll(long timeoutMillis) throws InterruptedException {
+            return queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        public byte[] poll() {
+            return queue.poll();
+        }
+
+        /**
+         * Hands each message to the listener on the serial reader thread instead of queueing it.
+         * The listener must return quickly. Pass null to go back to queueing.
+         */
+        public void setListener(Consumer<byte[]> listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * @return messages discarded because this channel's consumer fell behind
+         */
+        public long getDropped() {
+            return dropped.get();
+        }
+
+        void offer(byte[] data) {
+            Consumer<byte[]> current = listener;
+            if (current != null) {
+                current.accept(data);
+                return;
+            }
+            while (!queue.offer(data)) {
+                if (queue.poll() != null) dropped.incrementAndGet();
+            }
+        }
+    }
+}
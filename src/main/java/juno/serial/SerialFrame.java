@@ -0,0 +1,38 @@
+package juno.serial;
+
+import java.util.Arrays;
+
+/**
+ * One binary message exchanged in framed mode: a message type and its payload.
+ */
+public class SerialFrame {
+
+    private final int type;          // Application-defined message type (0-255)
+    private final byte[] payload;    // Raw payload bytes, at most FrameCodec.MAX_PAYLOAD
+
+    public SerialFrame(int type, byte[] payload) {
+        if (type < 0 || type > 0xFF) throw new IllegalArgumentException("Frame type must fit in one byte: " + type);
+        if (payload.length > FrameCodec.MAX_PAYLOAD) {
+            throw new IllegalArgumentException("Frame payload too large: " + payload.length);
+        }
+        this.type = type;
+        this.payload = payload;
+    }
+
+    // Getters
+    public int getType() {
+        return type;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    @Override
+    public String toString() {
+        return "SerialFrame{" +
+                "type=" + type +
+                ", payload=" + Arrays.toString(payload) +
+                '}';
+    }
+}
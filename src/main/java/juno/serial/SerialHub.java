@@ -0,0 +1,334 @@
+package juno.serial;
+
+import juno.logger.JunoLogger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Serves many serial ports from a small, fixed set of worker threads.
+ * <p>
+ * Each port is owned by one worker, which polls it without blocking and feeds received bytes
+ * through the port's own framing and line buffer. Each port backs off on its own while quiet,
+ * so idle ports cost few syscalls, and queuing a write wakes the worker and resets that port's
+ * backoff. jSerialComm writes block in the driver even on a non-blocking port, so workers hand
+ * each port's queued writes as one batch to a shared writer pool: a stalled device only pins
+ * its own writer thread. A hub of hundreds of ports costs a handful of threads instead of two per port.
+ * <p>
+ * Every received line and disconnect is also published to a single bounded event stream;
+ * when consumers fall behind the oldest events are dropped. Per-port reads through
+ * {@link JunoSerialThreaded#readLine(long)} keep working alongside the event stream.
+ */
+public final class SerialHub implements AutoCloseable {
+
+    public enum EventType { LINE, DISCONNECTED }
+
+    /**
+     * One entry of the consolidated event stream.
+     */
+    public static final class Event {
+        private final String portName;
+        private final EventType type;
+        private final String line;
+        private final long timestampNanos;
+
+        Event(String portName, EventType type, String line) {
+            this.portName = portName;
+            this.type = type;
+            this.line = line;
+            this.timestampNanos = System.nanoTime();
+        }
+
+        public String getPortName() {
+            return portName;
+        }
+
+        public EventType getType() {
+            return type;
+        }
+
+        /**
+         * @return the received line for {@link EventType#LINE}, otherwise null
+         */
+        public String getLine() {
+            return line;
+        }
+
+        /**
+         * @return {@link System#nanoTime()} when the worker received the line
+         */
+        public long getTimestampNanos() {
+            return timestampNanos;
+        }
+
+        @Override
+        public String toString() {
+            return portName + " " + type + (line != null ? ": " + line : "");
+        }
+    }
+
+    public static final int DEFAULT_EVENT_CAPACITY = 65536;
+    private static final int READ_BUFFER_SIZE = 4096;
+    // Per-port backoff bounds: a port that just received is polled again at once, a quiet one
+    // after 50 us, doubling up to 16 ms.
+    private static final long MIN_IDLE_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+
+    private final Worker[] workers;
+    private final Map<String, Member> members = new ConcurrentHashMap<>();
+    private final BlockingQueue<Event> events;
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final ExecutorService writers = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "JunoSerialHubWriter");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile boolean running = true;
+
+    public SerialHub() {
+        this(Math.min(4, Runtime.getRuntime().availableProcessors()), DEFAULT_EVENT_CAPACITY);
+    }
+
+    /**
+     * @param workerCount number of polling threads shared by all ports
+     * @param eventCapacity events kept before the oldest are dropped
+     */
+    public SerialHub(int workerCount, int eventCapacity) {
+        if (workerCount <= 0) throw new IllegalArgumentException("Worker count must be positive");
+        this.events = new ArrayBlockingQueue<>(eventCapacity);
+        this.workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker(i);
+            workers[i].thread.start();
+        }
+    }
+
+    /**
+     * Opens a port and hands it to the least loaded worker.
+     *
+     * @return the connection, usable like any other {@link JunoSerialThreaded} except that
+     *         {@link JunoSerialThreaded#open()} and {@link JunoSerialThreaded#close()} belong to the hub
+     */
+    public JunoSerialThreaded open(String portName) throws IOException {
+        if (!running) throw new IllegalStateException("Serial hub is closed");
+        if (members.containsKey(portName)) throw new IOException("Serial port already open in hub: " + portName);
+
+        Worker worker = workers[0];
+        for (Worker candidate : workers) {
+            if (candidate.size() < worker.size()) worker = candidate;
+        }
+
+        JunoSerialThreaded connection = new JunoSerialThreaded(portName);
+        Member member = new Member(portName, connection, worker);
+        connection.addLineListener(member);
+        connection.openForHub(member::kick);
+
+        if (members.putIfAbsent(portName, member) != null) {
+            connection.close();
+            throw new IOException("Serial port already open in hub: " + portName);
+        }
+        worker.add(member);
+        return connection;
+    }
+
+    /**
+     * Closes one port. The owning worker releases it on its next pass.
+     */
+    public void close(String portName) {
+        Member member = members.get(portName);
+        if (member == null) return;
+        member.closing = true;
+        LockSupport.unpark(member.worker.thread);
+    }
+
+    public JunoSerialThreaded getConnection(String portName) {
+        Member member = members.get(portName);
+        return member != null ? member.connection : null;
+    }
+
+    public Set<String> getPortNames() {
+        return members.keySet();
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    /**
+     * @return the next event, or null if none is waiting
+     */
+    public Event pollEvent() {
+        return events.poll();
+    }
+
+    /**
+     * @return the next event, or null if none arrived in time
+     */
+    public Event pollEvent(long timeoutMillis) throws InterruptedException {
+        return events.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Moves up to maxEvents waiting events into the given collection.
+     *
+     * @return number of events moved
+     */
+    public int drainEvents(Collection<? super Event> sink, int maxEvents) {
+        return events.drainTo(sink, maxEvents);
+    }
+
+    /**
+     * @return events discarded because the stream was full
+     */
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * Stops the workers and closes every port.
+     */
+    @Override
+    public void close() {
+        running = false;
+        for (Worker worker : workers) worker.thread.interrupt();
+        for (Worker worker : workers) {
+            try {
+                worker.thread.join(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Member member : members.values()) member.connection.close();
+        members.clear();
+        writers.shutdown();
+    }
+
+    private void publish(Event event) {
+        while (!events.offer(event)) {
+            if (events.poll() != null) droppedEvents.incrementAndGet();
+        }
+    }
+
+    private void release(Member member, boolean disconnected) {
+        member.worker.remove(member);
+        member.connection.close();
+        members.remove(member.portName, member);
+        if (disconnected) publish(new Event(member.portName, EventType.DISCONNECTED, null));
+    }
+
+    private final class Member implements JunoSerialThreaded.LineListener {
+        final String portName;
+        final JunoSerialThreaded connection;
+        final Worker worker;
+        volatile boolean closing;
+        // Set when a write is queued or a batch finishes; cleared by the worker.
+        volatile boolean kicked;
+        // Worker only.
+        long idleNanos = MIN_IDLE_NANOS;
+        long nextPollNanos = System.nanoTime();
+
+        Member(String portName, JunoSerialThreaded connection, Worker worker) {
+            this.portName = portName;
+            this.connection = connection;
+            this.worker = worker;
+        }
+
+        @Override
+        public boolean onLine(SerialLine line) {
+            publish(new Event(portName, EventType.LINE, line.toString()));
+            return false;
+        }
+
+        void kick() {
+            kicked = true;
+            LockSupport.unpark(worker.thread);
+        }
+    }
+
+    private final class Worker {
+        final Thread thread;
+        // Copy-on-write snapshot; only the worker iterates it.
+        private volatile Member[] ports = new Member[0];
+
+        Worker(int index) {
+            thread = new Thread(this::run, "JunoSerialHub-" + index);
+            thread.setDaemon(true);
+        }
+
+        int size() {
+            return ports.length;
+        }
+
+        synchronized void add(Member member) {
+            Member[] current = ports;
+            Member[] next = new Member[current.length + 1];
+            System.arraycopy(current, 0, next, 0, current.length);
+            next[current.length] = member;
+            ports = next;
+        }
+
+        synchronized void remove(Member member) {
+            List<Member> next = new ArrayList<>(ports.length);
+            for (Member m : ports) {
+                if (m != member) next.add(m);
+            }
+            ports = next.toArray(new Member[0]);
+        }
+
+        private void run() {
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            while (running && !Thread.currentThread().isInterrupted()) {
+                long now = System.nanoTime();
+                long nextDue = now + MAX_IDLE_NANOS;
+                for (Member member : ports) {
+                    if (member.closing) {
+                        release(member, false);
+                        continue;
+                    }
+                    try {
+                        if (member.kicked) {
+                            // A reply usually follows a command, so poll the port again at once.
+                            member.kicked = false;
+                            member.idleNanos = MIN_IDLE_NANOS;
+                            member.nextPollNanos = now;
+                            member.connection.pumpWrites(writers);
+                        }
+                        if (member.nextPollNanos - now <= 0) {
+                            int numRead = member.connection.pollReceive(buffer);
+                            if (numRead < 0) {
+                                release(member, true);
+                                continue;
+                            }
+                            if (numRead > 0) {
+                                member.idleNanos = MIN_IDLE_NANOS;
+                                member.nextPollNanos = now;
+                            } else {
+                                member.nextPollNanos = now + member.idleNanos;
+                                member.idleNanos = Math.min(member.idleNanos * 2, MAX_IDLE_NANOS);
+                            }
+                        }
+                        if (member.nextPollNanos - nextDue < 0) nextDue = member.nextPollNanos;
+                    } catch (IOException | RuntimeException e) {
+                        JunoLogger.warn("Serial hub error on " + member.portName + ": " + e.getMessage());
+                        release(member, true);
+                    }
+                }
+
+                long wait = nextDue - System.nanoTime();
+                if (wait > 0) LockSupport.parkNanos(this, wait);
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package juno.serial;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A view over one line of serial input, without the trailing CR/LF.
+ * <p>
+ * The bytes are not copied or decoded until a caller asks for them. Instances handed to a
+ * {@link LineFramer.LineHandler} are reused and only valid for the duration of the callback;
+ * use {@link #toString()} or {@link #copyBytes()} to keep the content.
+ */
+public final class SerialLine implements CharSequence {
+
+    private byte[] bytes;
+    private int offset;
+    private int length;
+    private String decoded;
+
+    SerialLine() {}
+
+    SerialLine(byte[] bytes, int offset, int length) {
+        set(bytes, offset, length);
+    }
+
+    void set(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        this.decoded = null;
+    }
+
+    /**
+     * @return number of raw bytes in the line
+     */
+    public int byteLength() {
+        return length;
+    }
+
+    public byte byteAt(int index) {
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException(index);
+        return bytes[offset + index];
+    }
+
+    public byte[] copyBytes() {
+        return Arrays.copyOfRange(bytes, offset, offset + length);
+    }
+
+    void appendTo(LineFramer framer) {
+        framer.write(bytes, offset, length);
+    }
+
+    /**
+     * Compares the raw bytes against an ASCII string without decoding.
+     */
+    public boolean contentEqualsAscii(String ascii) {
+        if (ascii.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (bytes[offset + i] != (byte) ascii.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks the raw bytes for an ASCII prefix without decoding.
+     */
+    public boolean startsWithAscii(String ascii) {
+        if (ascii.length() > length) return false;
+        for (int i = 0; i < ascii.length(); i++) {
+            if (bytes[offset + i] != (byte) ascii.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int length() {
+        return toString().length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (decoded == null) decoded = new String(bytes, offset, length, StandardCharsets.UTF_8);
+        return decoded;
+    }
+}
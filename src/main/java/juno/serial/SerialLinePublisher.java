@@ -0,0 +1,269 @@
+package juno.serial;
+
+import juno.logger.JunoLogger;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes every line received by a {@link JunoSerialThreaded} to any number of
+ * {@link Flow.Subscriber}s, each at its own pace.
+ * <p>
+ * The reader thread only appends to each subscription's bounded buffer and never waits.
+ * Delivery runs on an executor and follows the subscriber's requested demand. When a
+ * subscriber's buffer is full, its {@link OverflowPolicy} decides what to give up.
+ * Lines are observed without being consumed, so {@link JunoSerialThreaded#readResponse()}
+ * and request dispatchers keep working.
+ */
+public final class SerialLinePublisher implements Flow.Publisher<String>, JunoSerialThreaded.LineListener, AutoCloseable {
+
+    public enum OverflowPolicy {
+        /** Discard the oldest buffered line to make room. */
+        DROP_OLDEST,
+        /** Discard the incoming line. */
+        DROP_NEWEST,
+        /** Cancel the subscription and signal {@link BufferOverflowException}. */
+        FAIL
+    }
+
+    /**
+     * Signalled to a subscriber using {@link OverflowPolicy#FAIL} that fell behind.
+     */
+    public static class BufferOverflowException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public BufferOverflowException(String message) {
+            super(message);
+        }
+    }
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    // Virtual threads: subscribers such as file loggers may block without starving anyone else.
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final JunoSerialThreaded serial;
+    private final Executor executor;
+    private final int defaultBufferSize;
+    private final OverflowPolicy defaultPolicy;
+    private final List<LineSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final AtomicLong droppedLines = new AtomicLong();
+    private volatile boolean closed = false;
+
+    public SerialLinePublisher(JunoSerialThreaded serial) {
+        this(serial, DEFAULT_EXECUTOR, DEFAULT_BUFFER_SIZE, OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * @param executor runs subscriber callbacks
+     * @param defaultBufferSize lines buffered per subscriber by {@link #subscribe(Flow.Subscriber)}
+     * @param defaultPolicy overflow policy used by {@link #subscribe(Flow.Subscriber)}
+     */
+    public SerialLinePublisher(JunoSerialThreaded serial, Executor executor, int defaultBufferSize, OverflowPolicy defaultPolicy) {
+        if (defaultBufferSize <= 0) throw new IllegalArgumentException("Buffer size must be positive");
+        this.serial = serial;
+        this.executor = executor;
+        this.defaultBufferSize = defaultBufferSize;
+        this.defaultPolicy = defaultPolicy;
+        serial.addLineListener(this);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super String> subscriber) {
+        subscribe(subscriber, defaultBufferSize, defaultPolicy);
+    }
+
+    /**
+     * Subscribes with a buffer size and overflow policy of its own.
+     */
+    public void subscribe(Flow.Subscriber<? super String> subscriber, int bufferSize, OverflowPolicy policy) {
+        if (subscriber == null) throw new NullPointerException("subscriber");
+        if (bufferSize <= 0) throw new IllegalArgumentException("Buffer size must be positive");
+
+        LineSubscription subscription = new LineSubscription(subscriber, bufferSize, policy);
+        if (closed) {
+            subscription.terminate(null);
+        } else {
+            subscriptions.add(subscription);
+        }
+        subscription.schedule();
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * @return lines discarded across all subscribers because their buffers were full
+     */
+    public long getDroppedLines() {
+        return droppedLines.get();
+    }
+
+    @Override
+    public boolean onLine(SerialLine line) {
+        if (subscriptions.isEmpty()) return false;
+        String text = line.toString();
+        for (LineSubscription subscription : subscriptions) {
+            subscription.offer(text);
+        }
+        return false;
+    }
+
+    /**
+     * Detaches from the serial connection and completes every subscriber once it has
+     * received the lines already buffered for it.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        serial.removeLineListener(this);
+        for (LineSubscription subscription : subscriptions) {
+            subscription.terminate(null);
+        }
+        subscriptions.clear();
+    }
+
+    private final class LineSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super String> subscriber;
+        private final int capacity;
+        private final OverflowPolicy policy;
+
+        // Guarded by itself.
+        private final ArrayDeque<String> buffer = new ArrayDeque<>();
+        private final AtomicLong demand = new AtomicLong();
+        // Serializes delivery: only the task that raises it from zero runs drain().
+        private final AtomicInteger wip = new AtomicInteger();
+
+        private boolean subscribed = false;
+        private volatile boolean cancelled = false;
+        private volatile boolean done = false;
+        private volatile Throwable error;
+
+        LineSubscription(Flow.Subscriber<? super String> subscriber, int capacity, OverflowPolicy policy) {
+            this.subscriber = subscriber;
+            this.capacity = capacity;
+            this.policy = policy;
+        }
+
+        // Reader thread. Never blocks beyond the short buffer lock.
+        void offer(String line) {
+            if (done || cancelled) return;
+            synchronized (buffer) {
+                if (buffer.size() >= capacity) {
+                    droppedLines.incrementAndGet();
+                    switch (policy) {
+                        case DROP_OLDEST:
+                            buffer.pollFirst();
+                            break;
+                        case DROP_NEWEST:
+                            return;
+                        case FAIL:
+                            buffer.clear();
+                            subscriptions.remove(this);
+                            terminate(new BufferOverflowException("Subscriber fell " + capacity + " lines behind"));
+                            return;
+                    }
+                }
+                buffer.addLast(line);
+            }
+            schedule();
+        }
+
+        void terminate(Throwable failure) {
+            if (done) return;
+            error = failure;
+            done = true;
+            schedule();
+        }
+
+        void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this::drain);
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                subscriptions.remove(this);
+                terminate(new IllegalArgumentException("Requested demand must be positive: " + n));
+                return;
+            }
+            demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+            synchronized (buffer) {
+                buffer.clear();
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            while (true) {
+                if (!subscribed) {
+                    subscribed = true;
+                    if (!deliver(() -> subscriber.onSubscribe(this))) return;
+                }
+
+                long requested = demand.get();
+                long emitted = 0;
+                while (emitted != requested && !cancelled) {
+                    String line;
+                    synchronized (buffer) {
+                        line = buffer.pollFirst();
+                    }
+                    if (line == null) break;
+                    if (!deliver(() -> subscriber.onNext(line))) return;
+                    emitted++;
+                }
+                if (emitted > 0 && requested != Long.MAX_VALUE) demand.addAndGet(-emitted);
+
+                if (cancelled) return;
+                if (done && isBufferEmpty()) {
+                    cancelled = true;
+                    Throwable failure = error;
+                    deliver(() -> {
+                        if (failure != null) subscriber.onError(failure);
+                        else subscriber.onComplete();
+                    });
+                    return;
+                }
+
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) return;
+            }
+        }
+
+        private boolean isBufferEmpty() {
+            synchronized (buffer) {
+                return buffer.isEmpty() || error != null;
+            }
+        }
+
+        // A subscriber that throws is cancelled, as Flow requires.
+        private boolean deliver(Runnable signal) {
+            try {
+                signal.run();
+                return true;
+            } catch (RuntimeException e) {
+                cancel();
+                JunoLogger.warn("Serial line subscriber failed: " + e.getMessage());
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package juno.serial;
+
+import juno.logger.JunoLogger;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records every byte crossing a {@link JunoSerialThreaded} into an append-only,
+ * memory-mapped capture file that {@link SerialReplayer} can play back.
+ * <p>
+ * Attach with {@link JunoSerialThreaded#setByteListener}. Appending is a copy into the
+ * mapped region, so the reader and writer threads never wait on disk I/O. The file grows
+ * one region at a time and is trimmed on {@link #close()}.
+ * <p>
+ * Layout, little-endian: a {@value #HEADER_SIZE}-byte header (magic, wall-clock start in
+ * epoch millis, committed length) followed by records of
+ * {@code [direction:1][length:4][nanos since start:8][bytes]}. A record never spans two
+ * regions, and its direction byte is written last, so a zero direction marks the end of the
+ * data in a region. A capture cut short by a crash stays readable up to the last complete record.
+ */
+public class SerialRecorder implements JunoSerialThreaded.ByteListener, AutoCloseable {
+
+    static final long MAGIC = 0x314345524F4E554AL; // "JUNOREC1" read as little-endian bytes
+    static final int HEADER_SIZE = 32;
+    static final int OFFSET_START_MILLIS = 8;
+    static final int OFFSET_COMMITTED_LENGTH = 16;
+    static final int RECORD_HEADER_SIZE = 13;
+    static final long REGION_SIZE = 64L * 1024 * 1024;
+
+    static final byte DIRECTION_END = 0;
+    static final byte DIRECTION_RX = 1;
+    static final byte DIRECTION_TX = 2;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final long startNanos;
+
+    private MappedByteBuffer header;
+    private MappedByteBuffer region;
+    private long regionStart;
+    private long recordCount = 0;
+    private long byteCount = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates the capture file, replacing any existing one.
+     */
+    public SerialRecorder(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.startNanos = System.nanoTime();
+
+        mapRegion(0);
+        header = region;
+        header.putLong(0, MAGIC);
+        header.putLong(OFFSET_START_MILLIS, System.currentTimeMillis());
+        region.position(HEADER_SIZE);
+    }
+
+    @Override
+    public synchronized void onBytes(JunoSerialThreaded.Direction direction, byte[] data, int offset, int length) {
+        if (closed || length <= 0) return;
+        long nanos = System.nanoTime() - startNanos;
+        try {
+            if (region.remaining() < RECORD_HEADER_SIZE + length) {
+                if (RECORD_HEADER_SIZE + length > REGION_SIZE) {
+                    throw new IOException("Record of " + length + " bytes exceeds the capture region size");
+                }
+                mapRegion(regionStart + REGION_SIZE);
+            }
+        } catch (IOException e) {
+            JunoLogger.warn("Serial recording stopped: " + e.getMessage());
+            closed = true;
+            return;
+        }
+
+        int recordStart = region.position();
+        region.position(recordStart + 1);
+        region.putInt(length);
+        region.putLong(nanos);
+        region.put(data, offset, length);
+        region.put(recordStart, direction == JunoSerialThreaded.Direction.RX ? DIRECTION_RX : DIRECTION_TX);
+
+        recordCount++;
+        byteCount += length;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return payload bytes recorded in both directions
+     */
+    public synchronized long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Stops recording, commits the final length and trims the unused tail of the last region.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed && !channel.isOpen()) return;
+        closed = true;
+
+        long length = regionStart + region.position();
+        header.putLong(OFFSET_COMMITTED_LENGTH, length);
+        header.force();
+        region.force();
+        try {
+            channel.truncate(length);
+        } catch (IOException e) {
+            // Windows refuses to shrink a mapped file; readers stop at the committed length instead.
+        }
+        channel.close();
+    }
+
+    private void mapRegion(long start) throws IOException {
+        region = channel.map(FileChannel.MapMode.READ_WRITE, start, REGION_SIZE);
+        region.order(ByteOrder.LITTLE_ENDIAN);
+        regionStart = start;
+    }
+}
@@ -0,0 +1,188 @@
+package juno.serial;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a {@link SerialRecorder} capture back through the normal receive path of a
+ * {@link JunoSerialThreaded}: line and frame parsing, listeners, dispatchers and publishers
+ * all see the bytes exactly as the device sent them, without any hardware attached.
+ * <p>
+ * The capture is read through memory-mapped regions, so multi-gigabyte recordings stream
+ * without being loaded into the heap.
+ * <p>
+ * The target must never have been opened: replayed bytes would otherwise race with bytes read
+ * from the real port. Create a separate {@link JunoSerialThreaded} for the replay.
+ */
+public class SerialReplayer implements AutoCloseable {
+
+    /** Speed factor that ignores recorded timing and replays as fast as the parsers allow. */
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+    /** Speed factor that reproduces the recorded timing. */
+    public static final double ORIGINAL_SPEED = 1;
+
+    // Sleep until this close to a record's due time, then spin for accuracy.
+    private static final long SPIN_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    /**
+     * Totals for one replay.
+     */
+    public static final class Result {
+        private final long records;
+        private final long rxBytes;
+        private final long txBytes;
+        private final long recordedNanos;
+        private final long elapsedNanos;
+
+        Result(long records, long rxBytes, long txBytes, long recordedNanos, long elapsedNanos) {
+            this.records = records;
+            this.rxBytes = rxBytes;
+            this.txBytes = txBytes;
+            this.recordedNanos = recordedNanos;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        public long getRxBytes() {
+            return rxBytes;
+        }
+
+        public long getTxBytes() {
+            return txBytes;
+        }
+
+        /**
+         * @return time between the first and last record in the capture
+         */
+        public long getRecordedNanos() {
+            return recordedNanos;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            return String.format("%d records, %d RX / %d TX bytes in %.3f s (%.1f MB/s RX)",
+                    records, rxBytes, txBytes, seconds, seconds > 0 ? rxBytes / seconds / 1e6 : 0.0);
+        }
+    }
+
+    private final FileChannel channel;
+    private final long length;
+    private final long startEpochMillis;
+
+    public SerialReplayer(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), SerialRecorder.HEADER_SIZE));
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        if (header.limit() < SerialRecorder.HEADER_SIZE || header.getLong(0) != SerialRecorder.MAGIC) {
+            channel.close();
+            throw new IOException("Not a JUNO serial capture: " + file);
+        }
+        startEpochMillis = header.getLong(SerialRecorder.OFFSET_START_MILLIS);
+        long committed = header.getLong(SerialRecorder.OFFSET_COMMITTED_LENGTH);
+        // Zero means the recorder never closed; fall back to scanning up to the end of the file.
+        length = committed > 0 ? Math.min(committed, channel.size()) : channel.size();
+    }
+
+    /**
+     * @return wall-clock time the capture started, in epoch millis
+     */
+    public long getStartEpochMillis() {
+        return startEpochMillis;
+    }
+
+    /**
+     * Feeds every received chunk to the target's parsing stack. Transmitted bytes are skipped.
+     *
+     * @param target a connection that has not been opened
+     * @param speed {@link #ORIGINAL_SPEED}, a multiple of it, or {@link #AS_FAST_AS_POSSIBLE}
+     */
+    public Result replay(JunoSerialThreaded target, double speed) throws IOException, InterruptedException {
+        return replay(target, speed, null);
+    }
+
+    /**
+     * Like {@link #replay(JunoSerialThreaded, double)}, also handing transmitted bytes to txListener
+     * at their recorded time, e.g. to check what the host sent.
+     */
+    public Result replay(JunoSerialThreaded target, double speed, JunoSerialThreaded.ByteListener txListener)
+            throws IOException, InterruptedException {
+        if (speed < 0) throw new IllegalArgumentException("Replay speed must not be negative");
+        if (target.isPortOpen()) {
+            throw new IOException("Replay target is open on a serial port; replay into a connection that was never opened");
+        }
+
+        byte[] data = new byte[4096];
+        long records = 0;
+        long rxBytes = 0;
+        long txBytes = 0;
+        long firstNanos = -1;
+        long lastNanos = 0;
+        long replayStart = System.nanoTime();
+
+        for (long regionStart = 0; regionStart < length; regionStart += SerialRecorder.REGION_SIZE) {
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart,
+                    Math.min(SerialRecorder.REGION_SIZE, length - regionStart));
+            region.order(ByteOrder.LITTLE_ENDIAN);
+            if (regionStart == 0) region.position(SerialRecorder.HEADER_SIZE);
+
+            while (region.remaining() >= SerialRecorder.RECORD_HEADER_SIZE) {
+                byte direction = region.get();
+                if (direction == SerialRecorder.DIRECTION_END) break;
+                int size = region.getInt();
+                long nanos = region.getLong();
+                if (size < 0 || size > region.remaining()) {
+                    throw new IOException("Corrupt capture record at offset " + (regionStart + region.position()));
+                }
+                if (size > data.length) data = new byte[Integer.highestOneBit(size) << 1];
+                region.get(data, 0, size);
+
+                if (firstNanos < 0) firstNanos = nanos;
+                lastNanos = nanos;
+                if (speed > 0) awaitDue(replayStart + (long) ((nanos - firstNanos) / speed));
+
+                if (direction == SerialRecorder.DIRECTION_RX) {
+                    target.receive(data, size);
+                    rxBytes += size;
+                } else {
+                    if (txListener != null) txListener.onBytes(JunoSerialThreaded.Direction.TX, data, 0, size);
+                    txBytes += size;
+                }
+                records++;
+            }
+        }
+
+        long recorded = firstNanos < 0 ? 0 : lastNanos - firstNanos;
+        return new Result(records, rxBytes, txBytes, recorded, System.nanoTime() - replayStart);
+    }
+
+    private static void awaitDue(long dueNanos) throws InterruptedException {
+        long remaining;
+        while ((remaining = dueNanos - System.nanoTime()) > 0) {
+            if (Thread.interrupted()) throw new InterruptedException();
+            if (remaining > SPIN_THRESHOLD_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
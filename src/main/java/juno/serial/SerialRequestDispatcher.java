@@ -0,0 +1,340 @@
+package juno.serial;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+
+/**
+ * Correlates commands sent to a JUNO device with the response lines they produce.
+ * <p>
+ * In the default lockstep mode the generated firmware prints {@code juno_read} each time it is
+ * ready to read one command, so commands are queued and each one is released on the next prompt.
+ * If a request times out with nothing else outstanding, the prompt is assumed lost and the next
+ * command goes out anyway.
+ * Incoming lines are matched against the requests already sent, oldest first; the first request
+ * whose matcher accepts a line is completed with it.
+ * <p>
+ * After {@link #enablePipelining(int, long)} the firmware stops prompting. Commands are sent as
+ * {@code @<seq> <command>} while fewer than {@code window} are unacknowledged; the device replies
+ * {@code #ack <seq>} when it hands a command to the sketch and tags everything the sketch writes
+ * with {@code @<seq> }. Lines no request claims are left for {@link JunoSerialThreaded#readResponse()}.
+ */
+public final class SerialRequestDispatcher implements JunoSerialThreaded.LineListener {
+
+    public static final String READY_PROMPT = "juno_read";
+    public static final String HANDSHAKE_REQUEST = "flash";
+    public static final String HANDSHAKE_REPLY = "thunder";
+    public static final String PIPE_REQUEST = "juno_pipe";
+    public static final String PIPE_REPLY = "juno_pipe_ok";
+    public static final String ACK_PREFIX = "#ack ";
+    public static final String SEQ_PREFIX = "@";
+
+    private static final int SEQ_MODULUS = 1_000_000;
+    private static final long RETRY_MILLIS = 5;
+
+    /**
+     * Default matcher: the first non-prompt line after the command was sent.
+     */
+    public static final Predicate<String> ANY_LINE = line -> true;
+
+    private static final ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "JunoSerialRequestTimeouts");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final JunoSerialThreaded serial;
+
+    // Guarded by this.
+    private final Deque<PendingRequest> queued = new ArrayDeque<>();
+    private final Deque<PendingRequest> sent = new ArrayDeque<>();
+    private int readyPrompts = 0;
+    // 0 while in lockstep mode, otherwise the negotiated number of unacknowledged commands.
+    private int window = 0;
+    private int unacked = 0;
+    private int nextSeq = 0;
+    private boolean closed = false;
+    private boolean retryScheduled = false;
+
+    public SerialRequestDispatcher(JunoSerialThreaded serial) {
+        this.serial = serial;
+        serial.addLineListener(this);
+    }
+
+    /**
+     * Queues a command that completes with the first line after it is sent.
+     */
+    public CompletableFuture<String> submit(String command, long timeoutMillis) {
+        return submit(command, ANY_LINE, timeoutMillis);
+    }
+
+    /**
+     * Queues a command and completes with the first response line accepted by {@code matcher}.
+     * The future fails with {@link TimeoutException} if no matching line arrives in time.
+     */
+    public CompletableFuture<String> submit(String command, Predicate<String> matcher, long timeoutMillis) {
+        PendingRequest request = new PendingRequest(command, matcher);
+        synchronized (this) {
+            if (closed) {
+                request.future.completeExceptionally(new IllegalStateException("Dispatcher is closed"));
+                return request.future;
+            }
+            request.timeout = TIMEOUTS.schedule(() -> expire(request, timeoutMillis), timeoutMillis, TimeUnit.MILLISECONDS);
+            queued.addLast(request);
+        }
+        releaseQueued();
+        return request.future;
+    }
+
+    /**
+     * Performs the {@code flash}/{@code thunder} handshake the firmware waits for in
+     * {@code juno_serial_init()}. The firmware echoes nothing until this completes.
+     */
+    public CompletableFuture<String> handshake(long timeoutMillis) {
+        return sendDirect(HANDSHAKE_REQUEST, HANDSHAKE_REPLY::equals, timeoutMillis);
+    }
+
+    /**
+     * Sends a command immediately, without waiting for a prompt or a window slot. For control
+     * exchanges where the firmware is already listening, such as the handshake or a baud switch.
+     */
+    public CompletableFuture<String> sendDirect(String command, Predicate<String> matcher, long timeoutMillis) {
+        PendingRequest request = new PendingRequest(command, matcher);
+        synchronized (this) {
+            request.timeout = TIMEOUTS.schedule(() -> expire(request, timeoutMillis), timeoutMillis, TimeUnit.MILLISECONDS);
+            sent.addLast(request);
+        }
+        try {
+            serial.write(command);
+        } catch (IOException e) {
+            synchronized (this) {
+                sent.remove(request);
+            }
+            request.timeout.cancel(false);
+            request.future.completeExceptionally(e);
+        }
+        return request.future;
+    }
+
+    /**
+     * Switches the device to pipelined mode. The request itself goes out in lockstep; once the
+     * device confirms, later commands stream without waiting for prompts.
+     *
+     * @param requestedWindow maximum unacknowledged commands; the device may lower it
+     * @return future completing with the window the device accepted
+     */
+    public CompletableFuture<Integer> enablePipelining(int requestedWindow, long timeoutMillis) {
+        if (requestedWindow < 1) throw new IllegalArgumentException("Window must be at least 1");
+        return submit(PIPE_REQUEST + " " + requestedWindow, line -> line.startsWith(PIPE_REPLY + " "), timeoutMillis)
+                .thenApply(reply -> {
+                    int accepted = Integer.parseInt(reply.substring(PIPE_REPLY.length() + 1).trim());
+                    synchronized (this) {
+                        window = Math.max(1, accepted);
+                    }
+                    releaseQueued();
+                    return accepted;
+                });
+    }
+
+    /**
+     * @return negotiated window, or 0 in lockstep mode
+     */
+    public synchronized int getWindow() {
+        return window;
+    }
+
+    @Override
+    public boolean onLine(SerialLine line) {
+        if (line.contentEqualsAscii(READY_PROMPT)) {
+            synchronized (this) {
+                readyPrompts++;
+            }
+            releaseQueued();
+            return true;
+        }
+
+        String text = line.toString();
+        if (text.startsWith(ACK_PREFIX)) {
+            acknowledge(parseSeq(text.substring(ACK_PREFIX.length())));
+            releaseQueued();
+            return true;
+        }
+
+        int seq = -1;
+        if (text.startsWith(SEQ_PREFIX)) {
+            int space = text.indexOf(' ');
+            seq = parseSeq(text.substring(SEQ_PREFIX.length(), space < 0 ? text.length() : space));
+            if (seq >= 0) text = space < 0 ? "" : text.substring(space + 1);
+        }
+
+        PendingRequest matched = null;
+        synchronized (this) {
+            Iterator<PendingRequest> it = sent.iterator();
+            while (it.hasNext()) {
+                PendingRequest request = it.next();
+                if (request.seq == seq && request.matcher.test(text)) {
+                    it.remove();
+                    if (request.seq >= 0 && !request.acked) unacked--;
+                    matched = request;
+                    break;
+                }
+            }
+        }
+        if (matched == null) return false;
+
+        matched.timeout.cancel(false);
+        matched.future.complete(text);
+        return true;
+    }
+
+    /**
+     * Fails every outstanding request and detaches from the serial connection.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        serial.removeLineListener(this);
+        failOutstanding(new IllegalStateException("Serial connection closed"));
+    }
+
+    /**
+     * Fails every outstanding request with the connection's error instead of letting each one time out.
+     */
+    @Override
+    public void onConnectionFailed(IOException failure) {
+        failOutstanding(failure);
+    }
+
+    private void failOutstanding(Exception error) {
+        Deque<PendingRequest> outstanding = new ArrayDeque<>();
+        synchronized (this) {
+            outstanding.addAll(sent);
+            outstanding.addAll(queued);
+            sent.clear();
+            queued.clear();
+        }
+        for (PendingRequest request : outstanding) {
+            if (request.timeout != null) request.timeout.cancel(false);
+            request.future.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * @return number of requests queued or awaiting a response
+     */
+    public synchronized int pendingCount() {
+        return queued.size() + sent.size();
+    }
+
+    // Dequeuing and writing happen under one lock so commands reach the wire in queue order.
+    // The write never blocks, since this also runs on the reader thread: while the write queue
+    // is full the rest stays queued and is retried shortly from the timeout thread.
+    private void releaseQueued() {
+        Deque<PendingRequest> failed = new ArrayDeque<>();
+        IOException failure = null;
+        synchronized (this) {
+            while (!queued.isEmpty()) {
+                PendingRequest next = queued.peekFirst();
+                boolean lockstep = window == 0;
+                if (lockstep ? readyPrompts == 0 : unacked >= window) break;
+                try {
+                    if (!offer(lockstep ? next.command : SEQ_PREFIX + nextSeq + " " + next.command)) break;
+                } catch (IOException e) {
+                    failure = e;
+                    failed.addLast(queued.pollFirst());
+                    continue;
+                }
+                if (lockstep) {
+                    readyPrompts--;
+                } else {
+                    next.seq = nextSeq;
+                    nextSeq = (nextSeq + 1) % SEQ_MODULUS;
+                    unacked++;
+                }
+                queued.pollFirst();
+                sent.addLast(next);
+            }
+        }
+        for (PendingRequest request : failed) {
+            request.timeout.cancel(false);
+            request.future.completeExceptionally(failure);
+        }
+    }
+
+    // Called with the lock held.
+    private boolean offer(String wire) throws IOException {
+        boolean accepted;
+        try {
+            accepted = serial.write(wire, 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            accepted = false;
+        }
+        if (!accepted && !retryScheduled) {
+            retryScheduled = true;
+            TIMEOUTS.schedule(() -> {
+                synchronized (this) {
+                    retryScheduled = false;
+                }
+                releaseQueued();
+            }, RETRY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return accepted;
+    }
+
+    private synchronized void acknowledge(int seq) {
+        for (PendingRequest request : sent) {
+            if (request.seq == seq && !request.acked) {
+                request.acked = true;
+                unacked--;
+                return;
+            }
+        }
+    }
+
+    private static int parseSeq(String digits) {
+        try {
+            return Integer.parseInt(digits.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void expire(PendingRequest request, long timeoutMillis) {
+        synchronized (this) {
+            if (!queued.remove(request) && sent.remove(request) && request.seq >= 0 && !request.acked) {
+                unacked--;
+            }
+            // A lost prompt would hold back every later request. Once nothing sent is still
+            // awaiting a reply, assume the device is back in juno_serial_read().
+            if (window == 0 && readyPrompts == 0 && sent.isEmpty()) readyPrompts = 1;
+        }
+        releaseQueued();
+        request.future.completeExceptionally(
+                new TimeoutException("No response to '" + request.command + "' within " + timeoutMillis + " ms"));
+    }
+
+    private static final class PendingRequest {
+        final String command;
+        final Predicate<String> matcher;
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        ScheduledFuture<?> timeout;
+        // Assigned when sent in pipelined mode; -1 for lockstep requests.
+        int seq = -1;
+        boolean acked;
+
+        PendingRequest(String command, Predicate<String> matcher) {
+            this.command = command;
+            this.matcher = matcher;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package juno.detector;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DetectionCacheTest {
+
+    @TempDir
+    Path temp;
+
+    private File dotJuno;
+    private Path idfRoot;
+    private Path cmakeDir;
+    private Path cmake;
+    private Map<String, String> detected;
+
+    @BeforeEach
+    void createIdfInstall() throws IOException {
+        dotJuno = Files.createDirectories(temp.resolve(".juno")).toFile();
+        idfRoot = Files.createDirectories(temp.resolve("esp-idf"));
+        Files.writeString(idfRoot.resolve("version.txt"), "v5.4\n");
+        cmakeDir = Files.createDirectories(idfRoot.resolve("tools/cmake/3.30.2/bin"));
+        cmake = Files.createFile(cmakeDir.resolve("cmake"));
+
+        detected = new LinkedHashMap<>();
+        detected.put("cMakePath", cmake.toString());
+        detected.put("espClangPath", null);
+        detected.put("gitPath", temp.resolve("not-installed/git").toString());
+    }
+
+    @Test
+    void warmCacheReturnsWhatTheLastScanFound() {
+        DetectionCache.save(dotJuno, idfRoot.toString(), detected);
+
+        Map<String, String> cached = DetectionCache.load(dotJuno, idfRoot.toString());
+
+        // JunoPaths presets these instead of running the detectors.
+        assertEquals(detected, cached);
+    }
+
+    @Test
+    void coldWithoutACacheFile() {
+        assertNull(DetectionCache.load(dotJuno, idfRoot.toString()));
+    }
+
+    @Test
+    void changedIdfVersionMarkerInvalidates() throws IOException {
+        DetectionCache.save(dotJuno, idfRoot.toString(), detected);
+        Files.writeString(idfRoot.resolve("version.txt"), "v5.5\n");
+
+        assertNull(DetectionCache.load(dotJuno, idfRoot.toString()));
+    }
+
+    @Test
+    void differentIdfRootInvalidates() throws IOException {
+        DetectionCache.save(dotJuno, idfRoot.toString(), detected);
+        Path otherRoot = Files.createDirectories(temp.resolve("esp-idf-v5.5"));
+
+        assertNull(DetectionCache.load(dotJuno, otherRoot.toString()));
+    }
+
+    @Test
+    void changedToolDirectoryMtimeInvalidates() {
+        DetectionCache.save(dotJuno, idfRoot.toString(), detected);
+        File dir = cmakeDir.toFile();
+        assertTrue(dir.setLastModified(dir.lastModified() + 10_000));
+
+        assertNull(DetectionCache.load(dotJuno, idfRoot.toString()));
+    }
+
+    @Test
+    void deletedExecutableInvalidates() throws IOException {
+        DetectionCache.save(dotJuno, idfRoot.toString(), detected);
+        // Keep the directory mtime so only the missing file can reject the cache.
+        long mtime = cmakeDir.toFile().lastModified();
+        Files.delete(cmake);
+        assertTrue(cmakeDir.toFile().setLastModified(mtime));
+
+        assertNull(DetectionCache.load(dotJuno, idfRoot.toString()));
+    }
+
+    @Test
+    void corruptCacheFileIsIgnored() throws IOException {
+        DetectionCache.save(dotJuno, idfRoot.toString(), detected);
+        Path cacheFile = dotJuno.toPath().resolve("detection.cache");
+
+        Files.write(cacheFile, new byte[]{(byte) 0xff, 0x00, 0x17, '=', '\n'});
+        assertNull(DetectionCache.load(dotJuno, idfRoot.toString()));
+
+        // A malformed escape makes Properties.load throw IllegalArgumentException.
+        Files.writeString(cacheFile, "cache.format=1\njuno.cMakePath=\\uZZZZ\n", StandardCharsets.ISO_8859_1);
+        assertNull(DetectionCache.load(dotJuno, idfRoot.toString()));
+
+        // The next scan rewrites it.
+        DetectionCache.save(dotJuno, idfRoot.toString(), detected);
+        assertNotNull(DetectionCache.load(dotJuno, idfRoot.toString()));
+    }
+}
@@ -0,0 +1,108 @@
+package juno.detector;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class JunoDetectorTest {
+
+    // What JunoPaths.init() looks up, and where an IDF install keeps it.
+    private static final Map<String, String> TOOLS = new LinkedHashMap<>();
+
+    static {
+        TOOLS.put("python", "tools/python_env/idf5.4_py3.11_env/bin");
+        TOOLS.put("xtensa-esp-elf-gcc", "tools/xtensa-esp-elf/esp-14.2.0/xtensa-esp-elf/bin");
+        TOOLS.put("xtensa-esp32-elf-gdb", "tools/xtensa-esp-elf-gdb/14.2/xtensa-esp-elf-gdb/bin");
+        TOOLS.put("cmake", "tools/cmake/3.30.2/bin");
+        TOOLS.put("ninja", "tools/ninja/1.12.1");
+        TOOLS.put("ccache", "tools/ccache/4.10.2/ccache-4.10.2-linux-x86_64");
+        TOOLS.put("dfu-util", "tools/dfu-util/0.11/dfu-util-0.11/bin");
+        TOOLS.put("openocd", "tools/openocd-esp32/v0.12.0/openocd-esp32/bin");
+        TOOLS.put("memory.tcl", "tools/openocd-esp32/v0.12.0/openocd-esp32/share/openocd/scripts");
+        TOOLS.put("clang", "tools/esp-clang/esp-18.1.2/esp-clang/bin");
+    }
+
+    @TempDir
+    Path root;
+
+    @Test
+    void indexFindsTheSameToolsAsARecursiveSearch() throws IOException {
+        createIdfTree(root, 2_000);
+        // A non-executable file of the same name must not shadow the real tool.
+        Files.createFile(root.resolve("cmake"));
+
+        Map<String, List<File>> index = JunoDetector.buildFileIndex(root.toFile());
+        for (String tool : TOOLS.keySet()) {
+            File expected = searchRecursively(root.toFile(), tool);
+            assertNotNull(expected, tool);
+            assertEquals(expected, JunoDetector.findExecutable(index, tool), tool);
+        }
+        assertEquals(searchRecursively(root.toFile(), "CMake"), JunoDetector.findExecutable(index, "CMake"));
+        assertNull(JunoDetector.findExecutable(index, "openocd.exe"));
+    }
+
+    @Test
+    void indexOfMissingRootIsEmpty() {
+        assertEquals(Map.of(), JunoDetector.buildFileIndex(root.resolve("missing").toFile()));
+    }
+
+    @Test
+    void indexBeatsOneWalkPerToolOnFiveThousandFiles() throws IOException {
+        createIdfTree(root, 5_000);
+
+        long start = System.nanoTime();
+        for (String tool : TOOLS.keySet()) searchRecursively(root.toFile(), tool);
+        long perToolWalks = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        Map<String, List<File>> index = JunoDetector.buildFileIndex(root.toFile());
+        for (String tool : TOOLS.keySet()) assertNotNull(JunoDetector.findExecutable(index, tool), tool);
+        long indexed = System.nanoTime() - start;
+
+        assertTrue(indexed < perToolWalks, String.format("%d lookups: %d ms indexed, %d ms walking per tool",
+                TOOLS.size(), indexed / 1_000_000, perToolWalks / 1_000_000));
+    }
+
+    // Spreads filler files over a few directory levels, then drops in the tools, marked executable.
+    private static void createIdfTree(Path root, int fillerFiles) throws IOException {
+        int perDir = 50;
+        for (int i = 0; i < fillerFiles; i++) {
+            Path dir = root.resolve("components/c" + (i / perDir / 20)).resolve("src" + (i / perDir % 20));
+            if (i % perDir == 0) Files.createDirectories(dir);
+            Files.createFile(dir.resolve("file" + i + ".c"));
+        }
+        for (Map.Entry<String, String> tool : TOOLS.entrySet()) {
+            Path dir = Files.createDirectories(root.resolve(tool.getValue()));
+            File file = Files.createFile(dir.resolve(tool.getKey())).toFile();
+            assumeTrue(file.setExecutable(true), "file system cannot mark files executable");
+        }
+    }
+
+    // The per-tool walk JunoDetector used before the index.
+    private static File searchRecursively(File dir, String targetFileName) {
+        File[] files = dir.listFiles();
+        if (files == null) return null;
+        for (File f : files) {
+            if (f.isDirectory()) {
+                File result = searchRecursively(f, targetFileName);
+                if (result != null) return result;
+            } else if (f.getName().equalsIgnoreCase(targetFileName) && f.canExecute()) {
+                return f;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,73 @@
+package juno.device;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LatencyHistogramTest {
+
+    @Test
+    void percentilesReportTheUpperBoundOfTheirBucket() {
+        LatencyHistogram histogram = new LatencyHistogram(20);
+        histogram.add(3, 90);   // [8, 16) us
+        histogram.add(10, 9);   // [1024, 2048) us
+        histogram.add(19, 1);   // 2^19 us and up
+
+        assertEquals(16, histogram.percentileMicros(0));
+        assertEquals(16, histogram.percentileMicros(0.5));
+        assertEquals(16, histogram.percentileMicros(0.9));
+        assertEquals(2048, histogram.percentileMicros(0.91));
+        assertEquals(2048, histogram.percentileMicros(0.99));
+        // The last bucket has no upper bound, so it reports its lower one.
+        assertEquals(1L << 19, histogram.percentileMicros(0.999));
+        assertEquals(1L << 19, histogram.percentileMicros(1));
+    }
+
+    @Test
+    void bucketZeroAlsoHoldsZero() {
+        LatencyHistogram histogram = new LatencyHistogram(4);
+        histogram.add(0, 1);
+
+        assertEquals(0, LatencyHistogram.bucketLowerMicros(0));
+        assertEquals(2, LatencyHistogram.bucketLowerMicros(1));
+        assertEquals(2, histogram.percentileMicros(0.5));
+    }
+
+    @Test
+    void emptyHistogramAndBadFractions() {
+        LatencyHistogram histogram = new LatencyHistogram(20);
+
+        assertEquals(0, histogram.percentileMicros(0.99));
+        assertThrows(IllegalArgumentException.class, () -> histogram.percentileMicros(-0.1));
+        assertThrows(IllegalArgumentException.class, () -> histogram.percentileMicros(1.1));
+        assertThrows(IllegalArgumentException.class, () -> new LatencyHistogram(0));
+        assertThrows(IllegalArgumentException.class, () -> new LatencyHistogram(63));
+    }
+
+    @Test
+    void countAtLeastOnlyCountsBucketsEntirelyAboveTheValue() {
+        LatencyHistogram histogram = new LatencyHistogram(20);
+        histogram.add(3, 90);
+        histogram.add(10, 9);
+        histogram.add(19, 1);
+
+        assertEquals(100, histogram.countAtLeast(0));
+        assertEquals(10, histogram.countAtLeast(1000));
+        assertEquals(10, histogram.countAtLeast(1024));
+        // Bucket 10 straddles 1025, so only the open-ended bucket is certainly above it.
+        assertEquals(1, histogram.countAtLeast(1025));
+        assertEquals(1, histogram.countAtLeast(1L << 19));
+        assertEquals(0, histogram.countAtLeast((1L << 19) + 1));
+    }
+
+    @Test
+    void extraBucketsFoldIntoTheOpenEndedOne() {
+        LatencyHistogram histogram = new LatencyHistogram(4);
+        histogram.addAll(new long[]{1, 2, 3, 4, 5, 6});
+
+        assertArrayEquals(new long[]{1, 2, 3, 15}, histogram.getBuckets());
+        assertEquals(21, histogram.getCount());
+    }
+}
@@ -0,0 +1,122 @@
+package juno.device;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LoopTelemetryTest {
+
+    // JUNO_TELEMETRY_BUCKETS in the generated firmware.
+    private static final int BUCKETS = 20;
+
+    @Test
+    void parsesTheFirmwareLayout() {
+        long[] loop = new long[BUCKETS];
+        long[] jitter = new long[BUCKETS];
+        loop[3] = 900;
+        loop[BUCKETS - 1] = 65535;
+        jitter[0] = 1000;
+        byte[] payload = summary(LoopTelemetry.VERSION, 5_000, loop, jitter);
+        assertEquals(44 + 4 * BUCKETS, payload.length);
+
+        LoopTelemetry.Summary summary = LoopTelemetry.Summary.parse(payload);
+
+        assertEquals(1000, summary.getPeriodMillis());
+        assertEquals(5_000, summary.getUptimeMillis());
+        assertEquals(1000, summary.getIterations());
+        assertEquals(7, summary.getOverruns());
+        assertEquals(3_000_000_000L, summary.getMaxLoopMicros());
+        assertEquals(123_456, summary.getTotalLoopMicros());
+        assertEquals(250, summary.getMaxJitterMicros());
+        assertEquals(200_000, summary.getFreeHeap());
+        assertEquals(150_000, summary.getMinFreeHeap());
+        assertEquals(1_024, summary.getLoopStackFree());
+        assertEquals(512, summary.getTelemetryStackFree());
+        assertArrayEquals(loop, summary.getLoopBuckets());
+        assertArrayEquals(jitter, summary.getJitterBuckets());
+    }
+
+    @Test
+    void rejectsAnUnknownVersion() {
+        byte[] payload = summary(LoopTelemetry.VERSION + 1, 5_000, new long[BUCKETS], new long[BUCKETS]);
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> LoopTelemetry.Summary.parse(payload));
+        assertTrue(e.getMessage().contains("version"), e.getMessage());
+    }
+
+    @Test
+    void rejectsALengthThatDoesNotMatchTheBucketCount() {
+        byte[] payload = summary(LoopTelemetry.VERSION, 5_000, new long[BUCKETS], new long[BUCKETS]);
+
+        assertThrows(IllegalArgumentException.class, () -> LoopTelemetry.Summary.parse(Arrays.copyOf(payload, payload.length - 2)));
+        assertThrows(IllegalArgumentException.class, () -> LoopTelemetry.Summary.parse(Arrays.copyOf(payload, payload.length + 4)));
+        assertThrows(IllegalArgumentException.class, () -> LoopTelemetry.Summary.parse(Arrays.copyOf(payload, 10)));
+        byte[] noBuckets = Arrays.copyOf(payload, LoopTelemetry.HEADER_SIZE);
+        noBuckets[1] = 0;
+        assertThrows(IllegalArgumentException.class, () -> LoopTelemetry.Summary.parse(noBuckets));
+    }
+
+    @Test
+    void malformedPayloadsAreCountedAndSkipped() {
+        LoopTelemetry telemetry = new LoopTelemetry();
+        telemetry.accept(new byte[3]);
+        telemetry.accept(summary(LoopTelemetry.VERSION, 5_000, new long[BUCKETS], new long[BUCKETS]));
+
+        assertEquals(1, telemetry.getRejected());
+        assertEquals(1, telemetry.getSummaries());
+    }
+
+    @Test
+    void uptimeGoingBackwardsCountsAsARestart() {
+        LoopTelemetry telemetry = new LoopTelemetry();
+        for (long uptime : new long[]{5_000, 6_000, 1_000, 2_000}) {
+            telemetry.accept(summary(LoopTelemetry.VERSION, uptime, new long[BUCKETS], new long[BUCKETS]));
+        }
+
+        assertEquals(1, telemetry.getRestarts());
+        assertEquals(4, telemetry.getSummaries());
+        assertEquals(4_000, telemetry.getIterations());
+        assertEquals(2_000, telemetry.getLatest().getUptimeMillis());
+    }
+
+    @Test
+    void mergesHistogramsAcrossSummaries() {
+        long[] loop = new long[BUCKETS];
+        loop[4] = 10;
+        LoopTelemetry telemetry = new LoopTelemetry();
+        telemetry.accept(summary(LoopTelemetry.VERSION, 1_000, loop, new long[BUCKETS]));
+        telemetry.accept(summary(LoopTelemetry.VERSION, 2_000, loop, new long[BUCKETS]));
+
+        assertEquals(20, telemetry.getLoopTimeHistogram().getBuckets()[4]);
+        assertEquals(14, telemetry.getOverruns());
+        assertEquals(150_000, telemetry.getLowestFreeHeap());
+    }
+
+    // Same field order as the firmware's juno_telemetry_task(), fixed values except uptime and buckets.
+    private static byte[] summary(int version, long uptimeMillis, long[] loop, long[] jitter) {
+        ByteBuffer out = ByteBuffer.allocate(LoopTelemetry.HEADER_SIZE + 4 * loop.length).order(ByteOrder.LITTLE_ENDIAN);
+        out.put((byte) version);
+        out.put((byte) loop.length);
+        out.putShort((short) 1000);
+        out.putInt((int) uptimeMillis);
+        out.putInt(1000);
+        out.putInt(7);
+        out.putInt((int) 3_000_000_000L);
+        out.putInt(123_456);
+        out.putInt(250);
+        out.putInt(200_000);
+        out.putInt(150_000);
+        out.putInt(1_024);
+        out.putInt(512);
+        for (long count : loop) out.putShort((short) count);
+        for (long count : jitter) out.putShort((short) count);
+        return out.array();
+    }
+}
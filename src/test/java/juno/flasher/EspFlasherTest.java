@@ -0,0 +1,240 @@
+package juno.flasher;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.abort;
+
+class EspFlasherTest {
+
+    private static final int APP_SIZE = 300_000;
+
+    @TempDir
+    Path tempDir;
+
+    private final List<VirtualEspBootloader> devices = new ArrayList<>();
+
+    @AfterEach
+    void closeDevices() {
+        devices.forEach(VirtualEspBootloader::close);
+    }
+
+    @Test
+    void flashesThroughTheRomLoader() throws IOException {
+        VirtualEspBootloader device = launch();
+        FirmwareImage image = image(APP_SIZE, 1);
+
+        EspFlasher.Result result = new EspFlasher().flash(device.getPortPath(), image);
+
+        assertFalse(result.isStub());
+        assertEquals(EspFlasher.DEFAULT_BAUD, result.getBaudRate());
+        assertEquals(image.getTotalBytes(), result.getBytesWritten());
+        assertTrue(result.getBytesSent() < result.getBytesWritten(), "data should go out compressed");
+        assertImage(device, image);
+    }
+
+    @Test
+    void flashesThroughTheStubOverStaleContents() throws IOException {
+        VirtualEspBootloader device = launch();
+        byte[] garbage = new byte[APP_SIZE];
+        new Random(9).nextBytes(garbage);
+        device.writeFlash(0x10000, garbage);
+        FirmwareImage image = image(APP_SIZE, 2);
+
+        EspFlasher flasher = new EspFlasher();
+        flasher.setStubFile(fakeStub());
+        EspFlasher.Result result = flasher.flash(device.getPortPath(), image);
+
+        assertTrue(result.isStub());
+        assertTrue(device.isStubRunning());
+        assertImage(device, image);
+    }
+
+    @Test
+    void reportsProgressUpToEachPartSize() throws IOException {
+        VirtualEspBootloader device = launch();
+        FirmwareImage image = image(APP_SIZE, 3);
+        long[] last = new long[image.getParts().size()];
+
+        EspFlasher flasher = new EspFlasher();
+        flasher.setProgressListener((port, part, written, total) -> {
+            assertEquals(device.getPortPath(), port);
+            assertTrue(written <= total);
+            last[image.getParts().indexOf(part)] = written;
+        });
+        flasher.flash(device.getPortPath(), image);
+
+        for (int i = 0; i < last.length; i++) assertEquals(image.getParts().get(i).getData().length, last[i]);
+    }
+
+    @Test
+    void verificationCatchesFlashThatDoesNotMatch() throws IOException {
+        VirtualEspBootloader device = launch();
+        FirmwareImage image = image(APP_SIZE, 4);
+
+        EspFlasher flasher = new EspFlasher();
+        flasher.setProgressListener((port, part, written, total) -> {
+            // Flip a byte behind the flasher's back once the app is written.
+            if (part.getName().equals("app.bin") && written == total) device.writeFlash(0x10000 + 1234, new byte[]{0x11});
+        });
+
+        IOException error = assertThrows(IOException.class, () -> flasher.flash(device.getPortPath(), image));
+        assertTrue(error.getMessage().contains("app.bin"), error.getMessage());
+    }
+
+    @Test
+    void differentialFlashWritesOnlyChangedSectors() throws IOException {
+        VirtualEspBootloader device = launch();
+        EspFlasher flasher = new EspFlasher();
+        flasher.setStubFile(fakeStub());
+        flasher.setDifferential(true);
+        flasher.setManifestDir(tempDir.resolve("manifests"));
+
+        FirmwareImage v1 = image(APP_SIZE, 5);
+        EspFlasher.Result first = reflash(device, flasher, v1);
+        assertEquals(first.getSectorsTotal(), first.getSectorsWritten());
+
+        EspFlasher.Result same = reflash(device, flasher, v1);
+        assertEquals(0, same.getSectorsWritten());
+        assertEquals(0, same.getBytesWritten());
+
+        byte[] app = v1.getParts().get(2).getData().clone();
+        app[100] ^= 1;
+        app[200_000] ^= 1;
+        FirmwareImage v2 = withApp(v1, app);
+        long erasedBefore = device.getSectorsErased();
+        EspFlasher.Result changed = reflash(device, flasher, v2);
+        assertEquals(2, changed.getSectorsWritten());
+        assertEquals(2, device.getSectorsErased() - erasedBefore);
+        assertImage(device, v2);
+        assertTrue(Files.exists(tempDir.resolve("manifests/24-0a-c4-00-00-01.json")));
+    }
+
+    @Test
+    void differentialFlashHashesOnTheDeviceWithoutAManifest() throws IOException {
+        VirtualEspBootloader device = launch();
+        FirmwareImage v1 = image(APP_SIZE, 6);
+        new EspFlasher().flash(device.getPortPath(), v1);
+
+        byte[] app = v1.getParts().get(2).getData().clone();
+        app[150_000] ^= 1;
+        FirmwareImage v2 = withApp(v1, app);
+        EspFlasher flasher = new EspFlasher();
+        flasher.setDifferential(true);
+
+        assertEquals(1, reflash(device, flasher, v2).getSectorsWritten());
+        assertImage(device, v2);
+    }
+
+    @Test
+    void staleManifestFallsBackToDeviceHashing() throws IOException {
+        VirtualEspBootloader device = launch();
+        EspFlasher flasher = new EspFlasher();
+        flasher.setDifferential(true);
+        flasher.setManifestDir(tempDir);
+        FirmwareImage v1 = image(APP_SIZE, 7);
+        reflash(device, flasher, v1);
+
+        // Someone else changes the board; the manifest still describes v1.
+        byte[] foreign = v1.getParts().get(2).getData().clone();
+        foreign[10_000] ^= 1;
+        device.writeFlash(0x10000, foreign);
+
+        byte[] app = v1.getParts().get(2).getData().clone();
+        app[250_000] ^= 1;
+        FirmwareImage v2 = withApp(v1, app);
+        assertEquals(2, reflash(device, flasher, v2).getSectorsWritten());
+        assertImage(device, v2);
+    }
+
+    @Test
+    void readsTheFactoryMacAddress() throws IOException {
+        VirtualEspBootloader device = launch();
+        device.setMacAddress(new byte[]{0x24, 0x0A, (byte) 0xC4, 0x12, 0x34, 0x56});
+        try (EspRomLoader loader = new EspRomLoader(device.getPortPath())) {
+            loader.connect();
+            assertEquals("24:0a:c4:12:34:56", loader.readMacAddress());
+        }
+    }
+
+    private VirtualEspBootloader launch() {
+        VirtualEspBootloader device;
+        try {
+            device = VirtualEspBootloader.launchOnPty();
+        } catch (IOException e) {
+            return abort("no pty available: " + e.getMessage());
+        }
+        devices.add(device);
+        device.start();
+        return device;
+    }
+
+    // The pty cannot carry the EN pulse between flashes, so reset the device by hand.
+    private static EspFlasher.Result reflash(VirtualEspBootloader device, EspFlasher flasher, FirmwareImage image) throws IOException {
+        device.reset();
+        return flasher.flash(device.getPortPath(), image);
+    }
+
+    private static void assertImage(VirtualEspBootloader device, FirmwareImage image) {
+        for (FirmwareImage.Part part : image.getParts()) {
+            assertArrayEquals(part.getData(), device.readFlash(part.getOffset(), part.getData().length), part.getName());
+        }
+    }
+
+    static FirmwareImage image(int appSize, long seed) {
+        return new FirmwareImage(List.of(
+                new FirmwareImage.Part(0x1000, "bootloader.bin", firmwareLike(26_000, seed + 1)),
+                new FirmwareImage.Part(0x8000, "partition-table.bin", firmwareLike(3072, seed + 2)),
+                new FirmwareImage.Part(0x10000, "app.bin", firmwareLike(appSize, seed))),
+                FirmwareImage.DEFAULT_FLASH_SIZE, true);
+    }
+
+    static FirmwareImage withApp(FirmwareImage image, byte[] app) {
+        List<FirmwareImage.Part> parts = new ArrayList<>(image.getParts());
+        FirmwareImage.Part old = parts.remove(parts.size() - 1);
+        parts.add(new FirmwareImage.Part(old.getOffset(), old.getName(), app));
+        return new FirmwareImage(parts, image.getFlashSize(), image.isStubAllowed());
+    }
+
+    // Random bytes with runs mixed in, so it deflates about as well as real firmware.
+    private static byte[] firmwareLike(int size, long seed) {
+        Random random = new Random(seed);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; ) {
+            if (random.nextInt(10) < 6) {
+                data[i++] = (byte) random.nextInt();
+            } else {
+                int run = Math.min(size - i, 4 + random.nextInt(12));
+                Arrays.fill(data, i, i + run, (byte) random.nextInt(4));
+                i += run;
+            }
+        }
+        return data;
+    }
+
+    // The emulator only checks the upload protocol, so any payload stands in for esptool's stub.
+    Path fakeStub() throws IOException {
+        byte[] text = new byte[9000];
+        new Random(3).nextBytes(text);
+        Path stub = tempDir.resolve("stub.json");
+        Files.writeString(stub, "{\"entry\": 1074521560, \"text\": \"" + Base64.getEncoder().encodeToString(text)
+                + "\", \"text_start\": 1074520064, \"data\": \"" + Base64.getEncoder().encodeToString(new byte[300])
+                + "\", \"data_start\": 1073605544}");
+        return stub;
+    }
+}
@@ -0,0 +1,60 @@
+package juno.flasher;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FleetFlasherTest {
+
+    private static final List<String> PORTS = List.of("/dev/ttyUSB0", "/dev/ttyUSB1", "/dev/ttyUSB2");
+
+    @Test
+    void throwingListenerNeitherFailsNorRetriesABoard() throws Exception {
+        FleetFlasher fleet = new FleetFlasher(new FakeFlasher(null));
+        fleet.setListener(new FleetFlasher.Listener() {
+            @Override
+            public void onFinished(FleetFlasher.DeviceResult result) {
+                throw new IllegalStateException("listener bug");
+            }
+        });
+
+        FleetFlasher.Report report = fleet.flash(PORTS, EspFlasherTest.image(4096, 1));
+
+        assertTrue(report.isAllSucceeded(), report.toString());
+        for (FleetFlasher.DeviceResult device : report.getDevices()) assertEquals(1, device.getAttempts());
+    }
+
+    @Test
+    void errorFromTheFlasherIsReportedForItsBoardOnly() throws Exception {
+        FleetFlasher fleet = new FleetFlasher(new FakeFlasher("/dev/ttyUSB1"));
+
+        FleetFlasher.Report report = fleet.flash(PORTS, EspFlasherTest.image(4096, 2));
+
+        assertEquals(PORTS.size(), report.getDevices().size());
+        assertEquals(1, report.getFailures().size());
+        FleetFlasher.DeviceResult failed = report.getFailures().get(0);
+        assertEquals("/dev/ttyUSB1", failed.getPortName());
+        assertTrue(failed.getError() instanceof ExecutionException);
+        assertFalse(report.isAllSucceeded());
+    }
+
+    // Succeeds at once, except that one port throws an Error instead of an Exception.
+    private static final class FakeFlasher extends EspFlasher {
+        private final String brokenPort;
+
+        FakeFlasher(String brokenPort) {
+            this.brokenPort = brokenPort;
+        }
+
+        @Override
+        public Result flash(String portName, FirmwareImage image) {
+            if (portName.equals(brokenPort)) throw new AssertionError("driver crashed");
+            return new Result(portName, image.getTotalBytes(), image.getTotalBytes(), DEFAULT_BAUD, false, 0, 0, 0);
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package juno.flasher;
+
+import juno.serial.PtyBridge;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Software stand-in for an ESP32 held in its serial bootloader, for exercising
+ * {@link EspRomLoader} and {@link EspFlasher} without hardware.
+ * <p>
+ * It speaks the ROM protocol (SYNC, READ_REG, SPI_ATTACH, SPI_SET_PARAMS, CHANGE_BAUDRATE,
+ * FLASH_DEFL_*, SPI_FLASH_MD5) and switches to the stub dialect after a MEM_BEGIN/MEM_DATA/MEM_END
+ * upload. Flash behaves like NOR: erasing sets bytes to 0xFF and programming can only clear bits,
+ * so writing over unerased data shows up in the MD5 check as it would on a real chip. With
+ * {@link #setSimulateTiming(boolean)} it also charges wire time at the current baud rate and
+ * typical erase and program times. Use {@link #launchOnPty()} to open it like a real port.
+ */
+public class VirtualEspBootloader implements AutoCloseable {
+
+    public static final int DEFAULT_FLASH_SIZE = 4 * 1024 * 1024;
+
+    // ROM error codes carried in the second status byte.
+    static final int ERR_INVALID_MESSAGE = 0x05;
+    static final int ERR_FAILED = 0x06;
+    static final int ERR_INVALID_CRC = 0x07;
+    static final int ERR_DEFLATE = 0x0B;
+
+    // Typical SPI NOR figures: 64 KB block erase, 4 KB sector erase, 256-byte page program, fast read.
+    private static final long BLOCK_ERASE_NANOS = 150_000_000L;
+    private static final long SECTOR_ERASE_NANOS = 45_000_000L;
+    private static final long PAGE_PROGRAM_NANOS = 700_000L;
+    private static final double READ_NANOS_PER_BYTE = 100;
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final int PAGE_SIZE = 256;
+
+    private static final List<String> BOOT_BANNER = List.of(
+            "ets Jul 29 2019 12:21:46",
+            "rst:0x1 (POWERON_RESET),boot:0x3 (DOWNLOAD_BOOT(UART0/UART1/SDIO_REI_REO_V2))",
+            "waiting for download");
+
+    private final InputStream fromHost;
+    private final OutputStream toHost;
+    private PtyBridge pty;
+    private final byte[] flash;
+    private boolean simulateTiming = false;
+    private volatile byte[] macAddress = {0x24, 0x0A, (byte) 0xC4, 0x00, 0x00, 0x01};
+
+    // Loader state, owned by the device thread.
+    private boolean stub = false;
+    private int baudRate = EspRomLoader.ROM_BAUD;
+    private Inflater inflater;
+    private int writePos;
+    private int writeEnd;
+    private int erasedEnd;
+    private int nextSeq;
+    private long timingDebtNanos = 0;
+
+    private final AtomicLong commands = new AtomicLong();
+    private final AtomicLong sectorsErased = new AtomicLong();
+    private final AtomicLong bytesProgrammed = new AtomicLong();
+
+    private volatile boolean resetPending = false;
+    private volatile boolean running = false;
+    private Thread deviceThread;
+
+    /**
+     * @param fromHost bytes the host sends to the device
+     * @param toHost bytes the device sends to the host
+     */
+    public VirtualEspBootloader(InputStream fromHost, OutputStream toHost, int flashSize) {
+        this.fromHost = fromHost;
+        this.toHost = toHost;
+        this.flash = new byte[flashSize];
+        Arrays.fill(flash, (byte) 0xFF);
+    }
+
+    /**
+     * Creates a device with {@link #DEFAULT_FLASH_SIZE} of blank flash behind a fresh pty.
+     */
+    public static VirtualEspBootloader launchOnPty() throws IOException {
+        PtyBridge bridge = new PtyBridge();
+        VirtualEspBootloader device = new VirtualEspBootloader(bridge.getInputStream(), bridge.getOutputStream(), DEFAULT_FLASH_SIZE);
+        device.pty = bridge;
+        return device;
+    }
+
+    /**
+     * @return the pty path to open, or null if the device was built on plain streams
+     */
+    public String getPortPath() {
+        return pty != null ? pty.getPortPath() : null;
+    }
+
+    /**
+     * Charges wire, erase, program and read time so flash durations resemble real hardware.
+     */
+    public void setSimulateTiming(boolean simulateTiming) {
+        this.simulateTiming = simulateTiming;
+    }
+
+    /**
+     * @param macAddress six bytes reported through the eFuse registers
+     */
+    public void setMacAddress(byte[] macAddress) {
+        if (macAddress.length != 6) throw new IllegalArgumentException("A MAC address has 6 bytes");
+        this.macAddress = macAddress.clone();
+    }
+
+    /**
+     * Copies data straight into flash, e.g. to start from a previously flashed image.
+     */
+    public void writeFlash(int offset, byte[] data) {
+        synchronized (flash) {
+            System.arraycopy(data, 0, flash, offset, data.length);
+        }
+    }
+
+    public byte[] readFlash(int offset, int length) {
+        synchronized (flash) {
+            return Arrays.copyOfRange(flash, offset, offset + length);
+        }
+    }
+
+    /**
+     * Returns the device to the ROM loader at {@link EspRomLoader#ROM_BAUD}, as the DTR/RTS reset
+     * at the start of a flash does on a real board; a pty has no modem lines to carry it.
+     */
+    public void reset() {
+        resetPending = true;
+    }
+
+    public boolean isStubRunning() {
+        return stub;
+    }
+
+    public int getBaudRate() {
+        return baudRate;
+    }
+
+    public long getCommands() {
+        return commands.get();
+    }
+
+    public long getSectorsErased() {
+        return sectorsErased.get();
+    }
+
+    public long getBytesProgrammed() {
+        return bytesProgrammed.get();
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        deviceThread = new Thread(this::runDevice, "VirtualEspBootloader");
+        deviceThread.setDaemon(true);
+        deviceThread.start();
+    }
+
+    @Override
+    public synchronized void close() {
+        running = false;
+        if (pty != null) pty.close();
+        if (deviceThread != null) deviceThread.interrupt();
+    }
+
+    private void runDevice() {
+        SlipCodec.Decoder decoder = new SlipCodec.Decoder();
+        byte[] buffer = new byte[4096];
+        try {
+            for (String line : BOOT_BANNER) send((line + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            int n;
+            while (running && (n = fromHost.read(buffer)) >= 0) {
+                for (int i = 0; i < n; i++) {
+                    byte[] packet = decoder.feed(buffer[i] & 0xFF);
+                    if (packet != null) {
+                        chargeWire(packet.length + 2);
+                        handle(packet);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Host went away or the device was closed.
+        }
+    }
+
+    private void handle(byte[] packet) throws IOException {
+        if (resetPending) {
+            resetPending = false;
+            stub = false;
+            baudRate = EspRomLoader.ROM_BAUD;
+            inflater = null;
+        }
+        if (packet.length < 8 || packet[0] != 0) return;
+        ByteBuffer in = ByteBuffer.wrap(packet).order(ByteOrder.LITTLE_ENDIAN);
+        int op = packet[1] & 0xFF;
+        int size = Short.toUnsignedInt(in.getShort(2));
+        int checksum = in.getInt(4);
+        if (8 + size != packet.length) {
+            reply(op, 0, new byte[0], ERR_INVALID_MESSAGE);
+            return;
+        }
+        byte[] data = Arrays.copyOfRange(packet, 8, packet.length);
+        ByteBuffer args = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        commands.incrementAndGet();
+
+        switch (op) {
+            case EspRomLoader.SYNC -> {
+                if (!Arrays.equals(data, EspRomLoader.SYNC_DATA)) {
+                    reply(op, 0, new byte[0], ERR_INVALID_MESSAGE);
+                    return;
+                }
+                // The ROM answers a SYNC several times over.
+                for (int i = 0; i < (stub ? 1 : 8); i++) reply(op, 0, new byte[0], 0);
+            }
+            case EspRomLoader.READ_REG -> reply(op, readRegister(args.getInt(0)), new byte[0], 0);
+            case EspRomLoader.SPI_ATTACH -> reply(op, 0, new byte[0], 0);
+            case EspRomLoader.SPI_SET_PARAMS -> reply(op, 0, new byte[0], args.getInt(4) > flash.length ? ERR_FAILED : 0);
+            case EspRomLoader.CHANGE_BAUDRATE -> {
+                reply(op, 0, new byte[0], 0);
+                baudRate = args.getInt(0);
+            }
+            case EspRomLoader.MEM_BEGIN, EspRomLoader.MEM_DATA -> reply(op, 0, new byte[0], 0);
+            case EspRomLoader.MEM_END -> {
+                reply(op, 0, new byte[0], 0);
+                if (args.getInt(0) == 0) {
+                    stub = true;
+                    send(SlipCodec.encode(EspRomLoader.STUB_GREETING));
+                }
+            }
+            case EspRomLoader.FLASH_DEFL_BEGIN -> beginWrite(op, args.getInt(0), args.getInt(12));
+            case EspRomLoader.FLASH_DEFL_DATA -> writeBlock(op, data, checksum);
+            case EspRomLoader.FLASH_DEFL_END -> {
+                reply(op, 0, new byte[0], 0);
+                inflater = null;
+            }
+            case EspRomLoader.SPI_FLASH_MD5 -> md5(op, args.getInt(0), args.getInt(4));
+            default -> reply(op, 0, new byte[0], ERR_INVALID_MESSAGE);
+        }
+    }
+
+    private int readRegister(int address) {
+        byte[] mac = macAddress;
+        if (address == EspRomLoader.CHIP_DETECT_MAGIC_REG) return EspRomLoader.ESP32_CHIP_MAGIC;
+        if (address == EspRomLoader.EFUSE_RD_REG_BASE + 4) {
+            return (mac[2] & 0xFF) << 24 | (mac[3] & 0xFF) << 16 | (mac[4] & 0xFF) << 8 | (mac[5] & 0xFF);
+        }
+        if (address == EspRomLoader.EFUSE_RD_REG_BASE + 8) return (mac[0] & 0xFF) << 8 | (mac[1] & 0xFF);
+        return 0;
+    }
+
+    private void beginWrite(int op, int eraseSize, int offset) throws IOException {
+        if (offset < 0 || eraseSize < 0 || (long) offset + eraseSize > flash.length || offset % EspRomLoader.SECTOR_SIZE != 0) {
+            reply(op, 0, new byte[0], ERR_FAILED);
+            return;
+        }
+        inflater = new Inflater();
+        writePos = offset;
+        writeEnd = offset + eraseSize;
+        erasedEnd = offset;
+        nextSeq = 0;
+        // The ROM erases the whole region before acknowledging; the stub erases as data arrives.
+        if (!stub) erase(offset, writeEnd);
+        reply(op, 0, new byte[0], 0);
+    }
+
+    private void writeBlock(int op, byte[] data, int checksum) throws IOException {
+        ByteBuffer args = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        int length = data.length >= 16 ? args.getInt(0) : -1;
+        int seq = data.length >= 16 ? args.getInt(4) : -1;
+        if (inflater == null || length != data.length - 16 || seq != nextSeq) {
+            reply(op, 0, new byte[0], ERR_INVALID_MESSAGE);
+            return;
+        }
+        byte[] block = Arrays.copyOfRange(data, 16, data.length);
+        if (EspRomLoader.checksum(block) != checksum) {
+            reply(op, 0, new byte[0], ERR_INVALID_CRC);
+            return;
+        }
+        nextSeq++;
+
+        inflater.setInput(block);
+        byte[] out = new byte[EspRomLoader.STUB_WRITE_BLOCK];
+        try {
+            int n;
+            while ((n = inflater.inflate(out)) > 0) {
+                if (writePos + n > writeEnd) {
+                    reply(op, 0, new byte[0], ERR_FAILED);
+                    return;
+                }
+                // Like the stub: erase ahead a 64 KB block at a time where aligned, else a sector.
+                while (stub && writePos + n > erasedEnd) {
+                    int step = erasedEnd % BLOCK_SIZE == 0 && erasedEnd + BLOCK_SIZE <= writeEnd ? BLOCK_SIZE : EspRomLoader.SECTOR_SIZE;
+                    erase(erasedEnd, erasedEnd + step);
+                }
+                program(writePos, out, n);
+                writePos += n;
+            }
+        } catch (DataFormatException e) {
+            reply(op, 0, new byte[0], ERR_DEFLATE);
+            return;
+        }
+        reply(op, 0, new byte[0], 0);
+    }
+
+    private void md5(int op, int offset, int size) throws IOException {
+        if (offset < 0 || size < 0 || (long) offset + size > flash.length) {
+            reply(op, 0, new byte[0], ERR_FAILED);
+            return;
+        }
+        byte[] digest;
+        synchronized (flash) {
+            digest = EspFlasher.md5(flash, offset, size);
+        }
+        charge((long) (size * READ_NANOS_PER_BYTE));
+        byte[] body = stub ? digest : HexFormat.of().formatHex(digest).getBytes(StandardCharsets.US_ASCII);
+        reply(op, 0, body, 0);
+    }
+
+    private void erase(int from, int to) {
+        if (to <= from) return;
+        int start = from / EspRomLoader.SECTOR_SIZE * EspRomLoader.SECTOR_SIZE;
+        int end = roundUp(to, EspRomLoader.SECTOR_SIZE);
+        synchronized (flash) {
+            Arrays.fill(flash, start, end, (byte) 0xFF);
+        }
+        for (int address = start; address < end; ) {
+            if (address % BLOCK_SIZE == 0 && address + BLOCK_SIZE <= end) {
+                charge(BLOCK_ERASE_NANOS);
+                address += BLOCK_SIZE;
+            } else {
+                charge(SECTOR_ERASE_NANOS);
+                address += EspRomLoader.SECTOR_SIZE;
+            }
+        }
+        sectorsErased.addAndGet((end - start) / EspRomLoader.SECTOR_SIZE);
+        erasedEnd = Math.max(erasedEnd, end);
+    }
+
+    // NOR programming clears bits only.
+    private void program(int offset, byte[] data, int length) {
+        synchronized (flash) {
+            for (int i = 0; i < length; i++) flash[offset + i] &= data[i];
+        }
+        bytesProgrammed.addAndGet(length);
+        charge((length + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_PROGRAM_NANOS);
+    }
+
+    private void reply(int op, int value, byte[] body, int error) throws IOException {
+        int statusLength = stub ? EspRomLoader.STUB_STATUS_LENGTH : EspRomLoader.ROM_STATUS_LENGTH;
+        ByteBuffer out = ByteBuffer.allocate(8 + body.length + statusLength).order(ByteOrder.LITTLE_ENDIAN);
+        out.put((byte) 1).put((byte) op).putShort((short) (body.length + statusLength)).putInt(value).put(body);
+        out.put((byte) (error == 0 ? 0 : 1)).put((byte) error);
+        send(SlipCodec.encode(out.array()));
+    }
+
+    private void send(byte[] bytes) throws IOException {
+        toHost.write(bytes);
+        toHost.flush();
+    }
+
+    private void chargeWire(int bytes) {
+        // 8N1: ten bit times per byte.
+        charge(bytes * 10L * 1_000_000_000L / baudRate);
+    }
+
+    private void charge(long nanos) {
+        if (!simulateTiming) return;
+        timingDebtNanos += nanos;
+        if (timingDebtNanos < 1_000_000) return;
+        long start = System.nanoTime();
+        LockSupport.parkNanos(timingDebtNanos);
+        timingDebtNanos -= System.nanoTime() - start;
+    }
+
+    private static int roundUp(int value, int multiple) {
+        return (value + multiple - 1) / multiple * multiple;
+    }
+}
@@ -0,0 +1,72 @@
+package juno.serial;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JunoSerialFramingTest {
+
+    @Test
+    void lostDelimiterCostsOnlyTheFrameItSplit() throws Exception {
+        byte[] tail = FrameCodec.encode(frame(9, "lost"));
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(tail, tail.length - 4, 4);
+        for (int i = 1; i <= 3; i++) {
+            stream.writeBytes(("line " + i + "\n").getBytes(StandardCharsets.US_ASCII));
+            stream.writeBytes(FrameCodec.encode(frame(i, "payload " + i)));
+        }
+        byte[] wire = stream.toByteArray();
+
+        for (int chunk : new int[]{wire.length, 1}) {
+            JunoSerialThreaded serial = new JunoSerialThreaded("unused");
+            List<SerialFrame> frames = new ArrayList<>();
+            serial.setFrameListener(frames::add);
+            for (int from = 0; from < wire.length; from += chunk) {
+                byte[] part = Arrays.copyOfRange(wire, from, Math.min(wire.length, from + chunk));
+                serial.receive(part, part.length);
+            }
+
+            assertEquals(3, frames.size(), "chunk " + chunk);
+            for (int i = 1; i <= 3; i++) {
+                assertEquals(i, frames.get(i - 1).getType());
+                assertEquals("payload " + i, new String(frames.get(i - 1).getPayload(), StandardCharsets.US_ASCII));
+            }
+            // The tail's bytes before its zero are text, so they prefix the first line.
+            assertTrue(serial.readLine(100).orElseThrow().endsWith("line 1"));
+            assertEquals(Optional.of("line 2"), serial.readLine(100));
+            assertEquals(Optional.of("line 3"), serial.readLine(100));
+            assertEquals(1, serial.getFrameErrors());
+        }
+    }
+
+    @Test
+    void textTooLongForAFrameIsReadBackAsText() throws Exception {
+        String line = "x".repeat(FrameCodec.MAX_ENCODED_SIZE + 100);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(0);
+        stream.writeBytes((line + "\n").getBytes(StandardCharsets.US_ASCII));
+        stream.writeBytes(FrameCodec.encode(frame(1, "after")));
+        byte[] wire = stream.toByteArray();
+
+        JunoSerialThreaded serial = new JunoSerialThreaded("unused");
+        List<SerialFrame> frames = new ArrayList<>();
+        serial.setFrameListener(frames::add);
+        serial.receive(wire, wire.length);
+
+        assertEquals(Optional.of(line), serial.readLine(100));
+        assertEquals(1, frames.size());
+        assertEquals("after", new String(frames.get(0).getPayload(), StandardCharsets.US_ASCII));
+    }
+
+    private static SerialFrame frame(int type, String payload) {
+        return new SerialFrame(type, payload.getBytes(StandardCharsets.US_ASCII));
+    }
+}
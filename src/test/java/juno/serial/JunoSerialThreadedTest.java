@@ -0,0 +1,262 @@
+package juno.serial;
+
+import com.fazecast.jSerialComm.SerialPort;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.junit.jupiter.api.Assumptions.abort;
+
+class JunoSerialThreadedTest {
+
+    private static final int ROUND_TRIPS = 100;
+
+    private VirtualEsp32 device;
+
+    @BeforeEach
+    void launchDevice() {
+        try {
+            device = VirtualEsp32.launchOnPty();
+        } catch (IOException e) {
+            abort("no pty available: " + e.getMessage());
+        }
+        device.setBootBanner(false);
+        device.start();
+    }
+
+    @AfterEach
+    void closeDevice() {
+        device.close();
+    }
+
+    @Test
+    void handshakeAndEchoOverPty() throws Exception {
+        JunoSerialThreaded serial = new JunoSerialThreaded(device.getPortPath());
+        serial.open();
+        try {
+            serial.write("flash");
+            assertEquals("thunder", awaitLine(serial, "thunder"));
+            serial.write("led on");
+            assertEquals("led on", awaitLine(serial, "led on"));
+            assertEquals(Optional.of("hello world"), serial.readLine(1000));
+            assertEquals(Optional.of("new world"), serial.readLine(1000));
+        } finally {
+            serial.close();
+        }
+    }
+
+    @Test
+    void deviceResynchronisesAfterAStrayDelimiter() throws Exception {
+        JunoSerialThreaded serial = new JunoSerialThreaded(device.getPortPath());
+        serial.open();
+        try {
+            serial.write("flash");
+            awaitLine(serial, "thunder");
+            // The stray zero makes the device read "led on" as a frame body until the real frame starts.
+            serial.write("\u0000led on");
+            serial.writeFrame(new SerialFrame(1, "payload".getBytes(StandardCharsets.US_ASCII)));
+            serial.write("ping");
+            assertEquals("led on", awaitLine(serial, "led on"));
+            assertEquals("ping", awaitLine(serial, "ping"));
+        } finally {
+            serial.close();
+        }
+    }
+
+    @Test
+    void writesFailOnceTheWriterHasFailed() throws Exception {
+        JunoSerialThreaded serial = new JunoSerialThreaded(device.getPortPath(), 16);
+        serial.open();
+        try {
+            serial.write("flash");
+            awaitLine(serial, "thunder");
+            device.close();
+
+            // Without the failure check this blocks forever once the queue is full.
+            IOException failure = assertTimeoutPreemptively(Duration.ofSeconds(10),
+                    () -> assertThrows(IOException.class, () -> {
+                        while (true) serial.write("after hangup");
+                    }));
+            assertTrue(failure.getMessage().contains("failed"), failure.getMessage());
+            assertFalse(serial.isConnected());
+        } finally {
+            serial.close();
+        }
+    }
+
+    @Test
+    void lostPortFailsPendingRequestsWithoutAWrite() throws Exception {
+        JunoSerialThreaded serial = new JunoSerialThreaded(device.getPortPath());
+        serial.open();
+        SerialRequestDispatcher dispatcher = new SerialRequestDispatcher(serial);
+        try {
+            serial.write("flash");
+            awaitLine(serial, "thunder");
+            CompletableFuture<String> pending = dispatcher.submit("never answered", 60_000);
+            device.close();
+
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> pending.get(10, TimeUnit.SECONDS));
+            assertTrue(failure.getCause() instanceof IOException, String.valueOf(failure.getCause()));
+            assertFalse(serial.isConnected());
+        } finally {
+            dispatcher.close();
+            serial.close();
+        }
+    }
+
+    @Test
+    void interruptedWriteIsNotReportedAsSent() throws Exception {
+        // Never opened, so nothing drains the queue.
+        JunoSerialThreaded serial = new JunoSerialThreaded("unused", 1);
+        serial.write("fills the queue");
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(InterruptedIOException.class, () -> serial.write("lost"));
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    void blockingReaderRoundTripBeatsTheOldPollingLoop() throws Exception {
+        long[] blocking = new long[ROUND_TRIPS];
+        JunoSerialThreaded serial = new JunoSerialThreaded(device.getPortPath());
+        serial.open();
+        try {
+            serial.write("flash");
+            awaitLine(serial, "thunder");
+            for (int i = 0; i < ROUND_TRIPS; i++) {
+                long start = System.nanoTime();
+                serial.write("ping " + i);
+                awaitLine(serial, "ping " + i);
+                blocking[i] = System.nanoTime() - start;
+            }
+        } finally {
+            serial.close();
+        }
+
+        long[] polling = new long[ROUND_TRIPS];
+        try (PollingClient client = new PollingClient(device.getPortPath())) {
+            client.send("flash");
+            client.await("thunder");
+            for (int i = 0; i < ROUND_TRIPS; i++) {
+                long start = System.nanoTime();
+                client.send("ping " + i);
+                client.await("ping " + i);
+                polling[i] = System.nanoTime() - start;
+            }
+        }
+
+        double blockingMedian = median(blocking);
+        double pollingMedian = median(polling);
+        System.out.printf("JunoSerialThreaded: round trip median %.2f ms blocking, %.2f ms with 20 ms polling (%d trips)%n",
+                blockingMedian, pollingMedian, ROUND_TRIPS);
+        assertTrue(blockingMedian < pollingMedian, "blocking reader should answer faster than the polling loop");
+    }
+
+    private static String awaitLine(JunoSerialThreaded serial, String expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            Optional<String> line = serial.readLine(100);
+            if (line.isPresent() && line.get().equals(expected)) return line.get();
+        }
+        return fail("no '" + expected + "' from the device");
+    }
+
+    private static double median(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2] / 1e6;
+    }
+
+    // The read path JunoSerialThreaded had before the blocking reader: poll, then sleep 20 ms.
+    private static final class PollingClient implements AutoCloseable {
+        private final SerialPort port;
+        private final StringBuilder received = new StringBuilder();
+        private volatile String outgoing;
+        private volatile boolean running = true;
+        private final Thread thread;
+
+        PollingClient(String portName) throws IOException {
+            port = SerialPort.getCommPort(portName);
+            port.setComPortTimeouts(SerialPort.TIMEOUT_READ_SEMI_BLOCKING, 100, 0);
+            if (!port.openPort()) throw new IOException("Failed to open " + portName);
+            thread = new Thread(this::run, "PollingClient");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void send(String command) {
+            outgoing = command + "\n";
+        }
+
+        void await(String line) {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (System.nanoTime() < deadline) {
+                synchronized (received) {
+                    int at = received.indexOf(line + "\n");
+                    if (at >= 0) {
+                        received.delete(0, at + line.length() + 1);
+                        return;
+                    }
+                }
+                LockSupport.parkNanos(50_000);
+            }
+            fail("no '" + line + "' from the device");
+        }
+
+        private void run() {
+            InputStream in = port.getInputStream();
+            OutputStream out = port.getOutputStream();
+            byte[] buffer = new byte[1024];
+            try {
+                while (running) {
+                    while (in.available() > 0) {
+                        int n = in.read(buffer);
+                        if (n > 0) {
+                            synchronized (received) {
+                                received.append(new String(buffer, 0, n, StandardCharsets.UTF_8));
+                            }
+                        }
+                    }
+                    String command = outgoing;
+                    if (command != null) {
+                        outgoing = null;
+                        out.write(command.getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                    }
+                    Thread.sleep(20);
+                }
+            } catch (IOException | InterruptedException e) {
+                // Closed.
+            }
+        }
+
+        @Override
+        public void close() throws InterruptedException {
+            running = false;
+            thread.join(500);
+            port.closePort();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package juno.serial;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocates a pseudo-terminal whose slave side looks like a serial port to
+ * {@link JunoSerialThreaded} and jSerialComm, and exposes its master side as streams.
+ * <p>
+ * The JDK cannot open a pty by itself, so a small Python relay (Python ships with every
+ * ESP-IDF install and CI image) opens the pair, prints the slave path and copies bytes
+ * between the master and its stdin/stdout. Linux and macOS only.
+ */
+public class PtyBridge implements AutoCloseable {
+
+    private static final String RELAY_SCRIPT = """
+            import os, pty, select, sys, time, tty
+            master, slave = pty.openpty()
+            tty.setraw(slave)
+            sys.stdout.write(os.ttyname(slave) + "\\n")
+            sys.stdout.flush()
+            inp, out = sys.stdin.fileno(), sys.stdout.fileno()
+            def write_all(fd, data):
+                while data:
+                    data = data[os.write(fd, data):]
+            while True:
+                ready, _, _ = select.select([master, inp], [], [])
+                if inp in ready:
+                    data = os.read(inp, 65536)
+                    if not data:
+                        break
+                    write_all(master, data)
+                if master in ready:
+                    try:
+                        write_all(out, os.read(master, 65536))
+                    except OSError:
+                        # EIO while no host has the port open; the master stays readable, so back
+                        # off instead of spinning until the host reopens it
+                        time.sleep(0.01)
+            """;
+
+    private final Process relay;
+    private final String portPath;
+
+    /**
+     * Opens a pty using python3 from the PATH.
+     */
+    public PtyBridge() throws IOException {
+        this("python3");
+    }
+
+    /**
+     * @param pythonExecutable Python 3 interpreter used for the relay
+     */
+    public PtyBridge(String pythonExecutable) throws IOException {
+        relay = new ProcessBuilder(pythonExecutable, "-u", "-c", RELAY_SCRIPT)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+
+        // Read the path byte by byte so no relayed data gets buffered away from getInputStream().
+        StringBuilder path = new StringBuilder();
+        InputStream in = relay.getInputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') path.append((char) b);
+        if (b == -1 || path.length() == 0) {
+            relay.destroy();
+            throw new IOException("Failed to allocate a pty via " + pythonExecutable);
+        }
+        portPath = path.toString();
+    }
+
+    /**
+     * @return the slave device path to open as a serial port, e.g. /dev/pts/7
+     */
+    public String getPortPath() {
+        return portPath;
+    }
+
+    /**
+     * @return bytes the host wrote to the port
+     */
+    public InputStream getInputStream() {
+        return relay.getInputStream();
+    }
+
+    /**
+     * @return stream whose bytes the host reads from the port
+     */
+    public OutputStream getOutputStream() {
+        return relay.getOutputStream();
+    }
+
+    @Override
+    public void close() {
+        try {
+            relay.getOutputStream().close();
+        } catch (IOException ignored) {
+        }
+        try {
+            if (!relay.waitFor(500, TimeUnit.MILLISECONDS)) relay.destroyForcibly();
+        } catch (InterruptedException e) {
+            relay.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
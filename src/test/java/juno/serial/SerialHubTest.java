@@ -0,0 +1,187 @@
+package juno.serial;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.junit.jupiter.api.Assumptions.abort;
+
+class SerialHubTest {
+
+    private static final int PORTS = 512;
+    private static final int WORKERS = 4;
+
+    private EchoFarm farm;
+
+    @AfterEach
+    void closeFarm() {
+        if (farm != null) farm.close();
+    }
+
+    @Test
+    void fewWorkersServeHundredsOfPtys() throws Exception {
+        farm = EchoFarm.launch(PORTS);
+        try (SerialHub hub = new SerialHub(WORKERS, SerialHub.DEFAULT_EVENT_CAPACITY)) {
+            long start = System.nanoTime();
+            for (String port : farm.ports) hub.open(port);
+            long opened = System.nanoTime() - start;
+            assertEquals(PORTS, hub.size());
+            assertEquals(WORKERS, countThreads("JunoSerialHub-"));
+
+            long worst = 0;
+            for (int round = 0; round < 5; round++) {
+                start = System.nanoTime();
+                for (String port : farm.ports) hub.getConnection(port).write("ping " + round);
+                awaitEchoes(hub, "ping " + round);
+                worst = Math.max(worst, System.nanoTime() - start);
+            }
+            System.out.printf("SerialHub: %d ptys on %d workers, opened in %d ms, slowest round of %d echoes %d ms%n",
+                    PORTS, WORKERS, opened / 1_000_000, PORTS, worst / 1_000_000);
+        }
+    }
+
+    @Test
+    void perPortReadsWorkAlongsideTheEventStream() throws Exception {
+        farm = EchoFarm.launch(2);
+        try (SerialHub hub = new SerialHub(1, 16)) {
+            JunoSerialThreaded first = hub.open(farm.ports.get(0));
+            hub.open(farm.ports.get(1));
+            first.write("hello");
+            assertEquals("0:hello", first.readLine(2000).orElseThrow());
+            SerialHub.Event event = hub.pollEvent(2000);
+            assertEquals(farm.ports.get(0), event.getPortName());
+            assertEquals("0:hello", event.getLine());
+        }
+    }
+
+    @Test
+    void stalledPortDoesNotHoldUpItsWorker() throws Exception {
+        farm = EchoFarm.launch(8);
+        PtyBridge stalled;
+        try {
+            stalled = new PtyBridge();
+        } catch (IOException e) {
+            abort("no pty available: " + e.getMessage());
+            return;
+        }
+        // Closing the bridge first lets the blocked write fail before the hub closes the port.
+        try (SerialHub hub = new SerialHub(1, SerialHub.DEFAULT_EVENT_CAPACITY); stalled) {
+            // Nobody reads the bridge, so once the pipe and the tty buffer fill its writes block.
+            JunoSerialThreaded blocked = hub.open(stalled.getPortPath());
+            for (String port : farm.ports) hub.open(port);
+            String chunk = "x".repeat(1000);
+            for (int i = 0; i < 1024; i++) blocked.write(chunk, 0);
+            Thread.sleep(500);
+
+            for (int round = 0; round < 3; round++) {
+                for (String port : farm.ports) hub.getConnection(port).write("ping " + round);
+                awaitEchoes(hub, "ping " + round);
+            }
+        }
+    }
+
+    // Every port answers each line in one round; the echo carries the farm's index for the port.
+    private void awaitEchoes(SerialHub hub, String line) throws InterruptedException {
+        Map<String, String> expected = new HashMap<>();
+        for (int i = 0; i < farm.ports.size(); i++) expected.put(farm.ports.get(i), i + ":" + line);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        while (!expected.isEmpty()) {
+            SerialHub.Event event = hub.pollEvent(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            if (event == null) fail(expected.size() + " ports never echoed '" + line + "'");
+            assertEquals(SerialHub.EventType.LINE, event.getType(), event.toString());
+            assertTrue(expected.remove(event.getPortName(), event.getLine()), "unexpected " + event);
+        }
+    }
+
+    private static long countThreads(String prefix) {
+        return Thread.getAllStackTraces().keySet().stream().filter(t -> t.getName().startsWith(prefix)).count();
+    }
+
+    /**
+     * One Python process holding many ptys; each echoes every line back as "index:line".
+     */
+    static final class EchoFarm implements AutoCloseable {
+        private static final String SCRIPT = """
+                import os, pty, select, sys, tty
+                count = int(sys.argv[1])
+                ports = {}
+                for index in range(count):
+                    master, slave = pty.openpty()
+                    tty.setraw(slave)
+                    ports[master] = [index, b"", slave]
+                    sys.stdout.write(os.ttyname(slave) + "\\n")
+                sys.stdout.flush()
+                poller = select.poll()
+                for master in ports:
+                    poller.register(master, select.POLLIN)
+                poller.register(sys.stdin.fileno(), select.POLLIN)
+                while True:
+                    for fd, _ in poller.poll():
+                        if fd == sys.stdin.fileno():
+                            if not os.read(fd, 4096):
+                                sys.exit(0)
+                            continue
+                        port = ports[fd]
+                        try:
+                            port[1] += os.read(fd, 4096)
+                        except OSError:
+                            poller.unregister(fd)
+                            continue
+                        *lines, port[1] = port[1].split(b"\\n")
+                        for line in lines:
+                            data = b"%d:%s\\n" % (port[0], line)
+                            while data:
+                                data = data[os.write(fd, data):]
+                """;
+
+        final Process process;
+        final List<String> ports = new ArrayList<>();
+
+        private EchoFarm(Process process) {
+            this.process = process;
+        }
+
+        static EchoFarm launch(int count) {
+            try {
+                Process process = new ProcessBuilder("python3", "-c", SCRIPT, Integer.toString(count))
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start();
+                EchoFarm farm = new EchoFarm(process);
+                BufferedReader paths = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+                for (int i = 0; i < count; i++) {
+                    String path = paths.readLine();
+                    if (path == null) {
+                        farm.close();
+                        return abort("pty relay exited early");
+                    }
+                    farm.ports.add(path);
+                }
+                return farm;
+            } catch (IOException e) {
+                return abort("no pty available: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                process.getOutputStream().close();
+                if (!process.waitFor(1, TimeUnit.SECONDS)) process.destroyForcibly();
+            } catch (IOException | InterruptedException e) {
+                process.destroyForcibly();
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package juno.serial;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.abort;
+
+class SerialReplayerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysIntoAConnectionThatWasNeverOpened() throws Exception {
+        Path capture = record("hello world\n");
+
+        JunoSerialThreaded target = new JunoSerialThreaded("unused");
+        try (SerialReplayer replayer = new SerialReplayer(capture)) {
+            SerialReplayer.Result result = replayer.replay(target, SerialReplayer.AS_FAST_AS_POSSIBLE);
+            assertEquals(1, result.getRecords());
+        }
+        assertEquals(Optional.of("hello world"), target.readLine(100));
+    }
+
+    @Test
+    void refusesATargetThatIsOpenOnARealPort() throws Exception {
+        Path capture = record("hello world\n");
+        VirtualEsp32 device = null;
+        try {
+            device = VirtualEsp32.launchOnPty();
+        } catch (IOException e) {
+            abort("no pty available: " + e.getMessage());
+        }
+        device.setBootBanner(false);
+        device.start();
+
+        JunoSerialThreaded target = new JunoSerialThreaded(device.getPortPath());
+        target.open();
+        try (SerialReplayer replayer = new SerialReplayer(capture)) {
+            IOException error = assertThrows(IOException.class,
+                    () -> replayer.replay(target, SerialReplayer.AS_FAST_AS_POSSIBLE));
+            assertTrue(error.getMessage().contains("never opened"), error.getMessage());
+        } finally {
+            target.close();
+            device.close();
+        }
+    }
+
+    private Path record(String text) throws IOException {
+        Path capture = dir.resolve("capture.bin");
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        try (SerialRecorder recorder = new SerialRecorder(capture)) {
+            recorder.onBytes(JunoSerialThreaded.Direction.RX, bytes, 0, bytes.length);
+        }
+        return capture;
+    }
+}
@@ -0,0 +1,67 @@
+package juno.serial;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The connection is never opened: lines are fed straight into it and writes stay in its queue.
+class SerialRequestDispatcherTest {
+
+    @Test
+    void lostPromptOnlyDelaysTheNextRequestByOneTimeout() throws Exception {
+        JunoSerialThreaded serial = new JunoSerialThreaded("unused");
+        SerialRequestDispatcher dispatcher = new SerialRequestDispatcher(serial);
+
+        CompletableFuture<String> first = dispatcher.submit("first", 5000);
+        receive(serial, SerialRequestDispatcher.READY_PROMPT);
+        receive(serial, "one");
+        assertEquals("one", first.get(1, TimeUnit.SECONDS));
+
+        // The prompt after "first" never arrives.
+        CompletableFuture<String> second = dispatcher.submit("second", 100);
+        CompletableFuture<String> third = dispatcher.submit("third", 5000);
+        ExecutionException expired = assertThrows(ExecutionException.class, () -> second.get(1, TimeUnit.SECONDS));
+        assertTrue(expired.getCause() instanceof TimeoutException);
+
+        // "third" went out on the assumed prompt, so its reply is matched.
+        receive(serial, "three");
+        assertEquals("three", third.get(1, TimeUnit.SECONDS));
+        dispatcher.close();
+    }
+
+    @Test
+    void fullWriteQueueNeverBlocksTheReaderThread() throws Exception {
+        JunoSerialThreaded serial = new JunoSerialThreaded("unused", 1);
+        SerialRequestDispatcher dispatcher = new SerialRequestDispatcher(serial);
+
+        CompletableFuture<String> first = dispatcher.submit("first", 5000);
+        CompletableFuture<String> second = dispatcher.submit("second", 5000);
+        assertTimeoutPreemptively(Duration.ofSeconds(1), () -> {
+            receive(serial, SerialRequestDispatcher.READY_PROMPT);
+            receive(serial, SerialRequestDispatcher.READY_PROMPT);
+        });
+
+        // Only "first" fit in the queue, so a reply can only belong to it.
+        receive(serial, "one");
+        assertEquals("one", first.get(1, TimeUnit.SECONDS));
+        assertFalse(second.isDone());
+        assertEquals(1, dispatcher.pendingCount());
+        dispatcher.close();
+    }
+
+    private static void receive(JunoSerialThreaded serial, String line) {
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.US_ASCII);
+        serial.receive(bytes, bytes.length);
+    }
+}
@@ -0,0 +1,465 @@
+package juno.serial;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Software stand-in for an ESP32 running the firmware generated by
+ * {@code JunoProjectCreator}: the {@code juno_serial.c} protocol plus the default
+ * {@code main.c} echo loop.
+ * <p>
+ * It answers the flash/thunder handshake, prompts with {@code juno_read}, echoes each
+ * command followed by the template's fixed lines, and honours {@code juno_baud},
+ * {@code juno_mux} and {@code juno_pipe} the way the firmware does. Background log
+ * traffic, response latency and line drops or corruption can be dialled in to soak-test
+ * the host stack. Use {@link #launchOnPty()} to expose it as a serial port that
+ * {@link JunoSerialThreaded} and {@code JunoDevice} open like real hardware.
+ */
+public class VirtualEsp32 implements AutoCloseable {
+
+    // Mirrors juno_serial.c.
+    private static final int BUF_SIZE = 512;
+    private static final int PIPE_MAX_WINDOW = 8;
+    private static final int DEFAULT_BAUD = 115200;
+    private static final long BAUD_VERIFY_MS = 1500;
+    public static final int DEFAULT_MAX_BAUD = 921600;
+
+    private static final List<String> BOOT_BANNER = List.of(
+            "ets Jul 29 2019 12:21:46",
+            "rst:0x1 (POWERON_RESET),boot:0x13 (SPI_FAST_FLASH_BOOT)",
+            "I (29) boot: ESP-IDF v5.4.2 2nd stage bootloader");
+
+    private static final byte[] EOF = new byte[0];
+
+    private final InputStream fromHost;
+    private final OutputStream toHost;
+    private PtyBridge pty;
+
+    // Settings; change before start().
+    private double logLinesPerSecond = 0;
+    private long minLatencyMicros = 0;
+    private long maxLatencyMicros = 0;
+    private double dropRate = 0;
+    private double corruptRate = 0;
+    private List<String> echoLines = List.of("hello world", "new world");
+    private long loopDelayMillis = 0;
+    private int maxBaud = DEFAULT_MAX_BAUD;
+    private boolean bootBanner = true;
+    private final Random random = new Random();
+
+    // Device state, owned by the device thread like the firmware's statics.
+    private boolean pipelined = false;
+    private boolean hasSeq = false;
+    private long currentSeq = 0;
+    private final byte[] frameBody = new byte[FrameCodec.MAX_ENCODED_SIZE];
+    private final byte[] frameScratch = new byte[FrameCodec.MAX_RAW_SIZE];
+    private int frameLength = -1;
+    private final byte[] replay = new byte[FrameCodec.MAX_ENCODED_SIZE + 1];
+    private int replayLength = 0;
+    private int replayPos = 0;
+    private final StringBuilder lineBuffer = new StringBuilder();
+    private boolean prompted = false;
+    private volatile boolean logsMuxed = false;
+
+    private final BlockingQueue<byte[]> rxQueue = new LinkedBlockingQueue<>();
+    private byte[] rxChunk = EOF;
+    private int rxPos = 0;
+
+    private final AtomicLong linesSent = new AtomicLong();
+    private final AtomicLong linesDropped = new AtomicLong();
+    private final AtomicLong linesCorrupted = new AtomicLong();
+    private final AtomicLong commandsReceived = new AtomicLong();
+
+    private volatile boolean running = false;
+    private Thread rxThread;
+    private Thread deviceThread;
+    private Thread logThread;
+
+    /**
+     * @param fromHost bytes the host sends to the device
+     * @param toHost bytes the device sends to the host
+     */
+    public VirtualEsp32(InputStream fromHost, OutputStream toHost) {
+        this.fromHost = fromHost;
+        this.toHost = toHost;
+    }
+
+    /**
+     * Creates a simulator behind a fresh pty. Configure it, call {@link #start()}, then open
+     * {@link #getPortPath()} as the serial port.
+     */
+    public static VirtualEsp32 launchOnPty() throws IOException {
+        PtyBridge bridge = new PtyBridge();
+        VirtualEsp32 device = new VirtualEsp32(bridge.getInputStream(), bridge.getOutputStream());
+        device.pty = bridge;
+        return device;
+    }
+
+    /**
+     * @return the pty path to open, or null if the simulator was built on plain streams
+     */
+    public String getPortPath() {
+        return pty != null ? pty.getPortPath() : null;
+    }
+
+    /**
+     * Emits ESP-IDF style log lines in the background, as text or on the LOG channel after {@code juno_mux}.
+     */
+    public void setLogLinesPerSecond(double logLinesPerSecond) {
+        this.logLinesPerSecond = logLinesPerSecond;
+    }
+
+    /**
+     * Delays every line the device loop sends by a uniformly random time in the given range.
+     */
+    public void setResponseLatency(long minMicros, long maxMicros) {
+        if (minMicros < 0 || maxMicros < minMicros) throw new IllegalArgumentException("Invalid latency range");
+        this.minLatencyMicros = minMicros;
+        this.maxLatencyMicros = maxMicros;
+    }
+
+    /**
+     * @param dropRate fraction of outgoing lines silently lost
+     * @param corruptRate fraction of outgoing lines with one byte garbled
+     */
+    public void setErrorRates(double dropRate, double corruptRate) {
+        this.dropRate = dropRate;
+        this.corruptRate = corruptRate;
+    }
+
+    /**
+     * Lines written after each echoed command, "hello world" and "new world" in the default template.
+     */
+    public void setEchoLines(List<String> echoLines) {
+        this.echoLines = List.copyOf(echoLines);
+    }
+
+    /**
+     * Loop period, like {@code CONFIG_JUNO_LOOP_PERIOD_MS}: each iteration takes only a command that
+     * has already arrived, as the template's {@code juno_serial_try_read(0)} does, then sleeps.
+     * With 0, the default, the loop instead wakes as soon as a command arrives.
+     */
+    public void setLoopDelayMillis(long loopDelayMillis) {
+        this.loopDelayMillis = loopDelayMillis;
+    }
+
+    /**
+     * Highest rate accepted by {@code juno_baud}, like {@code CONFIG_JUNO_MAX_BAUD}.
+     */
+    public void setMaxBaud(int maxBaud) {
+        this.maxBaud = maxBaud;
+    }
+
+    public void setBootBanner(boolean bootBanner) {
+        this.bootBanner = bootBanner;
+    }
+
+    public void setSeed(long seed) {
+        random.setSeed(seed);
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        rxThread = new Thread(this::runReceiver, "VirtualEsp32-rx");
+        deviceThread = new Thread(this::runDevice, "VirtualEsp32-main");
+        rxThread.setDaemon(true);
+        deviceThread.setDaemon(true);
+        rxThread.start();
+        deviceThread.start();
+        if (logLinesPerSecond > 0) {
+            logThread = new Thread(this::runLogger, "VirtualEsp32-log");
+            logThread.setDaemon(true);
+            logThread.start();
+        }
+    }
+
+    public long getLinesSent() {
+        return linesSent.get();
+    }
+
+    public long getLinesDropped() {
+        return linesDropped.get();
+    }
+
+    public long getLinesCorrupted() {
+        return linesCorrupted.get();
+    }
+
+    /**
+     * @return commands handed to the echo loop, not counting protocol commands
+     */
+    public long getCommandsReceived() {
+        return commandsReceived.get();
+    }
+
+    @Override
+    public synchronized void close() {
+        running = false;
+        if (deviceThread != null) deviceThread.interrupt();
+        if (logThread != null) logThread.interrupt();
+        if (pty != null) pty.close();
+        if (rxThread != null) rxThread.interrupt();
+    }
+
+    // app_main(): juno_serial_init() followed by the echo loop.
+    private void runDevice() {
+        try {
+            if (bootBanner) {
+                for (String line : BOOT_BANNER) emitLine(line);
+            }
+            awaitHandshake();
+            while (running) {
+                String line = read(loopDelayMillis > 0 ? 0 : -1);
+                if (line != null) {
+                    commandsReceived.incrementAndGet();
+                    write(line);
+                    for (String echo : echoLines) write(echo);
+                }
+                if (loopDelayMillis > 0) Thread.sleep(loopDelayMillis);
+            }
+        } catch (InterruptedException | IOException e) {
+            // Host went away or the simulator was closed.
+        }
+    }
+
+    // juno_serial_replay(): a body that is not a frame is read again as text.
+    private void replay(int last) {
+        System.arraycopy(frameBody, 0, replay, 0, frameLength);
+        replay[frameLength] = (byte) last;
+        replayLength = frameLength + 1;
+        replayPos = 0;
+    }
+
+    private void awaitHandshake() throws IOException, InterruptedException {
+        while (true) {
+            String line = readLine(-1);
+            if ("flash".equals(line)) {
+                emitLine("thunder");
+                return;
+            }
+        }
+    }
+
+    // juno_serial_read_within(): null on timeout, a partly received line is kept.
+    private String read(long timeoutNanos) throws IOException, InterruptedException {
+        if (!pipelined && !prompted) {
+            emitLine("juno_read");
+            prompted = true;
+        }
+
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (true) {
+            long remaining = timeoutNanos < 0 ? -1 : Math.max(0, deadline - System.nanoTime());
+            int ch = replayPos < replayLength ? replay[replayPos++] & 0xFF : readByte(remaining);
+            if (ch < 0) return null;
+            if (ch == 0) {
+                if (frameLength > 0) {
+                    if (FrameCodec.decode(frameBody, frameLength, frameScratch) == null) {
+                        replay(0);
+                    }
+                    frameLength = -1;
+                } else {
+                    frameLength = 0;
+                }
+                continue;
+            }
+            if (frameLength >= 0) {
+                if (frameLength < frameBody.length) {
+                    frameBody[frameLength++] = (byte) ch;
+                } else {
+                    replay(ch);
+                    frameLength = -1;
+                }
+                continue;
+            }
+            if (ch == '\r') continue;
+            if (ch != '\n') {
+                if (lineBuffer.length() < BUF_SIZE - 1) lineBuffer.append((char) ch);
+                continue;
+            }
+
+            String line = lineBuffer.toString();
+            lineBuffer.setLength(0);
+            prompted = false;
+            if (line.equals("flash")) {
+                hasSeq = false;
+                write("thunder");
+                return null;
+            }
+            if (line.startsWith("juno_baud ")) {
+                hasSeq = false;
+                negotiateBaud(parseLong(line.substring(10)));
+                return null;
+            }
+            if (line.equals("juno_mux")) {
+                hasSeq = false;
+                logsMuxed = true;
+                write("juno_mux_ok");
+                return null;
+            }
+            if (line.startsWith("juno_pipe ")) {
+                int window = (int) Math.max(1, Math.min(PIPE_MAX_WINDOW, parseLong(line.substring(10))));
+                write("juno_pipe_ok " + window);
+                pipelined = true;
+                return null;
+            }
+            if (pipelined && line.startsWith("@")) {
+                int space = line.indexOf(' ');
+                currentSeq = parseLong(space < 0 ? line.substring(1) : line.substring(1, space));
+                hasSeq = false;
+                write("#ack " + currentSeq);
+                hasSeq = true;
+                return space < 0 ? "" : line.substring(space + 1);
+            }
+            return line;
+        }
+    }
+
+    // juno_serial_negotiate_baud(): a pty has no line rate, so only the handshake is modelled.
+    private void negotiateBaud(long requested) throws IOException, InterruptedException {
+        if (requested <= DEFAULT_BAUD || requested > maxBaud) {
+            write("juno_baud_no " + maxBaud);
+            return;
+        }
+        write("juno_baud_ok " + requested);
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BAUD_VERIFY_MS);
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            String line = readLine(remaining);
+            if (line == null) return;
+            if (line.equals("juno_baud_check")) {
+                write("juno_baud_confirmed");
+            } else if (line.equals("juno_baud_done")) {
+                write("juno_baud_committed");
+                return;
+            }
+        }
+    }
+
+    // juno_serial_write()
+    private void write(String message) throws IOException {
+        if (message == null || message.isEmpty()) return;
+        emitLine(pipelined && hasSeq ? "@" + currentSeq + " " + message : message);
+    }
+
+    private void emitLine(String text) throws IOException {
+        long latency = minLatencyMicros;
+        if (maxLatencyMicros > minLatencyMicros) {
+            latency += (long) (random.nextDouble() * (maxLatencyMicros - minLatencyMicros));
+        }
+        if (latency > 0) LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(latency));
+
+        byte[] bytes = (text + "\n").getBytes(StandardCharsets.UTF_8);
+        if (dropRate > 0 || corruptRate > 0) {
+            synchronized (random) {
+                if (random.nextDouble() < dropRate) {
+                    linesDropped.incrementAndGet();
+                    return;
+                }
+                if (bytes.length > 1 && random.nextDouble() < corruptRate) {
+                    bytes[random.nextInt(bytes.length - 1)] = (byte) ('!' + random.nextInt(94));
+                    linesCorrupted.incrementAndGet();
+                }
+            }
+        }
+        send(bytes);
+        linesSent.incrementAndGet();
+    }
+
+    private void send(byte[] bytes) throws IOException {
+        synchronized (toHost) {
+            toHost.write(bytes);
+            toHost.flush();
+        }
+    }
+
+    private void runLogger() {
+        long periodNanos = (long) (1e9 / logLinesPerSecond);
+        long start = System.nanoTime();
+        long next = start;
+        long count = 0;
+        try {
+            while (running) {
+                long wait = next - System.nanoTime();
+                if (wait > 0) LockSupport.parkNanos(wait);
+                if (Thread.currentThread().isInterrupted()) return;
+
+                String line = "I (" + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + ") juno_sim: tick " + count++;
+                if (logsMuxed) {
+                    send(FrameCodec.encode(new SerialFrame(SerialChannelMux.CHANNEL_FRAME_BASE + SerialChannelMux.LOG,
+                            line.getBytes(StandardCharsets.UTF_8))));
+                    linesSent.incrementAndGet();
+                } else {
+                    emitLine(line);
+                }
+                next += periodNanos;
+            }
+        } catch (IOException e) {
+            // Host went away.
+        }
+    }
+
+    private void runReceiver() {
+        byte[] buffer = new byte[4096];
+        try {
+            int n;
+            while (running && (n = fromHost.read(buffer)) >= 0) {
+                if (n > 0) rxQueue.add(Arrays.copyOf(buffer, n));
+            }
+        } catch (IOException e) {
+            // Stream closed.
+        }
+        rxQueue.add(EOF);
+    }
+
+    /**
+     * @param timeoutNanos negative to wait forever
+     * @return the next byte, or -1 on timeout
+     */
+    private int readByte(long timeoutNanos) throws IOException, InterruptedException {
+        if (rxPos >= rxChunk.length) {
+            byte[] next = timeoutNanos < 0 ? rxQueue.take() : rxQueue.poll(timeoutNanos, TimeUnit.NANOSECONDS);
+            if (next == null) return -1;
+            if (next == EOF) {
+                rxQueue.add(EOF);
+                throw new IOException("Host closed the connection");
+            }
+            rxChunk = next;
+            rxPos = 0;
+        }
+        return rxChunk[rxPos++] & 0xFF;
+    }
+
+    // juno_serial_read_line(): text only, CR skipped, overlong lines truncated.
+    private String readLine(long timeoutNanos) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            long remaining = timeoutNanos < 0 ? -1 : Math.max(0, deadline - System.nanoTime());
+            int ch = readByte(remaining);
+            if (ch < 0) return null;
+            if (ch == '\n') return line.toString();
+            if (ch != '\r' && line.length() < BUF_SIZE - 1) line.append((char) ch);
+        }
+    }
+
+    private static long parseLong(String text) {
+        // strtoul semantics: leading digits only, 0 if none.
+        int end = 0;
+        String trimmed = text.trim();
+        while (end < trimmed.length() && Character.isDigit(trimmed.charAt(end))) end++;
+        return end == 0 ? 0 : Long.parseLong(trimmed.substring(0, Math.min(end, 18)));
+    }
+}